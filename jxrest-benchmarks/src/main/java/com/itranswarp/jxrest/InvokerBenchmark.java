@@ -0,0 +1,83 @@
+package com.itranswarp.jxrest;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare handler invocation by reflection and by MethodHandle.
+ *
+ * @author Michael Liao
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvokerBenchmark {
+
+    Callable callable;
+    Invoker reflectionInvoker;
+    Invoker methodHandleInvoker;
+    String path;
+    int[] captures;
+
+    @Setup
+    public void setUp() throws Exception {
+        BenchmarkHandler handler = new BenchmarkHandler();
+        Method method = BenchmarkHandler.class.getDeclaredMethod("getUser", String.class, long.class);
+        method.setAccessible(true);
+        callable = new Callable(handler, BenchmarkHandler.class, method, "GET", "/groups/:group/users/:id", new Converters());
+        reflectionInvoker = new ReflectionInvoker(handler, method);
+        methodHandleInvoker = new MethodHandleInvoker(handler, method);
+        path = "/groups/admin/users/12345";
+        captures = new int[] { 8, 13, 20, 25 };
+    }
+
+    /**
+     * Resolve arguments into array and invoke by reflection, as Callable.call did before.
+     */
+    @Benchmark
+    public Object reflectionCall() throws Exception {
+        Object[] args = new Object[callable.vars.length];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = callable.vars[i].resolver.resolve(path, captures, null, null, null);
+        }
+        return reflectionInvoker.invoke(args);
+    }
+
+    @Benchmark
+    public Object callableCall() throws Exception {
+        return callable.call(path, captures, null, null, null);
+    }
+
+    @Benchmark
+    public Object reflectionInvoke() throws Exception {
+        return reflectionInvoker.invoke(new Object[] { "admin", 12345L });
+    }
+
+    @Benchmark
+    public Object methodHandleInvoke() throws Exception {
+        return methodHandleInvoker.invoke2("admin", 12345L);
+    }
+
+    public static class BenchmarkHandler {
+
+        @GET
+        @Path("/groups/:group/users/:id")
+        String getUser(String group, long id) {
+            return group;
+        }
+    }
+}
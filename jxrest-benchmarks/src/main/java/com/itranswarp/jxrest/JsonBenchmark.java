@@ -0,0 +1,106 @@
+package com.itranswarp.jxrest;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure parsing request body and serializing response for small and large
+ * payloads by mock request and response.
+ *
+ * @author Michael Liao
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    // jsonstream logs every property at INFO level, which would dominate the result:
+    static final Logger JSONSTREAM_LOGGER = Logger.getLogger("com.itranswarp.jsonstream");
+
+    static {
+        JSONSTREAM_LOGGER.setLevel(Level.WARNING);
+    }
+
+    @Param({ "small", "large" })
+    String payload;
+
+    RestApiHandler handler;
+    MockRequest request;
+    MockResponse response;
+    Object result;
+
+    @Setup
+    public void setUp() throws Exception {
+        handler = new RestApiHandler();
+        int count = "small".equals(payload) ? 1 : 1000;
+        List<Order> orders = new ArrayList<Order>(count);
+        for (int i = 0; i < count; i++) {
+            orders.add(new Order(i));
+        }
+        OrderList list = new OrderList();
+        list.orders = orders;
+        result = list;
+        StringWriter writer = new StringWriter();
+        handler.jsonBuilder.createWriter(writer).write(list);
+        String json = writer.toString();
+        request = new MockRequest("POST", "/api/orders", json.getBytes(StandardCharsets.UTF_8));
+        response = new MockResponse();
+    }
+
+    @Benchmark
+    public Object parseBeanFromJson() throws Exception {
+        request.clear();
+        return handler.parseBeanFromJson(OrderList.class, request);
+    }
+
+    @Benchmark
+    public long processResult() throws Exception {
+        response.clear();
+        handler.processResult(request, response, result);
+        return response.output.count;
+    }
+
+    public static class OrderList {
+        public List<Order> orders;
+    }
+
+    public static class Order {
+
+        public long id;
+        public String customer;
+        public String address;
+        public double amount;
+        public boolean paid;
+
+        public Order() {
+        }
+
+        Order(int i) {
+            this.id = 100000L + i;
+            this.customer = "Customer-" + i;
+            this.address = "No." + i + " Street, 北京";
+            this.amount = i * 1.5;
+            this.paid = (i & 1) == 0;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * In-memory request and response so benchmarks run without network. Methods
+ * used by jxrest are overridden, others return default values.
+ *
+ * @author Michael Liao
+ */
+class MockHttp {
+
+    static <T> T stub(Class<T> clazz) {
+        return clazz.cast(Proxy.newProxyInstance(MockHttp.class.getClassLoader(), new Class<?>[] { clazz }, (proxy, method, args) -> {
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == int.class) {
+                return 0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            return null;
+        }));
+    }
+}
+
+/**
+ * Request with JSON body which can be read again after clear().
+ *
+ * @author Michael Liao
+ */
+class MockRequest extends HttpServletRequestWrapper {
+
+    final String method;
+    final String uri;
+    final String query;
+    // parsed once as servlet container does:
+    final Map<String, String[]> parameters;
+    final byte[] body;
+    final MockInputStream input;
+
+    MockRequest(String method, String uri, byte[] body) {
+        super(MockHttp.stub(HttpServletRequest.class));
+        int n = uri.indexOf('?');
+        this.method = method;
+        this.uri = n == (-1) ? uri : uri.substring(0, n);
+        this.query = n == (-1) ? null : uri.substring(n + 1);
+        this.parameters = BatchRequest.parseQuery(this.query);
+        this.body = body;
+        this.input = new MockInputStream(body);
+    }
+
+    void clear() {
+        this.input.pos = 0;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getQueryString() {
+        return query;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        String[] values = parameters.get(name);
+        return values == null ? null : values[0];
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/json";
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return "UTF-8";
+    }
+
+    @Override
+    public int getContentLength() {
+        return body.length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+        return body.length;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return false;
+    }
+}
+
+class MockInputStream extends ServletInputStream {
+
+    final byte[] data;
+    int pos = 0;
+
+    MockInputStream(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public int read() {
+        return pos < data.length ? (data[pos++] & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (pos >= data.length) {
+            return -1;
+        }
+        int n = Math.min(len, data.length - pos);
+        System.arraycopy(data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return pos >= data.length;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void setReadListener(ReadListener listener) {
+    }
+}
+
+/**
+ * Response which discards output and only counts written bytes.
+ *
+ * @author Michael Liao
+ */
+class MockResponse extends HttpServletResponseWrapper {
+
+    final MockOutputStream output = new MockOutputStream();
+    int status = 200;
+    long contentLength = -1;
+
+    MockResponse() {
+        super(MockHttp.stub(HttpServletResponse.class));
+    }
+
+    void clear() {
+        this.output.count = 0;
+        this.status = 200;
+        this.contentLength = -1;
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    public void sendError(int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    public void sendError(int sc, String msg) {
+        this.status = sc;
+    }
+
+    @Override
+    public void setContentType(String type) {
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        this.contentLength = len;
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        this.contentLength = len;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return output;
+    }
+}
+
+class MockOutputStream extends ServletOutputStream {
+
+    long count = 0;
+
+    @Override
+    public void write(int b) throws IOException {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        count += len;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener listener) {
+    }
+}
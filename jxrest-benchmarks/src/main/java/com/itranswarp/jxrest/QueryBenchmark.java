@@ -0,0 +1,68 @@
+package com.itranswarp.jxrest;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compare binding of query parameters by Map&lt;String, String&gt; and by
+ * &#64;Query. Run with -prof gc: queryParams should allocate nothing but the
+ * result, while queryMap copies all parameters into a new map.
+ *
+ * @author Michael Liao
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    Callable mapCallable;
+    Callable queryCallable;
+    MockRequest request;
+
+    @Setup
+    public void setUp() throws Exception {
+        QueryHandler handler = new QueryHandler();
+        Method mapMethod = QueryHandler.class.getDeclaredMethod("listByMap", Map.class);
+        Method queryMethod = QueryHandler.class.getDeclaredMethod("listByQuery", int.class, int.class);
+        mapCallable = new Callable(handler, QueryHandler.class, mapMethod, "GET", "/items", new Converters());
+        queryCallable = new Callable(handler, QueryHandler.class, queryMethod, "GET", "/items", new Converters());
+        request = new MockRequest("GET", "/items?sort=name&order=asc&page=3&limit=50&fields=id,name", new byte[0]);
+    }
+
+    @Benchmark
+    public Object queryMap() throws Exception {
+        return mapCallable.call(null, null, null, request, null);
+    }
+
+    @Benchmark
+    public Object queryParams() throws Exception {
+        return queryCallable.call(null, null, null, request, null);
+    }
+
+    public static class QueryHandler {
+
+        int listByMap(Map<String, String> query) {
+            String limit = query.get("limit");
+            return Integer.parseInt(query.get("page")) * (limit == null ? 20 : Integer.parseInt(limit));
+        }
+
+        int listByQuery(@Query("page") int page, @Query(value = "limit", defaultValue = "20") int limit) {
+            return page * limit;
+        }
+    }
+}
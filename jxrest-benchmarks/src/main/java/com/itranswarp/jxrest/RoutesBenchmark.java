@@ -0,0 +1,96 @@
+package com.itranswarp.jxrest;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure Routes.call with many static or variable routes. Requests hit the
+ * first, middle and last registered route in turn.
+ *
+ * @author Michael Liao
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutesBenchmark {
+
+    @Param({ "10", "100", "1000", "5000" })
+    int routeCount;
+
+    @Param({ "static", "var" })
+    String routeType;
+
+    Routes routes;
+    String[] paths;
+    Route route;
+    String routePath;
+    int[] captures;
+    int index = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        RouteHandler handler = new RouteHandler();
+        Method staticMethod = RouteHandler.class.getDeclaredMethod("getItems");
+        Method varMethod = RouteHandler.class.getDeclaredMethod("getItem", String.class, long.class);
+        routes = new Routes();
+        for (int i = 0; i < routeCount; i++) {
+            if ("static".equals(routeType)) {
+                routes.addHandler(handler, RouteHandler.class, staticMethod, "GET", "/api/res" + i + "/items");
+            }
+            else {
+                routes.addHandler(handler, RouteHandler.class, varMethod, "GET", "/api/res" + i + "/:group/items/:id");
+            }
+        }
+        int[] hits = { 0, routeCount / 2, routeCount - 1 };
+        paths = new String[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            paths[i] = "static".equals(routeType) ? "/api/res" + hits[i] + "/items" : "/api/res" + hits[i] + "/admin/items/12345";
+        }
+        route = new Route("/api/res" + (routeCount - 1) + "/:group/items/:id");
+        routePath = "/api/res" + (routeCount - 1) + "/admin/items/12345";
+        captures = new int[4];
+    }
+
+    @Benchmark
+    public Object routesCall() throws Exception {
+        String path = paths[index];
+        index = index == paths.length - 1 ? 0 : index + 1;
+        return routes.call("GET", path, null, null, null);
+    }
+
+    @Benchmark
+    public Object routesCallNotFound() throws Exception {
+        return routes.match("GET", "/api/not/found");
+    }
+
+    @Benchmark
+    public boolean routeMatches() {
+        return route.matches(routePath, captures);
+    }
+
+    public static class RouteHandler {
+
+        String getItems() {
+            return "items";
+        }
+
+        String getItem(String group, long id) {
+            return group;
+        }
+    }
+}
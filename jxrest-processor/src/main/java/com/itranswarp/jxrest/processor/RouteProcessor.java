@@ -0,0 +1,506 @@
+package com.itranswarp.jxrest.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+import com.itranswarp.jxrest.Cached;
+import com.itranswarp.jxrest.Cors;
+import com.itranswarp.jxrest.DELETE;
+import com.itranswarp.jxrest.GET;
+import com.itranswarp.jxrest.PATCH;
+import com.itranswarp.jxrest.POST;
+import com.itranswarp.jxrest.PUT;
+import com.itranswarp.jxrest.Path;
+import com.itranswarp.jxrest.Query;
+
+/**
+ * Generate a RouteProvider for each handler class at compile time, which
+ * registers routes with parameter names read from source code and invokes
+ * handler methods by typed calls. Generated providers are listed in
+ * META-INF/services/com.itranswarp.jxrest.RouteProvider and loaded by
+ * RestApiHandler.addGeneratedHandlers().
+ *
+ * Private handler methods, and methods not accessible from the package of
+ * handler class, are still registered but invoked by reflection.
+ *
+ * @author Michael Liao
+ */
+public class RouteProcessor extends AbstractProcessor {
+
+    static final String SERVICE_FILE = "META-INF/services/com.itranswarp.jxrest.RouteProvider";
+
+    static final List<Class<? extends Annotation>> HTTP_ANNOS = Arrays.asList(
+            GET.class,
+            POST.class,
+            PUT.class,
+            DELETE.class,
+            PATCH.class);
+
+    final List<String> providers = new ArrayList<String>();
+    final Set<String> processed = new HashSet<String>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> set = new HashSet<String>();
+        set.add(Path.class.getName());
+        for (Class<? extends Annotation> anno : HTTP_ANNOS) {
+            set.add(anno.getName());
+        }
+        return set;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeServiceFile();
+            return false;
+        }
+        for (Element e : roundEnv.getRootElements()) {
+            processType(e);
+        }
+        return false;
+    }
+
+    void processType(Element e) {
+        if (e.getKind() != ElementKind.CLASS) {
+            return;
+        }
+        TypeElement type = (TypeElement) e;
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            processType(nested);
+        }
+        if (type.getModifiers().contains(Modifier.ABSTRACT) || !processed.add(type.getQualifiedName().toString())) {
+            return;
+        }
+        List<RouteMethod> routes = findRoutes(type);
+        if (routes.isEmpty()) {
+            return;
+        }
+        if (!isAccessibleType(type)) {
+            warn(type, "Routes are not generated for handler class which is private or inner class: " + type.getQualifiedName());
+            return;
+        }
+        for (RouteMethod route : routes) {
+            for (VariableElement param : route.method.getParameters()) {
+                TypeMirror t = processingEnv.getTypeUtils().erasure(param.asType());
+                if (t.getKind() == TypeKind.DECLARED && !isAccessibleFrom((TypeElement) ((DeclaredType) t).asElement(), packageOf(type))) {
+                    warn(route.method, "Routes are not generated for handler class because parameter type is not accessible: " + t);
+                    return;
+                }
+            }
+        }
+        try {
+            generateProvider(type, routes);
+        }
+        catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Generate routes failed: " + ex, type);
+        }
+    }
+
+    /**
+     * Find route methods of class and super classes, same as Routes.addHandler().
+     */
+    List<RouteMethod> findRoutes(TypeElement type) {
+        List<RouteMethod> routes = new ArrayList<RouteMethod>();
+        TypeElement current = type;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (ExecutableElement m : ElementFilter.methodsIn(current.getEnclosedElements())) {
+                Path path = m.getAnnotation(Path.class);
+                String httpMethod = null;
+                for (Class<? extends Annotation> anno : HTTP_ANNOS) {
+                    if (m.getAnnotation(anno) != null) {
+                        if (httpMethod == null) {
+                            httpMethod = anno.getSimpleName();
+                        }
+                        else {
+                            error(m, "Found more than one http method definition: @" + anno.getSimpleName() + ", @" + httpMethod);
+                        }
+                    }
+                }
+                if (path == null) {
+                    if (httpMethod != null) {
+                        error(m, "Annotation found but @Path is missing.");
+                    }
+                    continue;
+                }
+                if (httpMethod == null) {
+                    error(m, "Not found http method annotation.");
+                    continue;
+                }
+                if (m.getModifiers().contains(Modifier.STATIC)) {
+                    error(m, "Invalid static method.");
+                    continue;
+                }
+                if (m.getModifiers().contains(Modifier.ABSTRACT)) {
+                    error(m, "Invalid abstract method.");
+                    continue;
+                }
+                routes.add(new RouteMethod(httpMethod, path.value(), m, isAccessibleMethod(m, current, type)));
+            }
+            TypeMirror superType = current.getSuperclass();
+            current = superType.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superType).asElement() : null;
+        }
+        return routes;
+    }
+
+    boolean isAccessibleType(TypeElement type) {
+        for (Element e = type; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            NestingKind nesting = ((TypeElement) e).getNestingKind();
+            if (nesting == NestingKind.LOCAL || nesting == NestingKind.ANONYMOUS) {
+                return false;
+            }
+            // inner class cannot be instantiated without outer instance:
+            if (e == type && nesting == NestingKind.MEMBER && !e.getModifiers().contains(Modifier.STATIC)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Is the type accessible from code in the package?
+     */
+    boolean isAccessibleFrom(TypeElement type, PackageElement pkg) {
+        for (Element e = type; e.getKind() != ElementKind.PACKAGE; e = e.getEnclosingElement()) {
+            Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (!modifiers.contains(Modifier.PUBLIC) && !packageOf(e).equals(pkg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Is the method callable from generated class in the package of handler class?
+     */
+    boolean isAccessibleMethod(ExecutableElement m, TypeElement declaringType, TypeElement handlerType) {
+        Set<Modifier> modifiers = m.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        return packageOf(declaringType).equals(packageOf(handlerType));
+    }
+
+    PackageElement packageOf(Element e) {
+        return processingEnv.getElementUtils().getPackageOf(e);
+    }
+
+    boolean hasDefaultConstructor(TypeElement type) {
+        for (ExecutableElement c : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void generateProvider(TypeElement type, List<RouteMethod> routes) throws IOException {
+        PackageElement pkg = packageOf(type);
+        String pkgName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = (pkgName.isEmpty() ? binaryName : binaryName.substring(pkgName.length() + 1)).replace('$', '_') + "_JxrestRoutes";
+        String className = pkgName.isEmpty() ? simpleName : pkgName + "." + simpleName;
+        String handlerName = type.getQualifiedName().toString();
+
+        StringBuilder sb = new StringBuilder(4096);
+        if (!pkgName.isEmpty()) {
+            sb.append("package ").append(pkgName).append(";\n\n");
+        }
+        sb.append("/**\n");
+        sb.append(" * Routes of ").append(handlerName).append(" generated by jxrest-processor. Do not edit.\n");
+        sb.append(" */\n");
+        sb.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+        sb.append("public final class ").append(simpleName).append(" implements com.itranswarp.jxrest.RouteProvider {\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public Class<?> handlerClass() {\n");
+        sb.append("        return ").append(handlerName).append(".class;\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public Object newHandler() {\n");
+        sb.append("        return ").append(hasDefaultConstructor(type) ? "new " + handlerName + "()" : "null").append(";\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public void register(Object handler, com.itranswarp.jxrest.RouteRegistry registry) {\n");
+        sb.append("        final ").append(handlerName).append(" h = (").append(handlerName).append(") handler;\n");
+        for (RouteMethod route : routes) {
+            appendRoute(sb, route, pkg);
+        }
+        sb.append("    }\n");
+        sb.append("}\n");
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(className, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(sb.toString());
+        }
+        providers.add(className);
+    }
+
+    String stringArray(String[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : values) {
+            sb.append(sb.length() == 0 ? " " : ", ").append(s == null ? "null" : literal(s));
+        }
+        return "new String[] {" + sb + (sb.length() == 0 ? "}" : " }");
+    }
+
+    void appendRoute(StringBuilder sb, RouteMethod route, PackageElement pkg) {
+        ExecutableElement m = route.method;
+        List<? extends VariableElement> params = m.getParameters();
+        StringBuilder names = new StringBuilder();
+        StringBuilder types = new StringBuilder();
+        StringBuilder stringMaps = new StringBuilder();
+        String[] queryNames = new String[params.size()];
+        String[] queryDefaults = new String[params.size()];
+        boolean hasQuery = false;
+        for (int i = 0; i < params.size(); i++) {
+            VariableElement p = params.get(i);
+            if (i > 0) {
+                names.append(", ");
+                types.append(", ");
+                stringMaps.append(", ");
+            }
+            names.append(literal(p.getSimpleName().toString()));
+            types.append(classLiteral(p.asType()));
+            stringMaps.append(isMapStringString(p.asType()));
+            Query query = p.getAnnotation(Query.class);
+            if (query != null) {
+                hasQuery = true;
+                queryNames[i] = query.value().isEmpty() ? p.getSimpleName().toString() : query.value();
+                queryDefaults[i] = Query.NO_DEFAULT.equals(query.defaultValue()) ? null : query.defaultValue();
+            }
+        }
+        Cached cached = m.getAnnotation(Cached.class);
+        Cors cors = m.getAnnotation(Cors.class);
+        sb.append("        registry.add(new com.itranswarp.jxrest.RouteDescriptor(").append(literal(route.httpMethod)).append(", ").append(literal(route.path)).append(", ")
+                .append(literal(m.getSimpleName().toString())).append(")\n");
+        if (!params.isEmpty()) {
+            sb.append("                .params(new String[] { ").append(names).append(" },\n");
+            sb.append("                        new Class<?>[] { ").append(types).append(" },\n");
+            sb.append("                        new boolean[] { ").append(stringMaps).append(" })\n");
+        }
+        if (hasQuery) {
+            sb.append("                .query(").append(stringArray(queryNames)).append(", ").append(stringArray(queryDefaults)).append(")\n");
+        }
+        if (cached != null) {
+            sb.append("                .cached(").append(cached.ttl()).append("L, ").append(stringArray(cached.query())).append(")\n");
+        }
+        if (cors != null) {
+            sb.append("                .cors(").append(stringArray(cors.origins())).append(", ").append(stringArray(cors.headers())).append(", ")
+                    .append(cors.maxAge()).append("L, ").append(cors.credentials()).append(")\n");
+        }
+        String resultClass = resultClass(m.getReturnType(), pkg);
+        if (resultClass != null) {
+            sb.append("                .result(").append(resultClass).append(")\n");
+        }
+        if (!route.accessible) {
+            // invoked by reflection:
+            sb.append("                .invoker(null));\n");
+            return;
+        }
+        boolean isVoid = m.getReturnType().getKind() == TypeKind.VOID;
+        StringBuilder call = new StringBuilder();
+        call.append("h.").append(m.getSimpleName()).append("(");
+        int n = params.size();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                call.append(", ");
+            }
+            call.append("(").append(castType(params.get(i).asType())).append(") ");
+            call.append(n <= 4 ? "a" + i : "args[" + i + "]");
+        }
+        call.append(")");
+        sb.append("                .invoker(new com.itranswarp.jxrest.RouteInvoker() {\n");
+        sb.append("                    @Override\n");
+        if (n <= 4) {
+            sb.append("                    public Object invoke").append(n).append("(");
+            for (int i = 0; i < n; i++) {
+                sb.append(i == 0 ? "" : ", ").append("Object a").append(i);
+            }
+            sb.append(") throws Exception {\n");
+        }
+        else {
+            sb.append("                    public Object invoke(Object[] args) throws Exception {\n");
+        }
+        if (isVoid) {
+            sb.append("                        ").append(call).append(";\n");
+            sb.append("                        return null;\n");
+        }
+        else {
+            sb.append("                        return ").append(call).append(";\n");
+        }
+        sb.append("                    }\n");
+        sb.append("                }));\n");
+    }
+
+    /**
+     * Get class literal of return type, or of the result type of
+     * CompletionStage, to warm up serialization.
+     * 
+     * @return Class literal, or null if it is not a class accessible from package.
+     */
+    String resultClass(TypeMirror t, PackageElement pkg) {
+        if (t.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeMirror stage = processingEnv.getTypeUtils().erasure(processingEnv.getElementUtils().getTypeElement("java.util.concurrent.CompletionStage").asType());
+        if (processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(t), stage)) {
+            List<? extends TypeMirror> args = ((DeclaredType) t).getTypeArguments();
+            if (args.size() != 1 || args.get(0).getKind() != TypeKind.DECLARED) {
+                return null;
+            }
+            t = args.get(0);
+        }
+        if (!isAccessibleFrom((TypeElement) ((DeclaredType) t).asElement(), pkg)) {
+            return null;
+        }
+        return classLiteral(t);
+    }
+
+    String literal(String s) {
+        return processingEnv.getElementUtils().getConstantExpression(s);
+    }
+
+    String classLiteral(TypeMirror t) {
+        return processingEnv.getTypeUtils().erasure(t).toString() + ".class";
+    }
+
+    String castType(TypeMirror t) {
+        if (t.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass((PrimitiveType) t).getQualifiedName().toString();
+        }
+        return processingEnv.getTypeUtils().erasure(t).toString();
+    }
+
+    boolean isMapStringString(TypeMirror t) {
+        if (t.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        DeclaredType dt = (DeclaredType) t;
+        if (!((TypeElement) dt.asElement()).getQualifiedName().contentEquals("java.util.Map")) {
+            return false;
+        }
+        List<? extends TypeMirror> args = dt.getTypeArguments();
+        return args.size() == 2 && args.get(0).toString().equals("java.lang.String") && args.get(1).toString().equals("java.lang.String");
+    }
+
+    /**
+     * Write service file with generated providers, merged with providers
+     * listed by service file of previous incremental compilation if their
+     * classes still exist.
+     */
+    void writeServiceFile() {
+        if (providers.isEmpty()) {
+            return;
+        }
+        Set<String> all = new LinkedHashSet<String>();
+        for (String provider : readServiceFile()) {
+            if (processingEnv.getElementUtils().getTypeElement(provider) != null) {
+                all.add(provider);
+            }
+        }
+        all.addAll(providers);
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (Writer writer = file.openWriter()) {
+                for (String provider : all) {
+                    writer.write(provider);
+                    writer.write('\n');
+                }
+            }
+        }
+        catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Write " + SERVICE_FILE + " failed: " + e);
+        }
+    }
+
+    /**
+     * Read providers from existing service file, or empty list if not exist.
+     */
+    List<String> readServiceFile() {
+        List<String> list = new ArrayList<String>();
+        try {
+            FileObject file = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (BufferedReader reader = new BufferedReader(file.openReader(true))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int n = line.indexOf('#');
+                    line = (n == (-1) ? line : line.substring(0, n)).trim();
+                    if (!line.isEmpty()) {
+                        list.add(line);
+                    }
+                }
+            }
+        }
+        catch (IOException | IllegalArgumentException e) {
+            // no service file
+        }
+        return list;
+    }
+
+    void error(Element e, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+    }
+
+    void warn(Element e, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, e);
+    }
+
+    static class RouteMethod {
+
+        final String httpMethod;
+        final String path;
+        final ExecutableElement method;
+        // can be called by generated code:
+        final boolean accessible;
+
+        RouteMethod(String httpMethod, String path, ExecutableElement method, boolean accessible) {
+            this.httpMethod = httpMethod;
+            this.path = path;
+            this.method = method;
+            this.accessible = accessible;
+        }
+    }
+}
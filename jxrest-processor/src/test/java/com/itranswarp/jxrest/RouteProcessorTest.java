@@ -0,0 +1,199 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.itranswarp.jxrest.processor.RouteProcessor;
+
+public class RouteProcessorTest {
+
+    static final String HANDLER = String.join("\n",
+            "package test.handler;",
+            "import java.util.Map;",
+            "import com.itranswarp.jxrest.*;",
+            "public class UserHandler extends BaseHandler {",
+            "    @GET @Path(\"/users/:id\")",
+            "    public String getUser(String id) { return \"user-\" + id; }",
+            "    @GET @Path(\"/add/:a/:b\")",
+            "    int add(int a, long b) { return (int) (a + b); }",
+            "    @GET @Path(\"/private/:name\")",
+            "    private String hidden(String name) { return \"private-\" + name; }",
+            "    @GET @Path(\"/future\")",
+            "    public java.util.concurrent.CompletableFuture<String> future() { return null; }",
+            "    @GET @Path(\"/void\")",
+            "    public void nothing() { }",
+            "    @GET @Path(\"/query\")",
+            "    public int query(Map<String, String> query) { return query.size(); }",
+            "    @GET @Path(\"/five/:a/:b/:c/:d/:e\")",
+            "    public String five(String a, String b, String c, String d, String e) { return a + b + c + d + e; }",
+            "    @GET @Path(\"/cached\") @Cached(ttl = 60, query = { \"page\" })",
+            "    public String cached() { return \"cached\"; }",
+            "    @PATCH @Path(\"/users/:id\") @Cors(origins = { \"https://example.com\" }, maxAge = 3600)",
+            "    public String patchUser(String id, Map<String, Object> data) { return id; }",
+            "    @GET @Path(\"/users\")",
+            "    public String users(@Query(\"page\") int page, @Query(value = \"limit\", defaultValue = \"20\") int limit) { return page + \"/\" + limit; }",
+            "    public static class Nested {",
+            "        @GET @Path(\"/nested\")",
+            "        public String nested() { return \"nested\"; }",
+            "    }",
+            "}",
+            "abstract class BaseHandler {",
+            "    @GET @Path(\"/base\")",
+            "    String base() { return \"base\"; }",
+            "}");
+
+    File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jxrest-processor").toFile();
+    }
+
+    List<Diagnostic<? extends JavaFileObject>> compile(String className, String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        String classpath = Path.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+                Arrays.asList("-d", dir.getPath(), "-s", dir.getPath(), "-classpath", classpath + File.pathSeparator + dir.getPath()), null, Arrays.asList(file));
+        task.setProcessors(Arrays.asList(new RouteProcessor()));
+        task.call();
+        return diagnostics.getDiagnostics();
+    }
+
+    boolean hasError(List<Diagnostic<? extends JavaFileObject>> diagnostics, String message) {
+        for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+            if (d.getKind() == Diagnostic.Kind.ERROR && d.getMessage(null).contains(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testGenerateRoutes() throws Exception {
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = compile("test.handler.UserHandler", HANDLER);
+        assertFalse(diagnostics.toString(), hasError(diagnostics, ""));
+        assertTrue(new File(dir, "test/handler/UserHandler_JxrestRoutes.java").isFile());
+        assertTrue(new File(dir, "test/handler/UserHandler_Nested_JxrestRoutes.java").isFile());
+        String services = new String(Files.readAllBytes(new File(dir, "META-INF/services/com.itranswarp.jxrest.RouteProvider").toPath()), StandardCharsets.UTF_8);
+        assertTrue(services.contains("test.handler.UserHandler_JxrestRoutes\n"));
+        assertTrue(services.contains("test.handler.UserHandler_Nested_JxrestRoutes\n"));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader())) {
+            Routes routes = new Routes();
+            int n = 0;
+            for (RouteProvider provider : ServiceLoader.load(RouteProvider.class, loader)) {
+                Object handler = provider.newHandler();
+                assertNotNull(handler);
+                assertSame(provider.handlerClass(), handler.getClass());
+                routes.addHandler(handler, provider);
+                n++;
+            }
+            assertEquals(2, n);
+            assertEquals("user-123", routes.call("GET", "/users/123", null, null, null));
+            assertEquals(30, routes.call("GET", "/add/10/20", null, null, null));
+            assertEquals("private-bob", routes.call("GET", "/private/bob", null, null, null));
+            assertNull(routes.call("GET", "/void", null, null, null));
+            assertEquals("abcde", routes.call("GET", "/five/a/b/c/d/e", null, null, null));
+            assertEquals("base", routes.call("GET", "/base", null, null, null));
+            assertEquals("nested", routes.call("GET", "/nested", null, null, null));
+            Callable cached = routes.getCallable("GET", "/cached");
+            assertEquals(60000, cached.cacheTtl);
+            assertNull(cached.cors);
+            Callable users = routes.getCallable("GET", "/users");
+            assertEquals(Var.QUERY_PARAM_VAR, users.vars[0].varType);
+            QueryResolver limit = (QueryResolver) users.vars[1].resolver;
+            assertEquals("limit", limit.name);
+            assertEquals(20, limit.defaultValue);
+            Callable patch = routes.getCallable("PATCH", "/users/:id");
+            assertEquals("https://example.com", patch.cors.allowOrigin("https://example.com"));
+            assertEquals("3600", patch.cors.maxAge);
+            assertTrue(routes.getCallable("GET", "/users/:id").invoker instanceof GeneratedInvoker);
+            // result types to warm up:
+            assertEquals(String.class, routes.getCallable("GET", "/users/:id").resultType);
+            assertEquals(String.class, routes.getCallable("GET", "/future").resultType);
+            assertNull(routes.getCallable("GET", "/add/:a/:b").resultType);
+            assertFalse(routes.getCallable("GET", "/private/:name").invoker instanceof GeneratedInvoker);
+        }
+    }
+
+    @Test
+    public void testMergeServiceFile() throws Exception {
+        assertFalse(hasError(compile("test.handler.UserHandler", HANDLER), ""));
+        File services = new File(dir, "META-INF/services/com.itranswarp.jxrest.RouteProvider");
+        // provider of removed handler:
+        Files.write(services.toPath(), (new String(Files.readAllBytes(services.toPath()), StandardCharsets.UTF_8) + "test.handler.Removed_JxrestRoutes\n").getBytes(StandardCharsets.UTF_8));
+        // compile another handler incrementally:
+        assertFalse(hasError(compile("test.handler.OtherHandler", String.join("\n",
+                "package test.handler;",
+                "import com.itranswarp.jxrest.*;",
+                "public class OtherHandler {",
+                "    @GET @Path(\"/other\")",
+                "    public String other() { return \"other\"; }",
+                "}")), ""));
+        String content = new String(Files.readAllBytes(services.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content.contains("test.handler.UserHandler_JxrestRoutes\n"));
+        assertTrue(content.contains("test.handler.UserHandler_Nested_JxrestRoutes\n"));
+        assertTrue(content.contains("test.handler.OtherHandler_JxrestRoutes\n"));
+        assertFalse(content.contains("test.handler.Removed_JxrestRoutes"));
+    }
+
+    @Test
+    public void testInvalidRoutes() {
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = compile("test.handler.BadHandler", String.join("\n",
+                "package test.handler;",
+                "import com.itranswarp.jxrest.*;",
+                "public class BadHandler {",
+                "    @GET @POST @Path(\"/both\")",
+                "    public String both() { return null; }",
+                "    @GET",
+                "    public String noPath() { return null; }",
+                "    @Path(\"/none\")",
+                "    public String none() { return null; }",
+                "    @GET @Path(\"/static\")",
+                "    public static String staticMethod() { return null; }",
+                "}"));
+        assertTrue(hasError(diagnostics, "Found more than one http method definition"));
+        assertTrue(hasError(diagnostics, "Annotation found but @Path is missing."));
+        assertTrue(hasError(diagnostics, "Not found http method annotation."));
+        assertTrue(hasError(diagnostics, "Invalid static method."));
+    }
+
+    @Test
+    public void testNoRoutes() {
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = compile("test.handler.Plain", String.join("\n",
+                "package test.handler;",
+                "import com.itranswarp.jxrest.*;",
+                "public class Plain {",
+                "    public String hello() { return null; }",
+                "}"));
+        assertFalse(hasError(diagnostics, ""));
+        assertFalse(new File(dir, "META-INF/services/com.itranswarp.jxrest.RouteProvider").exists());
+    }
+}
@@ -0,0 +1,214 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Asynchronous access log. Request threads only copy fields into a
+ * pre-allocated ring buffer; a background thread formats records as JSON
+ * lines and writes them to file channel in batch. Records are dropped if the
+ * ring buffer is full.
+ *
+ * @author Michael Liao
+ */
+class AccessLog implements Runnable {
+
+    final Log log = LogFactory.getLog(getClass());
+
+    static final int BATCH_SIZE = 64 * 1024;
+
+    final String file;
+    final double sampleRate;
+    final Entry[] entries;
+    final int mask;
+    // next sequence to claim by producers:
+    final AtomicLong tail = new AtomicLong(0);
+    // next sequence to consume by writer thread:
+    volatile long head = 0;
+    volatile boolean running = true;
+    final LongAdder dropped = new LongAdder();
+    final FileChannel channel;
+    final Thread thread;
+
+    AccessLog(String file, double sampleRate, int capacity) throws IOException {
+        if (sampleRate <= 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Invalid sample rate: " + sampleRate);
+        }
+        int size = 2;
+        while (size < capacity) {
+            size = size << 1;
+        }
+        this.file = file;
+        this.sampleRate = sampleRate;
+        this.entries = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            this.entries[i] = new Entry();
+        }
+        this.mask = size - 1;
+        this.channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.thread = new Thread(this, "jxrest-access-log");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Should this request be logged?
+     */
+    boolean sample() {
+        return sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Put a record into ring buffer without formatting.
+     * 
+     * @param time Epoch millis when request started.
+     * @param method Http method.
+     * @param route Route template, or null if no route matched.
+     * @param status Http status.
+     * @param bytes Bytes of response body.
+     * @param nanos Duration in nanoseconds.
+     */
+    void log(long time, String method, String route, int status, long bytes, long nanos) {
+        long seq;
+        for (;;) {
+            seq = tail.get();
+            if (seq - head > mask) {
+                dropped.increment();
+                return;
+            }
+            if (tail.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+        Entry e = entries[(int) seq & mask];
+        e.time = time;
+        e.method = method;
+        e.route = route;
+        e.status = status;
+        e.bytes = bytes;
+        e.nanos = nanos;
+        // publish:
+        e.sequence = seq;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_SIZE);
+        StringBuilder sb = new StringBuilder(256);
+        int idle = 0;
+        while (running || head < tail.get()) {
+            long seq = head;
+            Entry e = entries[(int) seq & mask];
+            if (e.sequence != seq) {
+                if (buffer.position() > 0) {
+                    flush(buffer);
+                }
+                if (!running && e.sequence < seq) {
+                    // claimed but not published by a stopped producer:
+                    break;
+                }
+                idle = Math.min(idle + 1, 10);
+                LockSupport.parkNanos(idle * 1000000L);
+                continue;
+            }
+            idle = 0;
+            sb.setLength(0);
+            format(sb, e);
+            e.method = null;
+            e.route = null;
+            head = seq + 1;
+            byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+            if (data.length > buffer.remaining()) {
+                flush(buffer);
+            }
+            if (data.length > buffer.remaining()) {
+                write(ByteBuffer.wrap(data));
+            }
+            else {
+                buffer.put(data);
+            }
+        }
+        flush(buffer);
+        try {
+            channel.close();
+        }
+        catch (IOException ex) {
+            log.warn("Close access log failed: " + file, ex);
+        }
+    }
+
+    void flush(ByteBuffer buffer) {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    void write(ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        catch (IOException ex) {
+            log.warn("Write access log failed: " + file, ex);
+        }
+    }
+
+    static void format(StringBuilder sb, Entry e) {
+        sb.append("{\"time\":\"").append(Instant.ofEpochMilli(e.time)).append("\",\"method\":\"").append(e.method).append("\",\"route\":");
+        if (e.route == null) {
+            sb.append("null");
+        }
+        else {
+            sb.append('\"');
+            for (int i = 0; i < e.route.length(); i++) {
+                char ch = e.route.charAt(i);
+                if (ch == '\"' || ch == '\\') {
+                    sb.append('\\');
+                }
+                sb.append(ch);
+            }
+            sb.append('\"');
+        }
+        sb.append(",\"status\":").append(e.status).append(",\"bytes\":").append(e.bytes).append(",\"duration\":").append(e.nanos / 1000).append("}\n");
+    }
+
+    /**
+     * Stop writer thread after all published records are written.
+     */
+    void close() {
+        running = false;
+        try {
+            thread.join(5000);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long n = dropped.sum();
+        if (n > 0) {
+            log.warn("Access log dropped " + n + " records because buffer is full.");
+        }
+    }
+
+    static class Entry {
+        volatile long sequence = -1;
+        long time;
+        String method;
+        String route;
+        int status;
+        long bytes;
+        long nanos;
+    }
+}
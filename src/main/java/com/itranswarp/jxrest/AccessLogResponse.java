@@ -0,0 +1,91 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper which records matched route and counts bytes written to
+ * output stream for access log.
+ *
+ * @author Michael Liao
+ */
+class AccessLogResponse extends HttpServletResponseWrapper {
+
+    // route template, or null if no route matched:
+    String route = null;
+    long bytes = 0;
+    CountingOutputStream output = null;
+
+    AccessLogResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * Record route to the AccessLogResponse which is the response or wrapped
+     * by the response, e.g. HeadResponse of HEAD request.
+     */
+    static void setRoute(ServletResponse resp, String route) {
+        while (resp instanceof ServletResponseWrapper) {
+            if (resp instanceof AccessLogResponse) {
+                ((AccessLogResponse) resp).route = route;
+                return;
+            }
+            resp = ((ServletResponseWrapper) resp).getResponse();
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (output == null) {
+            output = new CountingOutputStream(super.getOutputStream());
+        }
+        return output;
+    }
+
+    class CountingOutputStream extends ServletOutputStream {
+
+        final ServletOutputStream target;
+
+        CountingOutputStream(ServletOutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            bytes += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return target.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            target.setWriteListener(writeListener);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.itranswarp.jxrest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Resolve argument of handler method for a request. Each Var holds an
+ * ArgumentResolver which is chosen when the handler is added.
+ * 
+ * @author Michael Liao
+ */
+interface ArgumentResolver {
+
+    /**
+     * Resolve argument value.
+     * 
+     * @param path The request path.
+     * @param captures Offsets of path variables in path, or null for static route.
+     * @param jsonCallback Callback to parse json body.
+     * @param request HttpServletRequest object.
+     * @param response HttpServletResponse object.
+     * @return Argument value.
+     */
+    Object resolve(String path, int[] captures, JsonCallback jsonCallback, HttpServletRequest request, HttpServletResponse response) throws Exception;
+
+}
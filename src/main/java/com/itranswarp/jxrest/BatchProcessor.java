@@ -0,0 +1,550 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Execute API calls sent as JSON array in one request, like:
+ * [{"method": "GET", "path": "/users/123"}, {"method": "POST", "path": "/users", "body": {...}}],
+ * and send results as JSON array like [{"status": 200, "body": {...}}, ...].
+ *
+ * Consecutive GET calls are executed in parallel on a bounded thread pool.
+ * Other calls are executed one by one in order, after all calls before them
+ * are completed.
+ *
+ * @author Michael Liao
+ */
+class BatchProcessor {
+
+    static final Log log = LogFactory.getLog(BatchProcessor.class);
+
+    final RestApiHandler handler;
+    final String path;
+    final int maxItems;
+    final ThreadPoolExecutor executor;
+
+    BatchProcessor(RestApiHandler handler, String path, int parallelism, int maxItems) {
+        this.handler = handler;
+        this.path = path;
+        this.maxItems = maxItems;
+        AtomicInteger counter = new AtomicInteger(0);
+        // run in caller thread if all threads are busy:
+        this.executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(parallelism * 16), (r) -> {
+            Thread t = new Thread(r, "jxrest-batch-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    void process(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        List<BatchItem> items;
+        try {
+            items = parseItems(handler.parseBeanFromJson(Object.class, req));
+        }
+        catch (Exception e) {
+            handler.processException(req, resp, e);
+            return;
+        }
+        List<Object> results = execute(req, resp, items);
+        handler.processResult(req, resp, results);
+    }
+
+    List<BatchItem> parseItems(Object json) {
+        if (!(json instanceof List)) {
+            throw new ApiException("batch:invalid", null, "Batch request must be a JSON array.");
+        }
+        List<?> list = (List<?>) json;
+        if (list.size() > maxItems) {
+            throw new ApiException("batch:too_many", String.valueOf(maxItems), "Batch request has too many items.");
+        }
+        List<BatchItem> items = new ArrayList<BatchItem>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            Object obj = list.get(i);
+            if (!(obj instanceof Map)) {
+                throw new ApiException("batch:invalid", String.valueOf(i), "Batch item must be a JSON object.");
+            }
+            Map<?, ?> map = (Map<?, ?>) obj;
+            Object method = map.get("method");
+            Object path = map.get("path");
+            int index = method instanceof String ? HttpMethod.indexOf((String) method) : (-1);
+            if (index < 0 || index >= HttpMethod.ROUTES) {
+                throw new ApiException("batch:invalid", String.valueOf(i), "Invalid method of batch item.");
+            }
+            if (!(path instanceof String) || !((String) path).startsWith("/")) {
+                throw new ApiException("batch:invalid", String.valueOf(i), "Invalid path of batch item.");
+            }
+            items.add(new BatchItem((String) method, (String) path, map.get("body")));
+        }
+        return items;
+    }
+
+    List<Object> execute(HttpServletRequest req, HttpServletResponse resp, List<BatchItem> items) {
+        // copy request data on current thread before items are executed on other threads:
+        BatchRequest.Shared shared = new BatchRequest.Shared(req);
+        Object[] results = new Object[items.size()];
+        int i = 0;
+        while (i < items.size()) {
+            BatchItem item = items.get(i);
+            if (!"GET".equals(item.method)) {
+                results[i] = call(shared, resp, item);
+                i++;
+                continue;
+            }
+            // execute consecutive GET items in parallel:
+            int end = i + 1;
+            while (end < items.size() && "GET".equals(items.get(end).method)) {
+                end++;
+            }
+            if (end - i == 1) {
+                results[i] = call(shared, resp, item);
+            }
+            else {
+                List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<CompletableFuture<Map<String, Object>>>(end - i);
+                for (int n = i; n < end; n++) {
+                    BatchItem getItem = items.get(n);
+                    futures.add(CompletableFuture.supplyAsync(() -> {
+                        return call(shared, resp, getItem);
+                    }, this.executor));
+                }
+                for (int n = i; n < end; n++) {
+                    results[n] = futures.get(n - i).join();
+                }
+            }
+            i = end;
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Call API of batch item on current thread.
+     *
+     * @return Map like {"status": 200, "body": {...}}.
+     */
+    Map<String, Object> call(BatchRequest.Shared shared, HttpServletResponse resp, BatchItem item) {
+        int n = item.path.indexOf('?');
+        String path = n == (-1) ? item.path : item.path.substring(0, n);
+        String query = n == (-1) ? null : item.path.substring(n + 1);
+        BatchRequest subReq = new BatchRequest(shared, item.method, path, query);
+        BatchResponse subResp = new BatchResponse(resp);
+        RouteMatch match = handler.routes.match(item.method, path);
+        if (match == null) {
+            // path exists with other methods:
+            if (handler.allow(path, 0) != null) {
+                return result(HttpServletResponse.SC_METHOD_NOT_ALLOWED, null);
+            }
+            if (handler.metricsEnabled) {
+                handler.notFound.increment();
+            }
+            return result(HttpServletResponse.SC_NOT_FOUND, null);
+        }
+        RouteMetrics metrics = handler.metricsEnabled ? match.callable.metrics : null;
+        if (metrics != null) {
+            metrics.requests.increment();
+        }
+        Semaphore limiter = match.callable.limiter;
+        if (limiter != null && !limiter.tryAcquire()) {
+            log.warn("Too many concurrent requests: " + item.method + " " + match.callable.path);
+            handler.recordStatus(metrics, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return result(HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+        }
+        RestContext.initRestContext(subReq, subResp);
+        try {
+            JsonCallback jsonCallback = (Class<?> type) -> {
+                if (item.body == null) {
+                    return null;
+                }
+                // bind parsed body to type by serializing it again:
+                String json = handler.jsonBuilder.createWriter().write(item.body).toString();
+                return handler.jsonBuilder.createReader(json).parse(type);
+            };
+            Object ret = match.call(jsonCallback, subReq, subResp);
+            if (ret instanceof CompletionStage) {
+                CompletableFuture<?> future = ((CompletionStage<?>) ret).toCompletableFuture();
+                try {
+                    ret = future.get(handler.asyncTimeout, TimeUnit.MILLISECONDS);
+                }
+                catch (TimeoutException e) {
+                    future.cancel(false);
+                    handler.recordStatus(metrics, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    return result(HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+                }
+                catch (ExecutionException e) {
+                    throw handler.unwrapAsyncException(e);
+                }
+            }
+            if (JsonStreamWriter.isStream(ret)) {
+                ret = JsonStreamWriter.toList(ret);
+            }
+            handler.recordStatus(metrics, subResp.status);
+            return result(subResp.status, ret instanceof Void ? null : ret);
+        }
+        catch (Exception e) {
+            if (metrics != null) {
+                metrics.recordException(e);
+            }
+            Map<String, Object> result = exceptionResult(e);
+            handler.recordStatus(metrics, (Integer) result.get("status"));
+            return result;
+        }
+        finally {
+            RestContext.destroyRestContext();
+            if (limiter != null) {
+                limiter.release();
+            }
+        }
+    }
+
+    /**
+     * Map exception to result as same as RestApiHandler.processException().
+     */
+    Map<String, Object> exceptionResult(Exception e) {
+        if (e instanceof ApiNotFoundException) {
+            return result(HttpServletResponse.SC_NOT_FOUND, null);
+        }
+        if (e instanceof RequestTooLargeException) {
+            return result(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, null);
+        }
+        if (e instanceof ApiException) {
+            return result(HttpServletResponse.SC_BAD_REQUEST, handler.toErrorMap((ApiException) e));
+        }
+        log.error("Process batch API failed.", e);
+        return result(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, null);
+    }
+
+    Map<String, Object> result(int status, Object body) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("status", status);
+        map.put("body", body);
+        return map;
+    }
+
+    void shutdown() {
+        this.executor.shutdown();
+    }
+
+    static class BatchItem {
+
+        final String method;
+        final String path;
+        final Object body;
+
+        BatchItem(String method, String path, Object body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+    }
+}
+
+/**
+ * Request of batch item, which shares headers, cookies and attributes copied
+ * from the batch request, but has its own method, path and query parameters.
+ * Other methods are delegated to the batch request.
+ *
+ * @author Michael Liao
+ */
+class BatchRequest extends HttpServletRequestWrapper {
+
+    final Shared shared;
+    final String method;
+    final String path;
+    final String query;
+    final Map<String, String[]> parameters;
+    final Map<String, Object> attributes;
+
+    BatchRequest(Shared shared, String method, String path, String query) {
+        super(shared.request);
+        this.shared = shared;
+        this.method = method;
+        this.path = path;
+        this.query = query;
+        this.parameters = parseQuery(query);
+        this.attributes = new HashMap<String, Object>(shared.attributes);
+    }
+
+    static Map<String, String[]> parseQuery(String query) {
+        if (query == null || query.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String[]> map = new LinkedHashMap<String, String[]>();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int n = pair.indexOf('=');
+            String key = Utils.urlDecode(n == (-1) ? pair : pair.substring(0, n));
+            String value = n == (-1) ? "" : Utils.urlDecode(pair.substring(n + 1));
+            String[] values = map.get(key);
+            if (values == null) {
+                map.put(key, new String[] { value });
+            }
+            else {
+                String[] newValues = Arrays.copyOf(values, values.length + 1);
+                newValues[values.length] = value;
+                map.put(key, newValues);
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getQueryString() {
+        return query;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return path;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        String[] values = parameters.get(name);
+        return values == null ? null : values[0];
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return parameters.get(name);
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return parameters;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        List<String> values = shared.headers.get(name.toLowerCase());
+        return values == null ? null : values.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        List<String> values = shared.headers.get(name.toLowerCase());
+        return Collections.enumeration(values == null ? Collections.<String>emptyList() : values);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(shared.headerNames);
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        String value = getHeader(name);
+        return value == null ? (-1) : Integer.parseInt(value);
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        String value = getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date header: " + name);
+        }
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        return shared.cookies == null ? null : shared.cookies.clone();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (value == null) {
+            attributes.remove(name);
+        }
+        else {
+            attributes.put(name, value);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return shared.remoteAddr;
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return false;
+    }
+
+    /**
+     * Headers, cookies and attributes of batch request, copied on the thread
+     * of batch request because the request cannot be read by the threads
+     * which execute batch items.
+     */
+    static class Shared {
+
+        final HttpServletRequest request;
+        // header values by lower-case name:
+        final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        final List<String> headerNames = new ArrayList<String>();
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        final Cookie[] cookies;
+        final String remoteAddr;
+
+        Shared(HttpServletRequest request) {
+            this.request = request;
+            Enumeration<String> names = request.getHeaderNames();
+            while (names != null && names.hasMoreElements()) {
+                String name = names.nextElement();
+                List<String> values = headers.get(name.toLowerCase());
+                if (values == null) {
+                    values = new ArrayList<String>();
+                    headers.put(name.toLowerCase(), values);
+                    headerNames.add(name);
+                }
+                Enumeration<String> vs = request.getHeaders(name);
+                while (vs != null && vs.hasMoreElements()) {
+                    values.add(vs.nextElement());
+                }
+                if (values.isEmpty()) {
+                    headers.remove(name.toLowerCase());
+                    headerNames.remove(name);
+                }
+            }
+            Enumeration<String> attrs = request.getAttributeNames();
+            while (attrs != null && attrs.hasMoreElements()) {
+                String name = attrs.nextElement();
+                attributes.put(name, request.getAttribute(name));
+            }
+            this.cookies = request.getCookies();
+            this.remoteAddr = request.getRemoteAddr();
+        }
+    }
+}
+
+/**
+ * Response of batch item, which records status and headers set by handler.
+ * The body cannot be written directly by handler.
+ *
+ * @author Michael Liao
+ */
+class BatchResponse extends HttpServletResponseWrapper {
+
+    int status = SC_OK;
+    final Map<String, String> headers = new HashMap<String, String>();
+
+    BatchResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void sendError(int sc) {
+        this.status = sc;
+    }
+
+    @Override
+    public void sendError(int sc, String msg) {
+        this.status = sc;
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        return headers.containsKey(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return headers.keySet();
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        throw new IllegalStateException("Cannot write response body in batch.");
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        throw new IllegalStateException("Cannot write response body in batch.");
+    }
+}
@@ -0,0 +1,37 @@
+package com.itranswarp.jxrest;
+
+/**
+ * A bounded pool of byte buffers with same size.
+ * 
+ * @author Michael Liao
+ */
+class BufferPool {
+
+    final int bufferSize;
+    final StripedPool<byte[]> buffers;
+
+    BufferPool(int bufferSize, int maxBuffers) {
+        if (bufferSize <= 0 || maxBuffers <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size or max buffers.");
+        }
+        this.bufferSize = bufferSize;
+        this.buffers = new StripedPool<byte[]>(maxBuffers);
+    }
+
+    /**
+     * Get a buffer from pool, or allocate new one if pool is empty.
+     */
+    byte[] acquire() {
+        byte[] buffer = buffers.poll();
+        return buffer == null ? new byte[bufferSize] : buffer;
+    }
+
+    /**
+     * Return buffer to pool. Buffer is dropped if pool is full.
+     */
+    void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+}
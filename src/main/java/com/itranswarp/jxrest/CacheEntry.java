@@ -0,0 +1,85 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cached response body with ETag.
+ *
+ * @author Michael Liao
+ */
+class CacheEntry {
+
+    // cache which counts size of entry, or null if not cached:
+    final ResponseCache cache;
+    final byte[] body;
+    final String etag;
+    final long expires;
+    // compressed bodies indexed by encoding, created when first requested:
+    final AtomicReferenceArray<byte[]> encodedBodies = new AtomicReferenceArray<byte[]>(Compression.ENCODINGS.length);
+    // nano time of last access, used to select entry to evict:
+    volatile long accessed = System.nanoTime();
+    // bytes counted by cache, or -1 if removed from cache, guarded by this:
+    long size;
+
+    CacheEntry(ResponseCache cache, byte[] body, String etag, long expires) {
+        this.cache = cache;
+        this.body = body;
+        this.size = body.length;
+        this.etag = etag;
+        this.expires = expires;
+    }
+
+    byte[] getBody(Compression compression, int encoding) throws IOException {
+        if (encoding == Compression.NONE) {
+            return body;
+        }
+        byte[] data = encodedBodies.get(encoding);
+        if (data == null) {
+            data = compression.compress(body, 0, body.length, encoding);
+            if (encodedBodies.compareAndSet(encoding, null, data)) {
+                if (cache != null) {
+                    cache.added(this, data.length);
+                }
+            }
+            else {
+                data = encodedBodies.get(encoding);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Add length of compressed copy to size.
+     * 
+     * @return False if entry is already removed from cache.
+     */
+    synchronized boolean account(int length) {
+        if (size < 0) {
+            return false;
+        }
+        size += length;
+        return true;
+    }
+
+    /**
+     * Mark entry as removed from cache.
+     * 
+     * @return Bytes counted by cache.
+     */
+    synchronized long release() {
+        long n = size;
+        size = -1;
+        return n < 0 ? 0 : n;
+    }
+
+    /**
+     * Get strong ETag of body, which is different for each encoding.
+     */
+    String getETag(int encoding) {
+        if (encoding == Compression.NONE) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + Compression.ENCODINGS[encoding] + "\"";
+    }
+}
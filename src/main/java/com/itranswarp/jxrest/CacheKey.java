@@ -0,0 +1,37 @@
+package com.itranswarp.jxrest;
+
+import java.util.Arrays;
+
+/**
+ * Key of cached response.
+ *
+ * @author Michael Liao
+ */
+class CacheKey {
+
+    final String route;
+    final String path;
+    final String[] query;
+    final int hash;
+
+    CacheKey(String route, String path, String[] query) {
+        this.route = route;
+        this.path = path;
+        this.query = query;
+        this.hash = (route.hashCode() * 31 + path.hashCode()) * 31 + Arrays.hashCode(query);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey k = (CacheKey) o;
+        return hash == k.hash && route.equals(k.route) && path.equals(k.path) && Arrays.equals(query, k.query);
+    }
+}
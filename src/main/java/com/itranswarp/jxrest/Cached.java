@@ -0,0 +1,38 @@
+package com.itranswarp.jxrest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a GET request of REST API which response can be cached. Responses are
+ * cached by route, path variables and query parameters listed in query().
+ * Result of CompletionStage is cached when it is completed.
+ * 
+ * Only the JSON body is cached. Status and headers set by the handler method
+ * are not sent with cached responses, so the method must not set any.
+ * 
+ * @author Michael Liao
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cached {
+
+    /**
+     * Seconds to keep the cached response.
+     * 
+     * @return Time to live in seconds.
+     */
+    long ttl() default 60;
+
+    /**
+     * Names of query parameters which are part of cache key. Parameters bound
+     * by &#64;Query are always part of cache key. Other query parameters are
+     * ignored.
+     * 
+     * @return Names of query parameters.
+     */
+    String[] query() default {};
+
+}
@@ -1,15 +1,12 @@
 package com.itranswarp.jxrest;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -22,194 +19,180 @@ import javax.servlet.http.HttpServletResponse;
 class Callable {
 
     final boolean isStatic;
+    final String httpMethod;
     final String path;
     final Route route;
     final Object handlerInstance;
+    final Class<?> handlerClass;
+    // handler method as string for logging:
+    final String handlerString;
+    // handler method, or null if invoked by generated invoker:
     final Method handlerMethod;
+    final Invoker invoker;
     final Var[] vars;
+    // pre-created match for static route:
+    final RouteMatch staticMatch;
+    // limit concurrent calls, or null if unlimited:
+    volatile Semaphore limiter = null;
+    final RouteMetrics metrics;
+    // ttl in milliseconds of cached response, or 0 if not cached:
+    final long cacheTtl;
+    // names of query parameters as part of cache key:
+    final String[] cacheQuery;
+    // CORS of @Cors, or null to use global setting:
+    final CorsPolicy cors;
+    // class of result, or null if unknown:
+    final Class<?> resultType;
+
+    Callable(Object handlerInstance, Class<?> handlerClass, Method handlerMethod, String httpMethod, String path, Converters converters) {
+        this(handlerInstance, handlerClass, HandlerSignature.of(handlerMethod), handlerMethod, null, httpMethod, path, converters);
+    }
 
-    Callable(Object handlerInstance, Class<?> handlerClass, Method handlerMethod, String httpMethod, String path) {
-        handlerMethod.setAccessible(true);
+    /**
+     * Create callable by method signature.
+     * 
+     * @param handlerMethod Handler method, or null if invoker is given.
+     * @param invoker Invoker generated at compile time, or null to create invoker of handlerMethod.
+     */
+    Callable(Object handlerInstance, Class<?> handlerClass, HandlerSignature signature, Method handlerMethod, Invoker invoker, String httpMethod, String path, Converters converters) {
+        if (handlerMethod != null) {
+            handlerMethod.setAccessible(true);
+        }
         this.handlerInstance = handlerInstance;
+        this.handlerClass = handlerClass;
+        this.handlerString = signature.toHandlerString(handlerClass);
         this.handlerMethod = handlerMethod;
+        this.httpMethod = httpMethod;
         this.path = path;
         this.isStatic = path.indexOf(":") == (-1);
         this.route = isStatic ? null : new Route(path);
-        this.vars = createVars(handlerClass, handlerMethod, this.route, httpMethod);
+        this.vars = createVars(handlerClass, signature, this.route, httpMethod, converters);
+        this.invoker = invoker != null ? invoker : Invoker.create(handlerInstance, handlerMethod);
+        this.staticMatch = isStatic ? new RouteMatch(this, path, null) : null;
+        this.metrics = new RouteMetrics(httpMethod, path);
+        this.cors = signature.cors;
+        this.resultType = signature.resultType;
+        if (signature.cacheQuery != null) {
+            if (!"GET".equals(httpMethod)) {
+                throw new IllegalArgumentException("@Cached is only allowed on GET method: " + signature.toHandlerString(handlerClass));
+            }
+            if (signature.cacheTtl <= 0) {
+                throw new IllegalArgumentException("Invalid ttl of @Cached: " + signature.toHandlerString(handlerClass));
+            }
+            this.cacheTtl = signature.cacheTtl * 1000;
+            this.cacheQuery = cacheQuery(signature);
+        }
+        else {
+            this.cacheTtl = 0;
+            this.cacheQuery = null;
+        }
     }
 
-    Var[] createVars(Class<?> clazz, Method method, Route route, String httpMethod) {
+    /**
+     * Get query of cache key, which includes query of @Cached and all @Query
+     * parameters, so responses of different @Query values are cached separately.
+     */
+    static String[] cacheQuery(HandlerSignature signature) {
+        if (signature.queryNames == null) {
+            return signature.cacheQuery;
+        }
+        Set<String> names = new LinkedHashSet<String>(Arrays.asList(signature.cacheQuery));
+        for (String name : signature.queryNames) {
+            if (name != null) {
+                names.add(name);
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    Var[] createVars(Class<?> clazz, HandlerSignature signature, Route route, String httpMethod, Converters converters) {
         List<Var> vars = new ArrayList<Var>();
-        Parameter[] ps = method.getParameters();
         boolean foundJson = false;
-        for (int index = 0; index < ps.length; index ++) {
-            Parameter p = ps[index];
-            String varName = p.getName();
-            Class<?> varType = p.getType();
-            if (HttpServletRequest.class.equals(varType)) {
+        for (int index = 0; index < signature.paramNames.length; index ++) {
+            String varName = signature.paramNames[index];
+            Class<?> varType = signature.paramTypes[index];
+            String queryName = signature.queryNames == null ? null : signature.queryNames[index];
+            if (queryName != null) {
+                Converter<?> converter = converters.get(varType);
+                if (converter == null) {
+                    throw new IllegalArgumentException("Unsupported query parameter \"" + varType.getName() + " " + varName + "\" in " + signature.toHandlerString(clazz));
+                }
+                vars.add(Var.createQueryParamVar(varType, varName, index, queryName, signature.queryDefaults[index], converter));
+            }
+            else if (HttpServletRequest.class.equals(varType)) {
                 vars.add(Var.createRequestVar(varName, index));
             }
             else if (HttpServletResponse.class.equals(varType)) {
                 vars.add(Var.createResponseVar(varName, index));
             }
-            else if (varName.equals("query") && isMapStringString(p)) {
+            else if (varName.equals("query") && signature.stringMaps[index]) {
                 vars.add(Var.createQueryVar(varName, index));
             }
-            else if (route != null && route.hasParameter(varName)) {
-                if (! isValidPathVariableType(varType)) {
-                    throw new IllegalArgumentException("Unsupported path variable \"" + varType.getName() + " " + varName + "\" in " + toHandlerString(clazz, method));
+            else if (route != null && route.indexOfParameter(varName) >= 0) {
+                Converter<?> converter = converters.get(varType);
+                if (converter == null) {
+                    throw new IllegalArgumentException("Unsupported path variable \"" + varType.getName() + " " + varName + "\" in " + signature.toHandlerString(clazz));
                 }
-                vars.add(Var.createPathVar(varType, varName, index));
+                vars.add(Var.createPathVar(varType, varName, index, route.indexOfParameter(varName), converter));
             }
             else if (! "GET".equals(httpMethod)) {
                 if (foundJson) {
-                    throw new IllegalArgumentException("Duplicate json variable \"" + varType.getName() + " " + varName + "\" in " + toHandlerString(clazz, method));
+                    throw new IllegalArgumentException("Duplicate json variable \"" + varType.getName() + " " + varName + "\" in " + signature.toHandlerString(clazz));
                 }
                 vars.add(Var.createJsonVar(varType, varName, index));
                 foundJson = true;
             }
             else {
-                throw new IllegalArgumentException("Unknown parameter \"" + varType.getName() + " " + varName + "\" in " + toHandlerString(clazz, method));
+                throw new IllegalArgumentException("Unknown parameter \"" + varType.getName() + " " + varName + "\" in " + signature.toHandlerString(clazz));
             }
         }
         return vars.toArray(new Var[vars.size()]);
     }
 
-    /**
-     * Is parameter has type `Map<String, String>`?
-     */
-    boolean isMapStringString(Parameter p) {
-        if ( ! Map.class.equals(p.getType())) {
-            return false;
-        }
-        Type type = p.getParameterizedType();
-        if ( ! (type instanceof ParameterizedType)) {
-            return false;
-        }
-        ParameterizedType pt = (ParameterizedType) type;
-        Type[] types = pt.getActualTypeArguments();
-        if (types.length != 2) {
-            return false;
-        }
-        return String.class.equals(types[0]) && String.class.equals(types[1]);
-    }
-
-    String toHandlerString(Class<?> clazz, Method method) {
-        List<String> paramNames = new ArrayList<String>();
-        for (Parameter param : method.getParameters()) {
-            paramNames.add(param.getName());
+    void setMaxConcurrentRequests(int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException("Invalid max concurrent requests: " + max);
         }
-        return clazz.getName() + "." + method.getName() + "(" + String.join(", ", paramNames) + ")";
+        this.limiter = max == 0 ? null : new Semaphore(max);
     }
 
-    public Object call(Map<String, String> pathVars, JsonCallback jsonCallback, HttpServletRequest request, HttpServletResponse response) throws Exception {
-        // prepare arguments:
-        Object[] args = new Object[this.vars.length];
-        for (int i=0; i<args.length; i++) {
-            Var var = this.vars[i];
-            switch (var.varType) {
-            case Var.PATH_VAR:
-                args[i] = convertPathVariable(pathVars.get(var.name), var.argType);
-                break;
-            case Var.JSON_VAR:
-                args[i] = jsonCallback.getJson(var.argType);
-                break;
-            case Var.QUERY_VAR:
-                args[i] = createQuery(request);
-                break;
-            case Var.REQUEST_VAR:
-                args[i] = request;
-                break;
-            case Var.RESPONSE_VAR:
-                args[i] = response;
-                break;
-            default:
-                throw new RuntimeException("Bad var type: " + var.varType);
+    /**
+     * Call handler method.
+     * 
+     * @param path The request path.
+     * @param captures Offsets of path variables in path as [start0, end0, start1, end1, ...], or null for static route.
+     */
+    public Object call(String path, int[] captures, JsonCallback jsonCallback, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        // resolve arguments and invoke without argument array if possible:
+        Var[] vars = this.vars;
+        switch (vars.length) {
+        case 0:
+            return this.invoker.invoke0();
+        case 1:
+            return this.invoker.invoke1(
+                    vars[0].resolver.resolve(path, captures, jsonCallback, request, response));
+        case 2:
+            return this.invoker.invoke2(
+                    vars[0].resolver.resolve(path, captures, jsonCallback, request, response),
+                    vars[1].resolver.resolve(path, captures, jsonCallback, request, response));
+        case 3:
+            return this.invoker.invoke3(
+                    vars[0].resolver.resolve(path, captures, jsonCallback, request, response),
+                    vars[1].resolver.resolve(path, captures, jsonCallback, request, response),
+                    vars[2].resolver.resolve(path, captures, jsonCallback, request, response));
+        case 4:
+            return this.invoker.invoke4(
+                    vars[0].resolver.resolve(path, captures, jsonCallback, request, response),
+                    vars[1].resolver.resolve(path, captures, jsonCallback, request, response),
+                    vars[2].resolver.resolve(path, captures, jsonCallback, request, response),
+                    vars[3].resolver.resolve(path, captures, jsonCallback, request, response));
+        default:
+            Object[] args = new Object[vars.length];
+            for (int i=0; i<args.length; i++) {
+                args[i] = vars[i].resolver.resolve(path, captures, jsonCallback, request, response);
             }
+            return this.invoker.invoke(args);
         }
-        try {
-            return this.handlerMethod.invoke(this.handlerInstance, args);
-        }
-        catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    Map<String, String> createQuery(HttpServletRequest request) {
-        Map<String, String> map = new HashMap<String, String>();
-        for (Enumeration<String> e = request.getParameterNames(); e.hasMoreElements(); ) {
-            String key = e.nextElement();
-            map.put(key, request.getParameter(key));
-        }
-        return map;
-    }
-
-    interface Converter {
-        Object convert(String str);
-    }
-
-    static final Map<String, Converter> CONVERTERS = initConverters();
-
-    static Map<String, Converter> initConverters() {
-        Map<String, Converter> converters = new HashMap<String, Converter>();
-        // to byte:
-        Converter byteConverter = (str) -> {
-            return Byte.parseByte(str);
-        };
-        converters.put(byte.class.getName(), byteConverter);
-        converters.put(Byte.class.getName(), byteConverter);
-        // to short:
-        Converter shortConverter = (str) -> {
-            return Short.parseShort(str);
-        };
-        converters.put(short.class.getName(), shortConverter);
-        converters.put(Short.class.getName(), shortConverter);
-        // to int:
-        Converter intConverter = (str) -> {
-            return Integer.parseInt(str);
-        };
-        converters.put(int.class.getName(), intConverter);
-        converters.put(Integer.class.getName(), intConverter);
-        // to long:
-        Converter longConverter = (str) -> {
-            return Long.parseLong(str);
-        };
-        converters.put(long.class.getName(), longConverter);
-        converters.put(Long.class.getName(), longConverter);
-        // to float:
-        Converter floatConverter = (str) -> {
-            return Float.parseFloat(str);
-        };
-        converters.put(float.class.getName(), floatConverter);
-        converters.put(Float.class.getName(), floatConverter);
-        // to double:
-        Converter doubleConverter = (str) -> {
-            return Double.parseDouble(str);
-        };
-        converters.put(double.class.getName(), doubleConverter);
-        converters.put(Double.class.getName(), doubleConverter);
-        // to number:
-        converters.put(Number.class.getName(), (str) -> {
-            try {
-                return Long.parseLong(str);
-            }
-            catch (NumberFormatException e) {
-                return Double.parseDouble(str);
-            }
-        });
-        // to string:
-        converters.put(String.class.getName(), (str) -> {
-            return str;
-        });
-        return converters;
-    }
-
-    boolean isValidPathVariableType(Class<?> clazz) {
-        return CONVERTERS.containsKey(clazz.getName());
-    }
-
-    Object convertPathVariable(String str, Class<?> clazz) {
-        return CONVERTERS.get(clazz.getName()).convert(str);
     }
 
 }
@@ -1,132 +1,296 @@
 package com.itranswarp.jxrest;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * Load classes by name or by package name.
+ *
+ * All packages are scanned in one pass: each directory is listed once and each
+ * jar is opened once by JarFile, which reads the central directory instead of
+ * inflating the whole jar. Found classes are loaded in parallel without
+ * initialization.
+ *
+ * The found class names can be saved as an index file, so later startup loads
+ * classes from the index without scanning.
  */
 class ClassFinder {
 
     final Log log = LogFactory.getLog(getClass());
     final Pattern classFileNamePattern = Pattern.compile("^[A-Za-z0-9\\_]+\\.class$");
+    final ClassLoader classLoader;
+
+    ClassFinder() {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        this.classLoader = cl == null ? getClass().getClassLoader() : cl;
+    }
 
     /**
      * Load classes by name or by package name.
-     * 
+     *
      * @param args Class names or package names.
      * @return List contains loaded classes.
      */
     public List<Class<?>> findClasses(String... args) {
-        List<Class<?>> list = new ArrayList<Class<?>>();
+        return loadClasses(findClassNames(args));
+    }
+
+    /**
+     * Load classes from index file if it exists and was generated by the same
+     * names from unchanged directories and jars, otherwise find classes and
+     * write index file.
+     *
+     * @param index Index file.
+     * @param args Class names or package names.
+     * @return List contains loaded classes.
+     */
+    public List<Class<?>> findClasses(File index, String... args) {
+        String key = String.join(",", args);
+        String stamp = stampOf(args);
+        List<String> classNames = readIndex(index, key, stamp);
+        if (classNames == null) {
+            classNames = findClassNames(args);
+            writeIndex(index, key, stamp, classNames);
+        }
+        else {
+            log.info("Load " + classNames.size() + " classes from index: " + index);
+        }
+        return loadClasses(classNames);
+    }
+
+    /**
+     * Find class names by class names or package names.
+     */
+    List<String> findClassNames(String... args) {
+        List<String> classNames = new ArrayList<String>();
+        // package name -> class names found in package:
+        Map<String, TreeSet<String>> packages = new LinkedHashMap<String, TreeSet<String>>();
+        // jar file -> package names to scan in jar:
+        Map<String, List<String>> jars = new LinkedHashMap<String, List<String>>();
+        for (String name : args) {
+            if (isClass(name)) {
+                log.info("Found class: " + name);
+                classNames.add(name);
+                continue;
+            }
+            if (packages.containsKey(name)) {
+                continue;
+            }
+            String path = name.replace('.', '/');
+            TreeSet<String> found = new TreeSet<String>();
+            packages.put(name, found);
+            List<URL> urls = getResources(path);
+            if (urls.isEmpty()) {
+                throw new RuntimeException("Package not found: " + name);
+            }
+            for (URL url : urls) {
+                String theUrl = url.toString();
+                if (theUrl.startsWith("file:")) {
+                    findClassesInDir(name, decode(url.getPath()), found);
+                }
+                else if (theUrl.startsWith("jar:file:") && theUrl.endsWith("!/" + path)) {
+                    String jarFile = decode(theUrl.substring(9, theUrl.length() - path.length() - 2));
+                    List<String> pkgs = jars.get(jarFile);
+                    if (pkgs == null) {
+                        pkgs = new ArrayList<String>();
+                        jars.put(jarFile, pkgs);
+                    }
+                    pkgs.add(name);
+                }
+                else {
+                    throw new RuntimeException("Package not found: " + name);
+                }
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : jars.entrySet()) {
+            findClassesInJar(entry.getKey(), entry.getValue(), packages);
+        }
+        for (TreeSet<String> found : packages.values()) {
+            classNames.addAll(found);
+        }
+        return classNames;
+    }
+
+    /**
+     * Get last modified time and size of directories and jars of packages,
+     * which are changed if classes are added or removed.
+     */
+    String stampOf(String... args) {
+        StringBuilder sb = new StringBuilder(256);
         for (String name : args) {
-            Class<?> clazz = findClassByName(name);
-            if (clazz != null) {
-                list.add(clazz);
+            if (isClass(name)) {
+                continue;
             }
-            else {
-                list.addAll(findClassesByPackage(name));
+            for (URL url : getResources(name.replace('.', '/'))) {
+                String theUrl = url.toString();
+                File file = null;
+                if (theUrl.startsWith("file:")) {
+                    file = new File(decode(url.getPath()));
+                }
+                else if (theUrl.startsWith("jar:file:")) {
+                    int n = theUrl.indexOf("!/");
+                    file = new File(decode(theUrl.substring(9, n == (-1) ? theUrl.length() : n)));
+                }
+                if (file != null) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(file.getPath()).append(':').append(file.lastModified()).append(':').append(file.length());
+                }
             }
         }
-        return list;
+        return sb.toString();
+    }
+
+    boolean isClass(String name) {
+        return classLoader.getResource(name.replace('.', '/') + ".class") != null;
     }
 
-    Class<?> findClassByName(String name) {
+    List<URL> getResources(String path) {
+        List<URL> urls = new ArrayList<URL>();
         try {
-            Class<?> clazz = Class.forName(name);
-            log.info("Found class: " + name);
-            return clazz;
+            for (Enumeration<URL> e = classLoader.getResources(path); e.hasMoreElements(); ) {
+                urls.add(e.nextElement());
+            }
         }
-        catch (ClassNotFoundException e) {
-            return null;
+        catch (IOException e) {
+            throw new RuntimeException(e);
         }
+        return urls;
     }
 
-    List<Class<?>> findClassesByPackage(String pkgName) {
-        URL url = getClass().getClassLoader().getResource(pkgName.replace('.', '/'));
-        if (url == null) {
-            throw new RuntimeException("Package not found: " + pkgName);
-        }
-        String theUrl = url.toString();
-        if (theUrl.startsWith("file:")) {
-            return findClassesInDir(pkgName, url.getPath());
+    String decode(String path) {
+        try {
+            return URLDecoder.decode(path.replace("+", "%2B"), "UTF-8");
         }
-        if (theUrl.startsWith("jar:file:") && theUrl.endsWith("!/" + pkgName.replace('.', '/'))) {
-            return findClassesInJar(pkgName, theUrl.substring(9, theUrl.length() - pkgName.length() - 2));
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
         }
-        throw new RuntimeException("Package not found: " + pkgName);
     }
 
-    List<Class<?>> findClassesInDir(String pkgName, String path) {
-        File dir = new File(path);
-        String[] files = dir.list();
-        return Arrays.asList(files).stream().filter((fileName) -> {
-            return fileName.endsWith(".class") && classFileNamePattern.matcher(fileName).matches();
-        }).map((fileName) -> {
-            // try load class:
-            try {
+    void findClassesInDir(String pkgName, String path, TreeSet<String> found) {
+        String[] files = new File(path).list();
+        if (files == null) {
+            return;
+        }
+        for (String fileName : files) {
+            if (classFileNamePattern.matcher(fileName).matches()) {
                 String className = pkgName + "." + fileName.substring(0, fileName.length() - 6);
-                Class<?> clazz = Class.forName(className);
                 log.info("Found class " + className + " in file: " + fileName);
-                return clazz;
-            }
-            catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
+                found.add(className);
             }
-        }).filter((clazz) -> {
-            return clazz != null;
-        }).collect(Collectors.toList());
+        }
     }
 
-    List<Class<?>> findClassesInJar(String pkgName, String jarFile) {
+    /**
+     * Scan entries of jar once for all packages.
+     */
+    void findClassesInJar(String jarFile, List<String> pkgNames, Map<String, TreeSet<String>> packages) {
         log.info("Scan classes in jar: " + jarFile);
-        List<Class<?>> list = new ArrayList<Class<?>>();
-        String packagePrefix = pkgName + ".";
-        ZipInputStream zip = null;
-        try {
-            zip = new ZipInputStream(new BufferedInputStream(new FileInputStream(jarFile)));
-            for (ZipEntry entry = zip.getNextEntry(); entry!=null; entry=zip.getNextEntry()) {
-                String entryName = entry.getName();
-                if(!entry.isDirectory() && entryName.endsWith(".class")) {
-                    String classFileName = entryName.replace('/', '.');
-                    if (classFileName.startsWith(packagePrefix) && classFileNamePattern.matcher(classFileName.substring(packagePrefix.length())).matches()) {
-                        log.info("Found class " + classFileName + " in jar: " + jarFile);
-                        try {
-                            list.add(Class.forName(classFileName.substring(0, classFileName.length() - 6)));
-                        }
-                        catch (ClassNotFoundException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
+        try (JarFile jar = new JarFile(jarFile, false)) {
+            for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements(); ) {
+                String entryName = e.nextElement().getName();
+                int n = entryName.lastIndexOf('/');
+                if (n == (-1) || !entryName.endsWith(".class")) {
+                    continue;
+                }
+                String pkgName = entryName.substring(0, n).replace('/', '.');
+                if (pkgNames.contains(pkgName) && classFileNamePattern.matcher(entryName.substring(n + 1)).matches()) {
+                    String className = entryName.substring(0, entryName.length() - 6).replace('/', '.');
+                    log.info("Found class " + className + " in jar: " + jarFile);
+                    packages.get(pkgName).add(className);
                 }
             }
-            return list;
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
-        finally {
-            if (zip != null) {
-                try {
-                    zip.close();
-                }
-                catch (IOException e) {
-                }
+    }
+
+    /**
+     * Load classes in parallel without initialization.
+     */
+    List<Class<?>> loadClasses(List<String> classNames) {
+        return classNames.parallelStream().map((className) -> {
+            try {
+                return Class.forName(className, false, classLoader);
             }
+            catch (ClassNotFoundException e) {
+                throw new RuntimeException(e);
+            }
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * Read class names from index file.
+     *
+     * @return List of class names, or null if index is not found, generated by other names or stale.
+     */
+    List<String> readIndex(File index, String key, String stamp) {
+        if (!index.isFile()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (InputStream input = Files.newInputStream(index.toPath())) {
+            props.load(input);
+        }
+        catch (IOException e) {
+            log.warn("Cannot read index: " + index, e);
+            return null;
+        }
+        if (!key.equals(props.getProperty("handlers"))) {
+            return null;
         }
+        if (!stamp.equals(props.getProperty("stamp"))) {
+            log.info("Classes changed since index was written: " + index);
+            return null;
+        }
+        List<String> classNames = new ArrayList<String>();
+        for (String s : props.getProperty("classes", "").split(",")) {
+            if (!s.isEmpty()) {
+                classNames.add(s);
+            }
+        }
+        return classNames;
     }
 
+    void writeIndex(File index, String key, String stamp, List<String> classNames) {
+        Properties props = new Properties();
+        props.setProperty("handlers", key);
+        props.setProperty("stamp", stamp);
+        props.setProperty("classes", String.join(",", classNames));
+        File tmp = new File(index.getPath() + ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(tmp.toPath())) {
+                props.store(output, "Generated by jxrest. Delete this file if handlers are changed.");
+            }
+            Files.move(tmp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log.info("Write " + classNames.size() + " classes to index: " + index);
+        }
+        catch (IOException e) {
+            log.warn("Cannot write index: " + index, e);
+            tmp.delete();
+        }
+    }
 }
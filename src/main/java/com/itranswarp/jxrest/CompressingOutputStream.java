@@ -0,0 +1,68 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream which compresses bytes by pooled Compressor.
+ * 
+ * @author Michael Liao
+ */
+class CompressingOutputStream extends OutputStream {
+
+    final Compression compression;
+    Compressor compressor;
+    OutputStream target;
+
+    CompressingOutputStream(Compression compression, Compressor compressor) {
+        this.compression = compression;
+        this.compressor = compressor;
+        this.target = compressor.output;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        compressor.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (compressor != null) {
+            compressor.syncFlush();
+        }
+        target.flush();
+    }
+
+    /**
+     * Return compressor to pool without writing trailer, used when the
+     * response is aborted.
+     */
+    void discard() {
+        Compressor c = this.compressor;
+        if (c != null) {
+            this.compressor = null;
+            compression.release(c);
+        }
+    }
+
+    /**
+     * Write trailer and return compressor to pool.
+     */
+    void finish() throws IOException {
+        Compressor c = this.compressor;
+        if (c != null) {
+            this.compressor = null;
+            try {
+                c.finish();
+            }
+            finally {
+                compression.release(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.itranswarp.jxrest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compress response body by gzip or deflate negotiated by Accept-Encoding.
+ * Deflaters are pooled to avoid allocating native zlib memory per request.
+ * 
+ * @author Michael Liao
+ */
+class Compression {
+
+    static final int NONE = 0;
+    static final int GZIP = 1;
+    static final int DEFLATE = 2;
+
+    static final String[] ENCODINGS = { null, "gzip", "deflate" };
+
+    // do not compress body smaller than threshold:
+    final int threshold;
+    final StripedPool<Compressor> compressors = new StripedPool<Compressor>(64);
+
+    Compression(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Invalid compression threshold: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * Select encoding from Accept-Encoding header. Gzip is preferred. "*"
+     * selects an encoding which is not refused by "q=0".
+     * 
+     * @param acceptEncoding Value of Accept-Encoding header, can be null.
+     * @return GZIP, DEFLATE or NONE.
+     */
+    static int negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return NONE;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        boolean any = false;
+        // refused by q=0:
+        boolean noGzip = false;
+        boolean noDeflate = false;
+        for (String part : acceptEncoding.split(",")) {
+            String name = part;
+            boolean zero = false;
+            int n = part.indexOf(';');
+            if (n >= 0) {
+                name = part.substring(0, n);
+                zero = isZeroQuality(part.substring(n + 1));
+            }
+            name = name.trim();
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                gzip = gzip || !zero;
+                noGzip = noGzip || zero;
+            }
+            else if (name.equalsIgnoreCase("deflate")) {
+                deflate = deflate || !zero;
+                noDeflate = noDeflate || zero;
+            }
+            else if (name.equals("*")) {
+                any = any || !zero;
+            }
+        }
+        if (noGzip) {
+            gzip = false;
+        }
+        if (noDeflate) {
+            deflate = false;
+        }
+        if (gzip || (any && !noGzip)) {
+            return GZIP;
+        }
+        if (deflate || (any && !noDeflate)) {
+            return DEFLATE;
+        }
+        return NONE;
+    }
+
+    /**
+     * Parse Content-Encoding header of request.
+     * 
+     * @param contentEncoding Value of Content-Encoding header, can be null.
+     * @return GZIP, DEFLATE, NONE, or -1 if not supported.
+     */
+    static int parseContentEncoding(String contentEncoding) {
+        if (contentEncoding == null) {
+            return NONE;
+        }
+        String s = contentEncoding.trim();
+        if (s.isEmpty() || s.equalsIgnoreCase("identity")) {
+            return NONE;
+        }
+        if (s.equalsIgnoreCase("gzip") || s.equalsIgnoreCase("x-gzip")) {
+            return GZIP;
+        }
+        if (s.equalsIgnoreCase("deflate")) {
+            return DEFLATE;
+        }
+        return -1;
+    }
+
+    static boolean isZeroQuality(String params) {
+        for (String param : params.split(";")) {
+            param = param.trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2).trim()) <= 0;
+                }
+                catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    Compressor acquire() {
+        Compressor c = compressors.poll();
+        return c == null ? new Compressor() : c;
+    }
+
+    void release(Compressor c) {
+        c.reset();
+        if (!compressors.offer(c)) {
+            c.deflater.end();
+        }
+    }
+
+    /**
+     * Compress bytes in memory.
+     */
+    byte[] compress(byte[] data, int off, int len, int encoding) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(len / 4 + 64);
+        Compressor c = acquire();
+        try {
+            c.start(output, encoding);
+            c.write(data, off, len);
+            c.finish();
+        }
+        finally {
+            release(c);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Create OutputStream which compresses bytes to target. The finish()
+     * method must be called to write trailer and release resources.
+     */
+    CompressingOutputStream createOutputStream(OutputStream target, int encoding) throws IOException {
+        Compressor c = acquire();
+        c.start(target, encoding);
+        return new CompressingOutputStream(this, c);
+    }
+}
@@ -0,0 +1,100 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Raw deflater with gzip or zlib framing written by hand, so one pool of
+ * deflaters serves both encodings.
+ * 
+ * @author Michael Liao
+ */
+class Compressor {
+
+    static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9c };
+
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    final CRC32 crc = new CRC32();
+    final Adler32 adler = new Adler32();
+    final byte[] buffer = new byte[8192];
+    OutputStream output;
+    int encoding;
+    long size;
+
+    void start(OutputStream output, int encoding) throws IOException {
+        this.output = output;
+        this.encoding = encoding;
+        output.write(encoding == Compression.GZIP ? GZIP_HEADER : ZLIB_HEADER);
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+        if (encoding == Compression.GZIP) {
+            crc.update(b, off, len);
+        }
+        else {
+            adler.update(b, off, len);
+        }
+        size += len;
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            int n = deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH);
+            if (n > 0) {
+                output.write(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * Write all pending compressed bytes, so the client can decompress data
+     * written so far.
+     */
+    void syncFlush() throws IOException {
+        int n;
+        do {
+            n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            if (n > 0) {
+                output.write(buffer, 0, n);
+            }
+        } while (n == buffer.length);
+    }
+
+    void finish() throws IOException {
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH);
+            if (n > 0) {
+                output.write(buffer, 0, n);
+            }
+        }
+        if (encoding == Compression.GZIP) {
+            writeIntLE(crc.getValue());
+            writeIntLE(size);
+        }
+        else {
+            long v = adler.getValue();
+            output.write((int) (v >> 24) & 0xff);
+            output.write((int) (v >> 16) & 0xff);
+            output.write((int) (v >> 8) & 0xff);
+            output.write((int) v & 0xff);
+        }
+    }
+
+    void writeIntLE(long v) throws IOException {
+        output.write((int) v & 0xff);
+        output.write((int) (v >> 8) & 0xff);
+        output.write((int) (v >> 16) & 0xff);
+        output.write((int) (v >> 24) & 0xff);
+    }
+
+    void reset() {
+        deflater.reset();
+        crc.reset();
+        adler.reset();
+        output = null;
+        size = 0;
+    }
+}
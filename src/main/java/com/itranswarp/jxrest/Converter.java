@@ -0,0 +1,20 @@
+package com.itranswarp.jxrest;
+
+/**
+ * Convert path variable from string to specific type.
+ * 
+ * @author Michael Liao
+ *
+ * @param <T> Target type.
+ */
+public interface Converter<T> {
+
+    /**
+     * Convert string to object.
+     * 
+     * @param str String value, never null.
+     * @return Converted object.
+     */
+    T convert(String str);
+
+}
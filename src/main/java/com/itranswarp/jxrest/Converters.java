@@ -0,0 +1,102 @@
+package com.itranswarp.jxrest;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Registry of converters by type. Converters are resolved when handler is
+ * added, so there is no lookup when processing request.
+ * 
+ * @author Michael Liao
+ */
+class Converters {
+
+    static final Converter<Integer> INT_CONVERTER = (str) -> {
+        return Integer.parseInt(str);
+    };
+
+    static final Converter<Long> LONG_CONVERTER = (str) -> {
+        return Long.parseLong(str);
+    };
+
+    final Map<Class<?>, Converter<?>> converters = new HashMap<Class<?>, Converter<?>>();
+
+    Converters() {
+        // to byte:
+        Converter<Byte> byteConverter = (str) -> {
+            return Byte.parseByte(str);
+        };
+        register(byte.class, byteConverter);
+        register(Byte.class, byteConverter);
+        // to short:
+        Converter<Short> shortConverter = (str) -> {
+            return Short.parseShort(str);
+        };
+        register(short.class, shortConverter);
+        register(Short.class, shortConverter);
+        // to int:
+        register(int.class, INT_CONVERTER);
+        register(Integer.class, INT_CONVERTER);
+        // to long:
+        register(long.class, LONG_CONVERTER);
+        register(Long.class, LONG_CONVERTER);
+        // to float:
+        Converter<Float> floatConverter = (str) -> {
+            return Float.parseFloat(str);
+        };
+        register(float.class, floatConverter);
+        register(Float.class, floatConverter);
+        // to double:
+        Converter<Double> doubleConverter = (str) -> {
+            return Double.parseDouble(str);
+        };
+        register(double.class, doubleConverter);
+        register(Double.class, doubleConverter);
+        // to number:
+        register(Number.class, (str) -> {
+            try {
+                return Long.parseLong(str);
+            }
+            catch (NumberFormatException e) {
+                return Double.parseDouble(str);
+            }
+        });
+        // to string:
+        register(String.class, (str) -> {
+            return str;
+        });
+        // to uuid:
+        register(UUID.class, (str) -> {
+            return UUID.fromString(str);
+        });
+        // to date as "yyyy-MM-dd":
+        register(LocalDate.class, (str) -> {
+            return LocalDate.parse(str);
+        });
+    }
+
+    <T> void register(Class<T> clazz, Converter<T> converter) {
+        if (clazz == null || converter == null) {
+            throw new IllegalArgumentException("Class or converter is null.");
+        }
+        converters.put(clazz, converter);
+    }
+
+    /**
+     * Get converter of the type, or null if not supported. Enum is supported by
+     * Enum.valueOf() if no converter registered.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Converter<?> get(Class<?> clazz) {
+        Converter<?> converter = converters.get(clazz);
+        if (converter == null && clazz.isEnum()) {
+            Class<? extends Enum> enumClass = (Class<? extends Enum>) clazz;
+            converter = (str) -> {
+                return Enum.valueOf(enumClass, str);
+            };
+        }
+        return converter;
+    }
+}
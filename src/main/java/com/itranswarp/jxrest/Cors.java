@@ -0,0 +1,48 @@
+package com.itranswarp.jxrest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Allow cross-origin requests of REST API. Overrides the global setting of
+ * RestApiHandler.setCors() for this route.
+ * 
+ * @author Michael Liao
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cors {
+
+    /**
+     * Allowed origins like "https://www.example.com", or "*" to allow any
+     * origin.
+     * 
+     * @return Allowed origins.
+     */
+    String[] origins() default { "*" };
+
+    /**
+     * Request headers allowed in preflight request.
+     * 
+     * @return Allowed request headers.
+     */
+    String[] headers() default { "Content-Type" };
+
+    /**
+     * Seconds to cache preflight response by browser.
+     * 
+     * @return Max age in seconds.
+     */
+    long maxAge() default 600;
+
+    /**
+     * Allow cookies and authorization headers. Origins must be listed
+     * explicitly, and "*" is rejected if credentials are allowed.
+     * 
+     * @return True if credentials are allowed.
+     */
+    boolean credentials() default false;
+
+}
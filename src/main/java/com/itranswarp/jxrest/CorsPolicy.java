@@ -0,0 +1,108 @@
+package com.itranswarp.jxrest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * CORS settings of a route, or of all routes. Header values are formatted
+ * when created, so setting CORS headers of response does not build strings.
+ * 
+ * @author Michael Liao
+ */
+class CorsPolicy {
+
+    final boolean anyOrigin;
+    final Set<String> origins;
+    final boolean credentials;
+    final String allowHeaders;
+    final String maxAge;
+
+    /**
+     * Create CORS policy.
+     * 
+     * @param origins Allowed origins, or "*" to allow any origin.
+     * @param headers Allowed request headers.
+     * @param maxAge Seconds to cache preflight response.
+     * @param credentials Allow credentials.
+     */
+    CorsPolicy(String[] origins, String[] headers, long maxAge, boolean credentials) {
+        if (origins.length == 0) {
+            throw new IllegalArgumentException("Allowed origins of CORS is empty.");
+        }
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("Invalid max age of CORS: " + maxAge);
+        }
+        for (String origin : origins) {
+            if (!"*".equals(origin) && !origin.startsWith("http://") && !origin.startsWith("https://")) {
+                throw new IllegalArgumentException("Invalid origin of CORS: " + origin);
+            }
+            if (origin.endsWith("/")) {
+                throw new IllegalArgumentException("Origin of CORS must not end with '/': " + origin);
+            }
+        }
+        this.origins = new HashSet<String>(Arrays.asList(origins));
+        this.anyOrigin = this.origins.contains("*");
+        if (this.anyOrigin && credentials) {
+            // any site could read responses with cookies of user:
+            throw new IllegalArgumentException("Origin \"*\" of CORS is not allowed with credentials.");
+        }
+        this.credentials = credentials;
+        this.allowHeaders = headers.length == 0 ? null : String.join(", ", headers);
+        this.maxAge = String.valueOf(maxAge);
+    }
+
+    static CorsPolicy of(Cors cors) {
+        return new CorsPolicy(cors.origins(), cors.headers(), cors.maxAge(), cors.credentials());
+    }
+
+    /**
+     * Get value of "Access-Control-Allow-Origin".
+     * 
+     * @param origin Origin of request.
+     * @return "*", origin, or null if origin is not allowed.
+     */
+    String allowOrigin(String origin) {
+        if (anyOrigin) {
+            return "*";
+        }
+        return origins.contains(origin) ? origin : null;
+    }
+
+    /**
+     * Set CORS headers of actual request.
+     * 
+     * @return True if origin is allowed.
+     */
+    boolean setHeaders(HttpServletResponse resp, String origin) {
+        String allowOrigin = allowOrigin(origin);
+        if (allowOrigin == null) {
+            return false;
+        }
+        resp.setHeader("Access-Control-Allow-Origin", allowOrigin);
+        if (!anyOrigin) {
+            resp.addHeader("Vary", "Origin");
+        }
+        if (credentials) {
+            resp.setHeader("Access-Control-Allow-Credentials", "true");
+        }
+        return true;
+    }
+
+    /**
+     * Set CORS headers of preflight request.
+     * 
+     * @param allowMethods Allowed methods like "GET, HEAD, OPTIONS".
+     */
+    void setPreflightHeaders(HttpServletResponse resp, String origin, String allowMethods) {
+        if (setHeaders(resp, origin)) {
+            resp.setHeader("Access-Control-Allow-Methods", allowMethods);
+            if (allowHeaders != null) {
+                resp.setHeader("Access-Control-Allow-Headers", allowHeaders);
+            }
+            resp.setHeader("Access-Control-Max-Age", maxAge);
+        }
+    }
+}
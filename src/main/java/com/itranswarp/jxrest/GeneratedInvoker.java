@@ -0,0 +1,45 @@
+package com.itranswarp.jxrest;
+
+/**
+ * Invoke handler method by RouteInvoker generated at compile time.
+ *
+ * @author Michael Liao
+ */
+class GeneratedInvoker extends Invoker {
+
+    final RouteInvoker invoker;
+
+    GeneratedInvoker(RouteInvoker invoker) {
+        this.invoker = invoker;
+    }
+
+    @Override
+    Object invoke(Object[] args) throws Exception {
+        return invoker.invoke(args);
+    }
+
+    @Override
+    Object invoke0() throws Exception {
+        return invoker.invoke0();
+    }
+
+    @Override
+    Object invoke1(Object a0) throws Exception {
+        return invoker.invoke1(a0);
+    }
+
+    @Override
+    Object invoke2(Object a0, Object a1) throws Exception {
+        return invoker.invoke2(a0, a1);
+    }
+
+    @Override
+    Object invoke3(Object a0, Object a1, Object a2) throws Exception {
+        return invoker.invoke3(a0, a1, a2);
+    }
+
+    @Override
+    Object invoke4(Object a0, Object a1, Object a2, Object a3) throws Exception {
+        return invoker.invoke4(a0, a1, a2, a3);
+    }
+}
@@ -0,0 +1,75 @@
+package com.itranswarp.jxrest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Hold handler instance which is created on first use. The first caller sets a
+ * placeholder future by CAS and creates the instance, and racing callers wait
+ * for the future, so only one instance is created without lock. Later calls
+ * read the completed future.
+ *
+ * @author Michael Liao
+ */
+class HandlerHolder {
+
+    static final Log log = LogFactory.getLog(HandlerHolder.class);
+
+    final Class<?> handlerClass;
+    final Supplier<Object> factory;
+    final AtomicReference<CompletableFuture<Object>> instance = new AtomicReference<CompletableFuture<Object>>();
+
+    HandlerHolder(Class<?> handlerClass, Supplier<Object> factory) {
+        this.handlerClass = handlerClass;
+        this.factory = factory;
+    }
+
+    Object get() {
+        CompletableFuture<Object> future = instance.get();
+        if (future == null) {
+            CompletableFuture<Object> created = new CompletableFuture<Object>();
+            if (instance.compareAndSet(null, created)) {
+                return create(created);
+            }
+            future = instance.get();
+            if (future == null) {
+                // creation failed, try again:
+                return get();
+            }
+        }
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    Object create(CompletableFuture<Object> created) {
+        Object handler;
+        try {
+            handler = factory.get();
+        }
+        catch (RuntimeException | Error e) {
+            // next call creates again:
+            instance.set(null);
+            created.completeExceptionally(e);
+            throw e;
+        }
+        log.info("Created handler: " + handlerClass.getName());
+        created.complete(handler);
+        return handler;
+    }
+}
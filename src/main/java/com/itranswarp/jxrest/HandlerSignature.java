@@ -0,0 +1,115 @@
+package com.itranswarp.jxrest;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Name, parameters and cache settings of handler method, read by reflection
+ * or generated at compile time.
+ * 
+ * @author Michael Liao
+ */
+class HandlerSignature {
+
+    final String name;
+    final String[] paramNames;
+    final Class<?>[] paramTypes;
+    // is parameter has type Map<String, String>:
+    final boolean[] stringMaps;
+    // name of @Query of each parameter, or null if no parameter is annotated:
+    final String[] queryNames;
+    // default value of @Query of each parameter, or null if no default:
+    final String[] queryDefaults;
+    // ttl in seconds of @Cached:
+    final long cacheTtl;
+    // query of @Cached, or null if not cached:
+    final String[] cacheQuery;
+    // CORS of @Cors, or null if not annotated:
+    final CorsPolicy cors;
+    // class of result or result of CompletionStage, or null if unknown:
+    final Class<?> resultType;
+
+    HandlerSignature(String name, String[] paramNames, Class<?>[] paramTypes, boolean[] stringMaps, String[] queryNames, String[] queryDefaults, long cacheTtl, String[] cacheQuery, CorsPolicy cors,
+            Class<?> resultType) {
+        this.name = name;
+        this.paramNames = paramNames;
+        this.paramTypes = paramTypes;
+        this.stringMaps = stringMaps;
+        this.queryNames = queryNames;
+        this.queryDefaults = queryDefaults;
+        this.cacheTtl = cacheTtl;
+        this.cacheQuery = cacheQuery;
+        this.cors = cors;
+        this.resultType = resultType;
+    }
+
+    static HandlerSignature of(Method method) {
+        Parameter[] ps = method.getParameters();
+        String[] names = new String[ps.length];
+        Class<?>[] types = new Class<?>[ps.length];
+        boolean[] stringMaps = new boolean[ps.length];
+        String[] queryNames = null;
+        String[] queryDefaults = null;
+        for (int i = 0; i < ps.length; i++) {
+            names[i] = ps[i].getName();
+            types[i] = ps[i].getType();
+            stringMaps[i] = isMapStringString(ps[i]);
+            Query query = ps[i].getAnnotation(Query.class);
+            if (query != null) {
+                if (queryNames == null) {
+                    queryNames = new String[ps.length];
+                    queryDefaults = new String[ps.length];
+                }
+                queryNames[i] = query.value().isEmpty() ? names[i] : query.value();
+                queryDefaults[i] = Query.NO_DEFAULT.equals(query.defaultValue()) ? null : query.defaultValue();
+            }
+        }
+        Cached cached = method.getAnnotation(Cached.class);
+        Cors cors = method.getAnnotation(Cors.class);
+        return new HandlerSignature(method.getName(), names, types, stringMaps, queryNames, queryDefaults, cached == null ? 0 : cached.ttl(), cached == null ? null : cached.query(),
+                cors == null ? null : CorsPolicy.of(cors), resultType(method));
+    }
+
+    /**
+     * Get class of return type, or of the result type of CompletionStage.
+     * 
+     * @return Result class, or null if it is not a class.
+     */
+    static Class<?> resultType(Method method) {
+        Type type = method.getGenericReturnType();
+        if (type instanceof ParameterizedType && CompletionStage.class.isAssignableFrom(method.getReturnType())) {
+            type = ((ParameterizedType) type).getActualTypeArguments()[0];
+        }
+        if (type instanceof ParameterizedType) {
+            type = ((ParameterizedType) type).getRawType();
+        }
+        return type instanceof Class ? (Class<?>) type : null;
+    }
+
+    /**
+     * Is parameter has type `Map<String, String>`?
+     */
+    static boolean isMapStringString(Parameter p) {
+        if ( ! Map.class.equals(p.getType())) {
+            return false;
+        }
+        Type type = p.getParameterizedType();
+        if ( ! (type instanceof ParameterizedType)) {
+            return false;
+        }
+        ParameterizedType pt = (ParameterizedType) type;
+        Type[] types = pt.getActualTypeArguments();
+        if (types.length != 2) {
+            return false;
+        }
+        return String.class.equals(types[0]) && String.class.equals(types[1]);
+    }
+
+    String toHandlerString(Class<?> clazz) {
+        return clazz.getName() + "." + name + "(" + String.join(", ", paramNames) + ")";
+    }
+}
@@ -0,0 +1,89 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper of HEAD request which discards body and only counts bytes
+ * for Content-Length. Stream result is closed without reading, and is sent
+ * without Content-Length.
+ *
+ * @author Michael Liao
+ */
+class HeadResponse extends HttpServletResponseWrapper {
+
+    long bytes = 0;
+    // stream result is not read so length is unknown:
+    boolean streaming = false;
+    DiscardOutputStream output = null;
+    PrintWriter writer = null;
+
+    HeadResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (output == null) {
+            output = new DiscardOutputStream();
+        }
+        return output;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), StandardCharsets.UTF_8));
+        }
+        return writer;
+    }
+
+    /**
+     * Set Content-Length by counted bytes if not set by handler.
+     */
+    void finish() {
+        if (writer != null) {
+            writer.flush();
+        }
+        HttpServletResponse resp = (HttpServletResponse) getResponse();
+        if (!streaming && !resp.isCommitted() && !resp.containsHeader("Content-Length") && resp.getStatus() < 300) {
+            resp.setContentLengthLong(bytes);
+        }
+    }
+
+    class DiscardOutputStream extends ServletOutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bytes += len;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            // always ready since nothing is written:
+            try {
+                writeListener.onWritePossible();
+            }
+            catch (IOException e) {
+                writeListener.onError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.itranswarp.jxrest;
+
+/**
+ * Index of supported http methods, used to lookup per-method route tables
+ * by array index instead of by method name. Methods before ROUTES can have
+ * handlers, and HEAD and OPTIONS are answered automatically.
+ *
+ * @author Michael Liao
+ */
+class HttpMethod {
+
+    static final int GET = 0;
+    static final int POST = 1;
+    static final int PUT = 2;
+    static final int DELETE = 3;
+    static final int PATCH = 4;
+    static final int HEAD = 5;
+    static final int OPTIONS = 6;
+
+    // number of methods which can have handlers:
+    static final int ROUTES = 5;
+
+    static final String[] NAMES = { "GET", "POST", "PUT", "DELETE", "PATCH", "HEAD", "OPTIONS" };
+
+    // precomputed "Allow" headers indexed by bit mask of methods with handlers:
+    static final String[] ALLOWS = new String[1 << ROUTES];
+
+    static {
+        for (int mask = 0; mask < ALLOWS.length; mask++) {
+            StringBuilder sb = new StringBuilder(64);
+            for (int i = 0; i < ROUTES; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    sb.append(NAMES[i]).append(", ");
+                }
+            }
+            if ((mask & (1 << GET)) != 0) {
+                sb.append("HEAD, ");
+            }
+            ALLOWS[mask] = sb.append("OPTIONS").toString();
+        }
+    }
+
+    /**
+     * Get index of http method.
+     *
+     * @param method Http method like "GET".
+     * @return Index of method, or -1 if not supported.
+     */
+    static int indexOf(String method) {
+        switch (method) {
+        case "GET":
+            return GET;
+        case "POST":
+            return POST;
+        case "PUT":
+            return PUT;
+        case "DELETE":
+            return DELETE;
+        case "PATCH":
+            return PATCH;
+        case "HEAD":
+            return HEAD;
+        case "OPTIONS":
+            return OPTIONS;
+        default:
+            return -1;
+        }
+    }
+}
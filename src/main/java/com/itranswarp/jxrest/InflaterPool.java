@@ -0,0 +1,29 @@
+package com.itranswarp.jxrest;
+
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of raw inflaters.
+ * 
+ * @author Michael Liao
+ */
+class InflaterPool {
+
+    final StripedPool<Inflater> inflaters;
+
+    InflaterPool(int maxInflaters) {
+        this.inflaters = new StripedPool<Inflater>(maxInflaters);
+    }
+
+    Inflater acquire() {
+        Inflater inf = inflaters.poll();
+        return inf == null ? new Inflater(true) : inf;
+    }
+
+    void release(Inflater inf) {
+        inf.reset();
+        if (!inflaters.offer(inf)) {
+            inf.end();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompress gzip or deflate request body while it is read. The decompressed
+ * size is limited to protect against zip bombs, and the inflater is returned
+ * to pool when the stream is closed.
+ * 
+ * @author Michael Liao
+ */
+class InflatingInputStream extends InputStream {
+
+    static final int FHCRC = 2;
+    static final int FEXTRA = 4;
+    static final int FNAME = 8;
+    static final int FCOMMENT = 16;
+
+    final InputStream input;
+    final InflaterPool pool;
+    final int encoding;
+    final long maxBytes;
+    final byte[] buffer = new byte[8192];
+    Inflater inflater;
+    Checksum checksum = null;
+    int pos = 0;
+    int limit = 0;
+    long total = 0;
+    boolean started = false;
+    boolean finished = false;
+
+    InflatingInputStream(InputStream input, InflaterPool pool, int encoding, long maxBytes) {
+        this.input = input;
+        this.pool = pool;
+        this.encoding = encoding;
+        this.maxBytes = maxBytes;
+        this.inflater = pool.acquire();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n == (-1) ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            return -1;
+        }
+        if (!started) {
+            readHeader();
+            started = true;
+        }
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            for (;;) {
+                int n = inflater.inflate(b, off, len);
+                if (n > 0) {
+                    total += n;
+                    if (total > maxBytes) {
+                        throw new RequestTooLargeException();
+                    }
+                    if (checksum != null) {
+                        checksum.update(b, off, n);
+                    }
+                    return n;
+                }
+                if (inflater.finished()) {
+                    pos = limit - inflater.getRemaining();
+                    readTrailer();
+                    finished = true;
+                    return -1;
+                }
+                if (inflater.needsDictionary()) {
+                    throw new ZipException("Preset dictionary is not supported.");
+                }
+                if (inflater.needsInput()) {
+                    pos = limit;
+                    if (!fill()) {
+                        throw new ZipException("Unexpected end of compressed body.");
+                    }
+                    inflater.setInput(buffer, pos, limit - pos);
+                }
+            }
+        }
+        catch (DataFormatException e) {
+            throw new ZipException("Invalid compressed body: " + e.getMessage());
+        }
+    }
+
+    boolean fill() throws IOException {
+        int n = input.read(buffer, 0, buffer.length);
+        if (n == (-1)) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    int readByte() throws IOException {
+        if (pos == limit && !fill()) {
+            throw new ZipException("Unexpected end of compressed body.");
+        }
+        return buffer[pos++] & 0xff;
+    }
+
+    void readHeader() throws IOException {
+        if (encoding == Compression.GZIP) {
+            if (readByte() != 0x1f || readByte() != 0x8b || readByte() != 8) {
+                throw new ZipException("Invalid gzip header.");
+            }
+            int flags = readByte();
+            // skip mtime, xfl and os:
+            for (int i = 0; i < 6; i++) {
+                readByte();
+            }
+            if ((flags & FEXTRA) != 0) {
+                int n = readByte() | (readByte() << 8);
+                for (int i = 0; i < n; i++) {
+                    readByte();
+                }
+            }
+            if ((flags & FNAME) != 0) {
+                while (readByte() != 0) {
+                }
+            }
+            if ((flags & FCOMMENT) != 0) {
+                while (readByte() != 0) {
+                }
+            }
+            if ((flags & FHCRC) != 0) {
+                readByte();
+                readByte();
+            }
+            checksum = new CRC32();
+        }
+        else {
+            // zlib format, or raw deflate sent by some clients:
+            if (pos == limit && !fill()) {
+                throw new ZipException("Unexpected end of compressed body.");
+            }
+            if (limit - pos >= 2) {
+                int cmf = buffer[pos] & 0xff;
+                int flg = buffer[pos + 1] & 0xff;
+                if ((cmf & 0x0f) == 8 && (cmf * 256 + flg) % 31 == 0) {
+                    if ((flg & 0x20) != 0) {
+                        throw new ZipException("Preset dictionary is not supported.");
+                    }
+                    pos += 2;
+                    checksum = new Adler32();
+                }
+            }
+        }
+        inflater.setInput(buffer, pos, limit - pos);
+    }
+
+    void readTrailer() throws IOException {
+        if (checksum == null) {
+            return;
+        }
+        if (encoding == Compression.GZIP) {
+            long crc = readIntLE();
+            long size = readIntLE();
+            if (crc != checksum.getValue() || size != (total & 0xffffffffL)) {
+                throw new ZipException("Invalid gzip trailer.");
+            }
+        }
+        else {
+            long adler = ((long) readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+            if (adler != checksum.getValue()) {
+                throw new ZipException("Invalid zlib checksum.");
+            }
+        }
+    }
+
+    long readIntLE() throws IOException {
+        return readByte() | (readByte() << 8) | (readByte() << 16) | ((long) readByte() << 24);
+    }
+
+    /**
+     * Return inflater to pool. The underlying stream is not closed.
+     */
+    @Override
+    public void close() {
+        Inflater inf = this.inflater;
+        if (inf != null) {
+            this.inflater = null;
+            pool.release(inf);
+        }
+    }
+}
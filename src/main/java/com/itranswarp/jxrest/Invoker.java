@@ -0,0 +1,183 @@
+package com.itranswarp.jxrest;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Invoke handler method with resolved arguments. Methods with no more than
+ * MAX_FIXED_ARGS arguments can be invoked without allocating an argument array.
+ *
+ * @author Michael Liao
+ */
+abstract class Invoker {
+
+    static final Log log = LogFactory.getLog(Invoker.class);
+
+    static final int MAX_FIXED_ARGS = 4;
+
+    /**
+     * Create invoker for handler method. Use MethodHandle if possible, otherwise
+     * fall back to reflection.
+     *
+     * @param handlerInstance Handler instance.
+     * @param handlerMethod Handler method which is already accessible.
+     * @return Invoker object.
+     */
+    static Invoker create(Object handlerInstance, Method handlerMethod) {
+        try {
+            return new MethodHandleInvoker(handlerInstance, handlerMethod);
+        }
+        catch (IllegalAccessException | RuntimeException e) {
+            log.warn("Cannot create MethodHandle for " + handlerMethod + ", fall back to reflection.", e);
+            return new ReflectionInvoker(handlerInstance, handlerMethod);
+        }
+    }
+
+    abstract Object invoke(Object[] args) throws Exception;
+
+    Object invoke0() throws Exception {
+        return invoke(new Object[] {});
+    }
+
+    Object invoke1(Object a0) throws Exception {
+        return invoke(new Object[] { a0 });
+    }
+
+    Object invoke2(Object a0, Object a1) throws Exception {
+        return invoke(new Object[] { a0, a1 });
+    }
+
+    Object invoke3(Object a0, Object a1, Object a2) throws Exception {
+        return invoke(new Object[] { a0, a1, a2 });
+    }
+
+    Object invoke4(Object a0, Object a1, Object a2, Object a3) throws Exception {
+        return invoke(new Object[] { a0, a1, a2, a3 });
+    }
+
+    /**
+     * Rethrow exception thrown by handler method as is.
+     */
+    static Exception rethrow(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t instanceof Exception) {
+            return (Exception) t;
+        }
+        return new RuntimeException(t);
+    }
+}
+
+/**
+ * Invoke handler method by MethodHandle bound to handler instance.
+ *
+ * @author Michael Liao
+ */
+class MethodHandleInvoker extends Invoker {
+
+    final int argCount;
+    // (Object, Object, ...)Object with argCount arguments:
+    final MethodHandle fixedHandle;
+    // (Object[])Object:
+    final MethodHandle spreadHandle;
+
+    MethodHandleInvoker(Object handlerInstance, Method handlerMethod) throws IllegalAccessException {
+        MethodHandle mh = MethodHandles.lookup().unreflect(handlerMethod).bindTo(handlerInstance);
+        this.argCount = handlerMethod.getParameterCount();
+        this.fixedHandle = argCount <= MAX_FIXED_ARGS ? mh.asType(MethodType.genericMethodType(argCount)) : null;
+        this.spreadHandle = mh.asSpreader(Object[].class, argCount).asType(MethodType.methodType(Object.class, Object[].class));
+    }
+
+    @Override
+    Object invoke(Object[] args) throws Exception {
+        try {
+            return spreadHandle.invokeExact(args);
+        }
+        catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    Object invoke0() throws Exception {
+        try {
+            return fixedHandle.invokeExact();
+        }
+        catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    Object invoke1(Object a0) throws Exception {
+        try {
+            return fixedHandle.invokeExact(a0);
+        }
+        catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    Object invoke2(Object a0, Object a1) throws Exception {
+        try {
+            return fixedHandle.invokeExact(a0, a1);
+        }
+        catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    Object invoke3(Object a0, Object a1, Object a2) throws Exception {
+        try {
+            return fixedHandle.invokeExact(a0, a1, a2);
+        }
+        catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    Object invoke4(Object a0, Object a1, Object a2, Object a3) throws Exception {
+        try {
+            return fixedHandle.invokeExact(a0, a1, a2, a3);
+        }
+        catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
+
+/**
+ * Invoke handler method by reflection.
+ *
+ * @author Michael Liao
+ */
+class ReflectionInvoker extends Invoker {
+
+    final Object handlerInstance;
+    final Method handlerMethod;
+
+    ReflectionInvoker(Object handlerInstance, Method handlerMethod) {
+        this.handlerInstance = handlerInstance;
+        this.handlerMethod = handlerMethod;
+    }
+
+    @Override
+    Object invoke(Object[] args) throws Exception {
+        try {
+            return handlerMethod.invoke(handlerInstance, args);
+        }
+        catch (InvocationTargetException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+
+/**
+ * Callback to parse JSON request body into type.
+ * 
+ * @author Michael Liao
+ */
+interface JsonCallback {
+
+    Object getJson(Class<?> type) throws IOException;
+
+}
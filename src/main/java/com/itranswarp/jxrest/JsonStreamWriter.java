@@ -0,0 +1,127 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.BaseStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.itranswarp.jsonstream.JsonWriter;
+
+/**
+ * Write result of handler method which returns Stream, Iterator or Iterable
+ * (but not Collection) element by element, as JSON array or as NDJSON (one
+ * JSON value per line), so the whole result is never held in memory.
+ *
+ * The result is closed after written or failed if it is a Stream or
+ * AutoCloseable, including the case that the client is disconnected.
+ *
+ * @author Michael Liao
+ */
+class JsonStreamWriter {
+
+    static final Log log = LogFactory.getLog(JsonStreamWriter.class);
+
+    static final String NDJSON = "application/x-ndjson";
+
+    /**
+     * Is the result should be written as stream?
+     */
+    static boolean isStream(Object ret) {
+        return ret instanceof BaseStream || ret instanceof Iterator || (ret instanceof Iterable && !(ret instanceof Collection));
+    }
+
+    /**
+     * Is NDJSON accepted by Accept header?
+     */
+    static boolean acceptsNdjson(String accept) {
+        return accept != null && accept.contains(NDJSON);
+    }
+
+    /**
+     * Write elements and close the result.
+     *
+     * @param jsonWriter JsonWriter which writes to writer.
+     * @param writer Utf8Writer to write to.
+     * @param ret Stream, Iterator or Iterable.
+     * @param ndjson True if write as NDJSON, otherwise as JSON array.
+     * @param flushInterval Send buffered bytes to client if milliseconds passed since last flush, or 0 if never.
+     */
+    static void write(JsonWriter jsonWriter, Utf8Writer writer, Object ret, boolean ndjson, long flushInterval) throws IOException {
+        try {
+            Iterator<?> it = iterator(ret);
+            long intervalNanos = flushInterval * 1000000L;
+            long lastFlush = flushInterval > 0 ? System.nanoTime() : 0L;
+            if (!ndjson) {
+                writer.write('[');
+            }
+            boolean first = true;
+            while (it.hasNext()) {
+                if (first) {
+                    first = false;
+                }
+                else if (!ndjson) {
+                    writer.write(',');
+                }
+                jsonWriter.write(it.next());
+                if (ndjson) {
+                    writer.write('\n');
+                }
+                if (flushInterval > 0) {
+                    long now = System.nanoTime();
+                    if (now - lastFlush >= intervalNanos) {
+                        writer.flushNow();
+                        lastFlush = now;
+                    }
+                }
+            }
+            if (!ndjson) {
+                writer.write(']');
+            }
+        }
+        finally {
+            close(ret);
+        }
+    }
+
+    /**
+     * Collect elements into list and close the result.
+     */
+    static List<Object> toList(Object ret) {
+        try {
+            List<Object> list = new ArrayList<Object>();
+            for (Iterator<?> it = iterator(ret); it.hasNext(); ) {
+                list.add(it.next());
+            }
+            return list;
+        }
+        finally {
+            close(ret);
+        }
+    }
+
+    static Iterator<?> iterator(Object ret) {
+        if (ret instanceof BaseStream) {
+            return ((BaseStream<?, ?>) ret).iterator();
+        }
+        if (ret instanceof Iterator) {
+            return (Iterator<?>) ret;
+        }
+        return ((Iterable<?>) ret).iterator();
+    }
+
+    static void close(Object ret) {
+        if (ret instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) ret).close();
+            }
+            catch (Exception e) {
+                log.warn("Close stream result failed.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.itranswarp.jxrest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Lock-free latency histogram in nanoseconds. Values are counted in log-linear
+ * buckets (each power of 2 is split into 8 sub buckets, so the relative error
+ * is within 12.5%) like HdrHistogram. Counters are striped by thread to avoid
+ * contention, and are allocated when the first value is recorded.
+ *
+ * @author Michael Liao
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BITS = 3;
+    static final int SUB_COUNT = 1 << SUB_BITS;
+    // values larger than 2^36 ns (about 68 seconds) are counted in last bucket:
+    static final int MAX_EXP = 36;
+    static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB_COUNT;
+
+    // each stripe has counters of buckets, then sum and max, then padding:
+    static final int SUM_OFFSET = BUCKETS;
+    static final int MAX_OFFSET = BUCKETS + 1;
+    static final int STRIPE_SIZE = BUCKETS + 2 + 8;
+    static final int STRIPES = stripes();
+
+    static final AtomicReferenceFieldUpdater<LatencyHistogram, AtomicLongArray> COUNTERS_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(LatencyHistogram.class, AtomicLongArray.class, "counters");
+
+    volatile AtomicLongArray counters = null;
+
+    static int stripes() {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() && n < 8) {
+            n = n << 1;
+        }
+        return n;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_COUNT) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        if (exp > MAX_EXP) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Get the highest value counted in bucket.
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lower = ((long) (SUB_COUNT + index % SUB_COUNT)) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Record a latency value.
+     * 
+     * @param nanos Latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        AtomicLongArray c = this.counters;
+        if (c == null) {
+            COUNTERS_UPDATER.compareAndSet(this, null, new AtomicLongArray(STRIPES * STRIPE_SIZE));
+            c = this.counters;
+        }
+        int base = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_SIZE;
+        c.incrementAndGet(base + bucketIndex(nanos));
+        c.addAndGet(base + SUM_OFFSET, nanos);
+        long max;
+        while (nanos > (max = c.get(base + MAX_OFFSET))) {
+            if (c.compareAndSet(base + MAX_OFFSET, max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Merge counters of all stripes into buckets, followed by sum and max.
+     */
+    long[] merge() {
+        long[] result = new long[BUCKETS + 2];
+        AtomicLongArray c = this.counters;
+        if (c == null) {
+            return result;
+        }
+        for (int s = 0; s < STRIPES; s++) {
+            int base = s * STRIPE_SIZE;
+            for (int i = 0; i < BUCKETS; i++) {
+                result[i] += c.get(base + i);
+            }
+            result[SUM_OFFSET] += c.get(base + SUM_OFFSET);
+            result[MAX_OFFSET] = Math.max(result[MAX_OFFSET], c.get(base + MAX_OFFSET));
+        }
+        return result;
+    }
+
+    public long getCount() {
+        return count(merge());
+    }
+
+    public long getMax() {
+        return merge()[MAX_OFFSET];
+    }
+
+    public double getMean() {
+        long[] data = merge();
+        long count = count(data);
+        return count == 0 ? 0.0 : (double) data[SUM_OFFSET] / count;
+    }
+
+    /**
+     * Get value at percentile.
+     * 
+     * @param percentile Percentile between 0 and 100, e.g. 99.9.
+     * @return Latency in nanoseconds, within 12.5% of the real value.
+     */
+    public long getPercentile(double percentile) {
+        return percentile(merge(), percentile);
+    }
+
+    static long count(long[] data) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += data[i];
+        }
+        return count;
+    }
+
+    static long percentile(long[] data, double percentile) {
+        long count = count(data);
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += data[i];
+            if (n >= target) {
+                return Math.min(bucketUpperBound(i), data[MAX_OFFSET]);
+            }
+        }
+        return data[MAX_OFFSET];
+    }
+
+    /**
+     * Summary as map like {"count": 10, "mean": 1200, "p50": 1000, ...} in nanoseconds.
+     */
+    Map<String, Object> toMap() {
+        long[] data = merge();
+        long count = count(data);
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("count", count);
+        map.put("mean", count == 0 ? 0L : data[SUM_OFFSET] / count);
+        map.put("p50", percentile(data, 50));
+        map.put("p90", percentile(data, 90));
+        map.put("p99", percentile(data, 99));
+        map.put("p999", percentile(data, 99.9));
+        map.put("max", data[MAX_OFFSET]);
+        return map;
+    }
+}
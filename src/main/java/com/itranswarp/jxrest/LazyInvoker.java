@@ -0,0 +1,63 @@
+package com.itranswarp.jxrest;
+
+import java.lang.reflect.Method;
+
+/**
+ * Invoke handler method of handler which is created on first call.
+ *
+ * @author Michael Liao
+ */
+class LazyInvoker extends Invoker {
+
+    final HandlerHolder holder;
+    final Method handlerMethod;
+    volatile Invoker delegate = null;
+
+    LazyInvoker(HandlerHolder holder, Method handlerMethod) {
+        this.holder = holder;
+        this.handlerMethod = handlerMethod;
+    }
+
+    /**
+     * Get invoker bound to handler instance, and create handler if necessary.
+     */
+    Invoker delegate() {
+        Invoker d = this.delegate;
+        if (d == null) {
+            // racing threads create invokers bound to the same handler:
+            d = Invoker.create(holder.get(), handlerMethod);
+            this.delegate = d;
+        }
+        return d;
+    }
+
+    @Override
+    Object invoke(Object[] args) throws Exception {
+        return delegate().invoke(args);
+    }
+
+    @Override
+    Object invoke0() throws Exception {
+        return delegate().invoke0();
+    }
+
+    @Override
+    Object invoke1(Object a0) throws Exception {
+        return delegate().invoke1(a0);
+    }
+
+    @Override
+    Object invoke2(Object a0, Object a1) throws Exception {
+        return delegate().invoke2(a0, a1);
+    }
+
+    @Override
+    Object invoke3(Object a0, Object a1, Object a2) throws Exception {
+        return delegate().invoke3(a0, a1, a2);
+    }
+
+    @Override
+    Object invoke4(Object a0, Object a1, Object a2, Object a3) throws Exception {
+        return delegate().invoke4(a0, a1, a2, a3);
+    }
+}
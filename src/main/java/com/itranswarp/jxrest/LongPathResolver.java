@@ -0,0 +1,23 @@
+package com.itranswarp.jxrest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Resolve long path variable from path without substring.
+ * 
+ * @author Michael Liao
+ */
+class LongPathResolver implements ArgumentResolver {
+
+    final int start;
+
+    LongPathResolver(int pathIndex) {
+        this.start = pathIndex + pathIndex;
+    }
+
+    @Override
+    public Object resolve(String path, int[] captures, JsonCallback jsonCallback, HttpServletRequest request, HttpServletResponse response) {
+        return Utils.parseLong(path, captures[start], captures[start + 1]);
+    }
+}
@@ -0,0 +1,468 @@
+package com.itranswarp.jxrest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Process API request by non-blocking I/O of Servlet 3.1. The request body is
+ * read by ReadListener before calling handler method, and the JSON response is
+ * written by WriteListener, so slow clients do not hold container threads.
+ *
+ * Reading the body and writing the response have no timeout, so uploads and
+ * downloads of slow clients are not cut off. The async timeout only applies
+ * while waiting for the handler method or its CompletionStage result.
+ *
+ * @author Michael Liao
+ */
+class NonBlockingApiRequest implements ReadListener, AsyncListener {
+
+    static final Log log = LogFactory.getLog(NonBlockingApiRequest.class);
+
+    // max size of byte array supported by most JVMs:
+    static final int MAX_BODY_ARRAY = Integer.MAX_VALUE - 8;
+
+    final RestApiHandler handler;
+    final HttpServletRequest request;
+    final HttpServletResponse response;
+    final String method;
+    final RouteMatch match;
+    // metrics of route, or null if metrics is disabled:
+    final RouteMetrics metrics;
+    // set when response is started, either by result or timeout:
+    final AtomicBoolean responded = new AtomicBoolean(false);
+    // pending result returned by handler:
+    volatile CompletableFuture<?> future = null;
+    // timeout of handler, scheduled when handler is called:
+    volatile ScheduledFuture<?> timeout = null;
+
+    AsyncContext ctx;
+    ServletInputStream input;
+    byte[] body = null;
+    int bodyLength = 0;
+    long parsedNanos = 0;
+
+    NonBlockingApiRequest(RestApiHandler handler, HttpServletRequest request, HttpServletResponse response, String method, RouteMatch match) {
+        this.handler = handler;
+        this.request = request;
+        this.response = response;
+        this.method = method;
+        this.match = match;
+        this.metrics = handler.metricsEnabled ? match.callable.metrics : null;
+    }
+
+    void start() throws IOException {
+        this.ctx = request.startAsync(request, response);
+        // no timeout of container when reading and writing, and the timeout of
+        // handler is scheduled by invoke():
+        this.ctx.setTimeout(0);
+        this.ctx.addListener(this);
+        if ("GET".equals(method) || request.getContentLengthLong() == 0) {
+            invoke();
+            return;
+        }
+        long contentLength = request.getContentLengthLong();
+        if (contentLength > MAX_BODY_ARRAY) {
+            sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Request body is too large.");
+            return;
+        }
+        int initialSize = contentLength > 0 ? (int) contentLength : 8192;
+        this.body = new byte[initialSize];
+        this.input = request.getInputStream();
+        this.input.setReadListener(this);
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+        while (!responded.get() && input.isReady()) {
+            if (bodyLength == body.length) {
+                if (bodyLength == MAX_BODY_ARRAY) {
+                    sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Request body is too large.");
+                    return;
+                }
+                // grow at most to maxRequestBodySize + 1 to detect too large body:
+                long limit = handler.maxRequestBodySize >= MAX_BODY_ARRAY ? MAX_BODY_ARRAY : handler.maxRequestBodySize + 1;
+                body = Arrays.copyOf(body, (int) Math.min(limit, body.length * 2L));
+            }
+            int n = input.read(body, bodyLength, body.length - bodyLength);
+            if (n == (-1)) {
+                return;
+            }
+            bodyLength += n;
+            if (bodyLength > handler.maxRequestBodySize) {
+                sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Request body is too large.");
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onAllDataRead() throws IOException {
+        invoke();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        log.warn("Read request body failed.", t);
+        if (respond()) {
+            cancelFuture();
+            ctx.complete();
+        }
+    }
+
+    /**
+     * Cancel pending result of handler, which releases the permit of route.
+     */
+    void cancelFuture() {
+        CompletableFuture<?> f = this.future;
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
+    /**
+     * Mark as responded and cancel timeout.
+     * 
+     * @return True if not responded before.
+     */
+    boolean respond() {
+        if (!responded.compareAndSet(false, true)) {
+            return false;
+        }
+        ScheduledFuture<?> t = this.timeout;
+        if (t != null) {
+            t.cancel(false);
+        }
+        return true;
+    }
+
+    void invoke() throws IOException {
+        // already responded by error or timeout, and body may be truncated:
+        if (responded.get()) {
+            return;
+        }
+        if (handler.asyncTimeout > 0) {
+            this.timeout = handler.timer().schedule(() -> {
+                try {
+                    timeout();
+                }
+                catch (Exception e) {
+                    log.warn("Send timeout response failed.", e);
+                }
+            }, handler.asyncTimeout, TimeUnit.MILLISECONDS);
+        }
+        Executor executor = handler.executor;
+        if (executor == null) {
+            invokeApi();
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                invokeApi();
+            });
+        }
+        catch (RejectedExecutionException e) {
+            log.warn("Executor rejected request: " + request.getRequestURI());
+            sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Service unavailable.");
+        }
+    }
+
+    void invokeApi() {
+        Semaphore limiter = match.callable.limiter;
+        boolean acquired = false;
+        RestContext.initRestContext(request, response);
+        try {
+            if (limiter != null) {
+                // wait for permit only if running on executor:
+                acquired = limiter.tryAcquire(handler.executor == null ? 0 : handler.asyncTimeout, TimeUnit.MILLISECONDS);
+                if (!acquired) {
+                    log.warn("Too many concurrent requests: " + method + " " + match.callable.path);
+                    sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many requests.");
+                    return;
+                }
+            }
+            JsonCallback jsonCallback = null;
+            if (!"GET".equals(method)) {
+                jsonCallback = (Class<?> type) -> {
+                    return parseBody(type);
+                };
+            }
+            long start = metrics == null ? 0L : System.nanoTime();
+            Object ret = match.call(jsonCallback, request, response);
+            if (metrics != null) {
+                metrics.invoking.record(System.nanoTime() - start - parsedNanos);
+            }
+            if (ret instanceof CompletionStage) {
+                CompletableFuture<?> f = this.future = ((CompletionStage<?>) ret).toCompletableFuture();
+                if (acquired) {
+                    // hold permit until completed, or cancelled by timeout:
+                    acquired = false;
+                    f.whenComplete((result, err) -> {
+                        limiter.release();
+                    });
+                }
+                if (responded.get()) {
+                    // timeout before future is set:
+                    f.cancel(false);
+                }
+                f.whenComplete((result, err) -> {
+                    if (err == null) {
+                        sendResult(result);
+                    }
+                    else {
+                        sendException(handler.unwrapAsyncException(err));
+                    }
+                });
+            }
+            else {
+                sendResult(ret);
+            }
+        }
+        catch (Exception e) {
+            sendException(e);
+        }
+        finally {
+            RestContext.destroyRestContext();
+            if (acquired) {
+                limiter.release();
+            }
+        }
+    }
+
+    Object parseBody(Class<?> type) throws IOException {
+        if (body == null) {
+            body = new byte[0];
+        }
+        long start = metrics == null ? 0L : System.nanoTime();
+        try {
+            String encoding = request.getCharacterEncoding();
+            int contentEncoding = Compression.parseContentEncoding(request.getHeader("Content-Encoding"));
+            if (contentEncoding > 0) {
+                InputStream input = new InflatingInputStream(new ByteArrayInputStream(body, 0, bodyLength), handler.inflaters, contentEncoding, handler.maxRequestBodySize);
+                byte[] buffer = handler.requestBuffers.acquire();
+                Reader reader = (encoding == null || "UTF-8".equalsIgnoreCase(encoding))
+                        ? new Utf8Reader(input, buffer, -1, handler.maxRequestBodySize)
+                        : new InputStreamReader(input, encoding);
+                try {
+                    return handler.jsonBuilder.createReader(reader).parse(type);
+                }
+                finally {
+                    reader.close();
+                    handler.requestBuffers.release(buffer);
+                }
+            }
+            Reader reader = (encoding == null || "UTF-8".equalsIgnoreCase(encoding))
+                    ? new Utf8Reader(body, bodyLength)
+                    : new InputStreamReader(new ByteArrayInputStream(body, 0, bodyLength), encoding);
+            return handler.jsonBuilder.createReader(reader).parse(type);
+        }
+        finally {
+            if (metrics != null) {
+                long nanos = System.nanoTime() - start;
+                parsedNanos += nanos;
+                metrics.parsing.record(nanos);
+            }
+        }
+    }
+
+    void sendResult(Object ret) {
+        if (!respond()) {
+            return;
+        }
+        try {
+            if (ret instanceof Void) {
+                ctx.complete();
+                return;
+            }
+            if (handler.closeHeadStream(request, response, ret)) {
+                handler.recordStatus(metrics, response.getStatus());
+                ctx.complete();
+                return;
+            }
+            // serialize before sending, so that handler is not called when writing:
+            long start = metrics == null ? 0L : System.nanoTime();
+            BodyOutputStream bodyOutput = handler.toJsonBytes(ret);
+            if (metrics != null) {
+                metrics.serializing.record(System.nanoTime() - start);
+            }
+            byte[] data = bodyOutput.array();
+            int length = bodyOutput.size();
+            if (match.callable.cacheTtl > 0) {
+                CacheEntry entry = handler.putCacheEntry(request, match, bodyOutput);
+                data = handler.prepareCacheEntry(request, response, entry);
+                if (data == null) {
+                    handler.recordStatus(metrics, HttpServletResponse.SC_NOT_MODIFIED);
+                    ctx.complete();
+                    return;
+                }
+                length = data.length;
+            }
+            else {
+                Compression compression = handler.compression;
+                if (compression != null) {
+                    response.addHeader("Vary", "Accept-Encoding");
+                    int encoding = length >= compression.threshold ? Compression.negotiate(request.getHeader("Accept-Encoding")) : Compression.NONE;
+                    if (encoding != Compression.NONE) {
+                        data = compression.compress(data, 0, length, encoding);
+                        length = data.length;
+                        response.setHeader("Content-Encoding", Compression.ENCODINGS[encoding]);
+                    }
+                }
+                response.setCharacterEncoding("UTF-8");
+                response.setContentType("application/json");
+                response.setContentLength(length);
+            }
+            handler.recordStatus(metrics, response.getStatus());
+            ServletOutputStream output = response.getOutputStream();
+            output.setWriteListener(new BodyWriteListener(ctx, output, data, length));
+        }
+        catch (Exception e) {
+            log.error("Send response failed.", e);
+            ctx.complete();
+        }
+    }
+
+    void sendException(Exception e) {
+        if (!respond()) {
+            return;
+        }
+        try {
+            handler.sendException(request, response, e, metrics);
+        }
+        catch (Exception ex) {
+            log.error("Send error response failed.", ex);
+        }
+        finally {
+            ctx.complete();
+        }
+    }
+
+    void sendError(int status, String message) throws IOException {
+        if (respond()) {
+            try {
+                response.sendError(status, message);
+                handler.recordStatus(metrics, status);
+            }
+            finally {
+                ctx.complete();
+            }
+        }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+        timeout();
+    }
+
+    /**
+     * Send 503 if handler is not completed in time.
+     */
+    void timeout() throws IOException {
+        if (respond()) {
+            cancelFuture();
+            try {
+                handler.processAsyncTimeout(request, response);
+                handler.recordStatus(metrics, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+            finally {
+                ctx.complete();
+            }
+        }
+    }
+
+    @Override
+    public void onError(AsyncEvent event) throws IOException {
+        onError(event.getThrowable());
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) throws IOException {
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) throws IOException {
+    }
+
+    /**
+     * ByteArrayOutputStream which exposes its buffer without copy.
+     */
+    static class BodyOutputStream extends ByteArrayOutputStream {
+
+        BodyOutputStream() {
+            super(8192);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
+
+/**
+ * Write bytes whenever the output stream is ready.
+ *
+ * @author Michael Liao
+ */
+class BodyWriteListener implements WriteListener {
+
+    static final Log log = LogFactory.getLog(BodyWriteListener.class);
+
+    static final int CHUNK_SIZE = 8192;
+
+    final AsyncContext ctx;
+    final ServletOutputStream output;
+    final byte[] data;
+    final int length;
+    int pos = 0;
+
+    BodyWriteListener(AsyncContext ctx, ServletOutputStream output, byte[] data, int length) {
+        this.ctx = ctx;
+        this.output = output;
+        this.data = data;
+        this.length = length;
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (output.isReady()) {
+            if (pos == length) {
+                ctx.complete();
+                return;
+            }
+            int n = Math.min(CHUNK_SIZE, length - pos);
+            output.write(data, pos, n);
+            pos += n;
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        log.warn("Write response failed.", t);
+        ctx.complete();
+    }
+}
@@ -0,0 +1,17 @@
+package com.itranswarp.jxrest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a PATCH request of REST API.
+ * 
+ * @author Michael Liao
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface PATCH {
+
+}
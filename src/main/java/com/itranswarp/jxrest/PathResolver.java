@@ -0,0 +1,25 @@
+package com.itranswarp.jxrest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Resolve path variable by converter.
+ * 
+ * @author Michael Liao
+ */
+class PathResolver implements ArgumentResolver {
+
+    final int start;
+    final Converter<?> converter;
+
+    PathResolver(int pathIndex, Converter<?> converter) {
+        this.start = pathIndex + pathIndex;
+        this.converter = converter;
+    }
+
+    @Override
+    public Object resolve(String path, int[] captures, JsonCallback jsonCallback, HttpServletRequest request, HttpServletResponse response) {
+        return converter.convert(path.substring(captures[start], captures[start + 1]));
+    }
+}
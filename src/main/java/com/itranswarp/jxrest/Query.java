@@ -0,0 +1,42 @@
+package com.itranswarp.jxrest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Bind a query parameter to argument of handler method, converted by the same
+ * converters of path variables. For example:
+ * 
+ * <code>
+ * List&lt;User&gt; getUsers(@Query("page") int page, @Query(value = "limit", defaultValue = "20") int limit)
+ * </code>
+ * 
+ * @author Michael Liao
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Query {
+
+    /**
+     * Mark no default value.
+     */
+    String NO_DEFAULT = "\u0000";
+
+    /**
+     * Name of query parameter, or "" to use name of argument.
+     * 
+     * @return Name of query parameter.
+     */
+    String value() default "";
+
+    /**
+     * Default value if query parameter is missing or empty. Without default
+     * value, a missing parameter is null, or an error of primitive type.
+     * 
+     * @return Default value as string.
+     */
+    String defaultValue() default NO_DEFAULT;
+
+}
@@ -0,0 +1,69 @@
+package com.itranswarp.jxrest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Resolve query parameter from raw query string without building parameter
+ * map. Int and long values without escaped chars are parsed without substring.
+ * 
+ * @author Michael Liao
+ */
+class QueryResolver implements ArgumentResolver {
+
+    final String name;
+    final Converter<?> converter;
+    // converted default value, or null:
+    final Object defaultValue;
+    // is missing parameter an error:
+    final boolean required;
+
+    QueryResolver(String name, Converter<?> converter, Object defaultValue, boolean required) {
+        this.name = name;
+        this.converter = converter;
+        this.defaultValue = defaultValue;
+        this.required = required;
+    }
+
+    @Override
+    public Object resolve(String path, int[] captures, JsonCallback jsonCallback, HttpServletRequest request, HttpServletResponse response) {
+        String query = request.getQueryString();
+        long range = Utils.findQuery(query, name);
+        int start = (int) (range >> 32);
+        int end = (int) range;
+        if (range == (-1) || start == end) {
+            if (required && defaultValue == null) {
+                throw new ApiException("query:missing", name, "Missing query parameter.");
+            }
+            return defaultValue;
+        }
+        try {
+            if (!isEscaped(query, start, end)) {
+                if (converter == Converters.INT_CONVERTER) {
+                    return Utils.parseInt(query, start, end);
+                }
+                if (converter == Converters.LONG_CONVERTER) {
+                    return Utils.parseLong(query, start, end);
+                }
+                return converter.convert(query.substring(start, end));
+            }
+            return converter.convert(Utils.urlDecode(query.substring(start, end)));
+        }
+        catch (ApiException e) {
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw new ApiException("query:invalid", name, "Invalid query parameter.");
+        }
+    }
+
+    static boolean isEscaped(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch == '%' || ch == '+') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,71 @@
+package com.itranswarp.jxrest;
+
+import java.util.Map;
+
+/**
+ * Immutable open-addressing table which looks up a region of string as key
+ * without substring.
+ *
+ * @author Michael Liao
+ */
+class RegionMap<V> {
+
+    final String[] keys;
+    final Object[] values;
+    final int mask;
+
+    RegionMap(Map<String, V> map) {
+        int size = 2;
+        while (size < map.size() * 2) {
+            size = size << 1;
+        }
+        String[] keys = new String[size];
+        Object[] values = new Object[size];
+        int mask = size - 1;
+        for (Map.Entry<String, V> entry : map.entrySet()) {
+            String key = entry.getKey();
+            int i = spread(key.hashCode()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = entry.getValue();
+        }
+        this.keys = map.isEmpty() ? new String[0] : keys;
+        this.values = values;
+        this.mask = mask;
+    }
+
+    /**
+     * Get value by key which equals to str.substring(start, end).
+     *
+     * @return Value, or null if not found.
+     */
+    @SuppressWarnings("unchecked")
+    V get(String str, int start, int end) {
+        if (keys.length == 0) {
+            return null;
+        }
+        // same as String.hashCode() of str.substring(start, end):
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + str.charAt(i);
+        }
+        int len = end - start;
+        int i = spread(h) & mask;
+        for (;;) {
+            String key = keys[i];
+            if (key == null) {
+                return null;
+            }
+            if (key.length() == len && str.regionMatches(start, key, 0, len)) {
+                return (V) values[i];
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,12 @@
+package com.itranswarp.jxrest;
+
+/**
+ * Internal use only.
+ * 
+ * @author Michael Liao
+ */
+class RequestTooLargeException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+}
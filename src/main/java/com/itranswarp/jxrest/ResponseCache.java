@@ -0,0 +1,170 @@
+package com.itranswarp.jxrest;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of serialized JSON responses, bounded by total bytes of
+ * bodies including their compressed copies. Each entry expires after the ttl
+ * of its route.
+ * 
+ * Lookups are lock-free. When the cache is full, the least recently used entry
+ * among a few sampled entries is evicted, which approximates LRU.
+ *
+ * @author Michael Liao
+ */
+class ResponseCache {
+
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // number of entries sampled for each eviction:
+    static final int SAMPLES = 8;
+
+    final long maxBytes;
+    final ConcurrentHashMap<CacheKey, CacheEntry> map = new ConcurrentHashMap<CacheKey, CacheEntry>(256);
+    final AtomicLong bytes = new AtomicLong();
+
+    // continue sampling where the last eviction stopped, guarded by this:
+    Iterator<Map.Entry<CacheKey, CacheEntry>> cursor = null;
+
+    ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    CacheEntry get(CacheKey key) {
+        CacheEntry entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            remove(key, entry);
+            return null;
+        }
+        entry.accessed = System.nanoTime();
+        return entry;
+    }
+
+    /**
+     * Put response body into cache.
+     * 
+     * @return The cached entry, or null if body is larger than cache.
+     */
+    CacheEntry put(CacheKey key, byte[] body, long ttl) {
+        if (body.length > maxBytes) {
+            return null;
+        }
+        CacheEntry entry = new CacheEntry(this, body, etag(body), System.currentTimeMillis() + ttl);
+        bytes.addAndGet(body.length);
+        CacheEntry old = map.put(key, entry);
+        if (old != null) {
+            bytes.addAndGet(-old.release());
+        }
+        evict();
+        return entry;
+    }
+
+    /**
+     * Count compressed copy of body stored in entry.
+     */
+    void added(CacheEntry entry, int length) {
+        if (entry.account(length)) {
+            bytes.addAndGet(length);
+            evict();
+        }
+    }
+
+    void remove(CacheKey key, CacheEntry entry) {
+        if (map.remove(key, entry)) {
+            bytes.addAndGet(-entry.release());
+        }
+    }
+
+    /**
+     * Evict expired or least recently used entries until the cache is not
+     * larger than max bytes.
+     */
+    void evict() {
+        if (bytes.get() <= maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            while (bytes.get() > maxBytes && !map.isEmpty()) {
+                long now = System.currentTimeMillis();
+                Map.Entry<CacheKey, CacheEntry> victim = null;
+                for (int i = 0; i < SAMPLES; i++) {
+                    if (cursor == null || !cursor.hasNext()) {
+                        cursor = map.entrySet().iterator();
+                        if (!cursor.hasNext()) {
+                            break;
+                        }
+                    }
+                    Map.Entry<CacheKey, CacheEntry> e = cursor.next();
+                    if (e.getValue().expires < now) {
+                        victim = e;
+                        break;
+                    }
+                    if (victim == null || e.getValue().accessed < victim.getValue().accessed) {
+                        victim = e;
+                    }
+                }
+                if (victim != null) {
+                    remove(victim.getKey(), victim.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove entries which matches route template and request path. Null
+     * matches any.
+     */
+    void invalidate(String route, String path) {
+        for (Map.Entry<CacheKey, CacheEntry> e : map.entrySet()) {
+            CacheKey key = e.getKey();
+            if ((route == null || route.equals(key.route)) && (path == null || path.equals(key.path))) {
+                remove(key, e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Compute strong ETag from response body.
+     */
+    static String etag(byte[] body) {
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(body);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        char[] cs = new char[34];
+        cs[0] = '\"';
+        for (int i = 0; i < 16; i++) {
+            cs[i + i + 1] = HEX[(hash[i] >> 4) & 0xf];
+            cs[i + i + 2] = HEX[hash[i] & 0xf];
+        }
+        cs[33] = '\"';
+        return new String(cs);
+    }
+
+    /**
+     * Is the ETag matched by value of If-None-Match header?
+     */
+    static boolean matchesIfNoneMatch(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String s : ifNoneMatch.split(",")) {
+            s = s.trim();
+            if (s.equals("*") || s.equals(etag) || (s.startsWith("W/") && s.substring(2).equals(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
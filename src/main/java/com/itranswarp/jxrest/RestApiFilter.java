@@ -1,7 +1,6 @@
 package com.itranswarp.jxrest;
 
 import java.io.IOException;
-import java.util.stream.Stream;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -59,35 +58,32 @@ public class RestApiFilter implements Filter {
             this.handler = new RestApiHandler();
         }
         setUrlPrefix(config.getInitParameter("urlPrefix"));
-        String handlers = config.getInitParameter("handlers");
-        if (handlers != null) {
-            Stream.of(handlers.split("\\,")).map((s) -> {
-                return s.trim();
-            }).filter((s) -> {
-                return !s.isEmpty();
-            }).forEach((s) -> {
-                this.handler.findHandlers(s);
-            });
-        }
+        this.handler.configure((name) -> {
+            return config.getInitParameter(name);
+        });
     }
 
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
         HttpServletRequest req = (HttpServletRequest) request;
         HttpServletResponse resp = (HttpServletResponse) response;
         String path = req.getRequestURI();
-        if (path.startsWith(this.urlPrefix)) {
-            String apiUrl = path.substring(this.urlPrefix.length());
-            if (apiUrl.startsWith("/")) {
-                log.info("Process API request: " + apiUrl);
-                this.handler.processApi(req, resp, req.getMethod(), apiUrl);
-                return;
+        int offset = this.urlPrefix.length();
+        // match API path by offset without substring:
+        if (path.startsWith(this.urlPrefix) && path.length() > offset && path.charAt(offset) == '/') {
+            if (log.isDebugEnabled()) {
+                log.debug("Process API request: " + path.substring(offset));
             }
+            this.handler.processApi(req, resp, path, offset);
+            return;
         }
         chain.doFilter(request, response);
     }
 
     public void destroy() {
         log.info("Destroy RestApiFilter...");
+        if (this.handler != null) {
+            this.handler.destroy();
+        }
     }
 
 }
@@ -1,12 +1,45 @@
 package com.itranswarp.jxrest;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.Writer;
+import java.io.StringReader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.zip.ZipException;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -25,69 +58,1063 @@ public class RestApiHandler {
 
     Log log = LogFactory.getLog(getClass());
 
+    // sample values of path variables to warm up routes:
+    static final String[] SAMPLE_VALUES = { "1", "true", "00000000-0000-0000-0000-000000000001", "2000-01-01", "warmup" };
+
+    // response buffer must hold a few UTF-8 encoded chars:
+    static final int MIN_RESPONSE_BUFFER_SIZE = 256;
+
     Routes routes = new Routes();
     JsonBuilder jsonBuilder = new JsonBuilder();
+    BufferPool requestBuffers = new BufferPool(8192, 256);
+    BufferPool responseBuffers = new BufferPool(8192, 256);
+    InflaterPool inflaters = new InflaterPool(64);
+    long maxRequestBodySize = 10 * 1024 * 1024;
+    long asyncTimeout = 30000;
+    long streamFlushInterval = 200;
+    Executor executor = null;
+    boolean nonBlockingIO = false;
+    boolean metricsEnabled = false;
+    final LongAdder notFound = new LongAdder();
+    volatile AccessLog accessLog = null;
+    ResponseCache responseCache = new ResponseCache(16 * 1024 * 1024);
+    Compression compression = null;
+    BatchProcessor batch = null;
+    CorsPolicy cors = null;
+    File handlerIndex = null;
+    // timer of async timeout of non-blocking requests, created on first use:
+    volatile ScheduledExecutorService timer = null;
+    boolean lazyHandlers = false;
+    // callables added by addHandler(Class) while setHandlers() is running:
+    List<Callable> pendingCallables = null;
+    // names passed to setHandlers() and classes scanned for findHandlers():
+    List<String> pendingNames = null;
+    Map<String, List<Class<?>>> scannedHandlers = null;
+
+    /**
+     * Configure handler by init parameters of RestApiFilter or RestApiServlet,
+     * and add handlers.
+     * 
+     * @param initParam Function to get init parameter by name, which returns
+     *        null if parameter is not set.
+     * @throws ServletException If any parameter is invalid.
+     */
+    public void configure(Function<String, String> initParam) throws ServletException {
+        String accessLog = initParam.apply("accessLog");
+        if (accessLog != null) {
+            double sampleRate = doubleParam(initParam, "accessLogSampleRate", 1.0);
+            try {
+                setAccessLog(accessLog.trim(), sampleRate);
+            }
+            catch (IOException e) {
+                throw new ServletException("Cannot open access log: " + accessLog, e);
+            }
+        }
+        if (initParam.apply("compressionThreshold") != null) {
+            setCompressionThreshold(intParam(initParam, "compressionThreshold", 0));
+        }
+        if ("true".equals(initParam.apply("metrics"))) {
+            setMetricsEnabled(true);
+        }
+        String batchPath = initParam.apply("batchPath");
+        if (batchPath != null) {
+            setBatch(batchPath.trim(), intParam(initParam, "batchParallelism", 8), intParam(initParam, "batchMaxItems", 100));
+        }
+        String corsOrigins = initParam.apply("corsOrigins");
+        if (corsOrigins != null) {
+            String corsHeaders = initParam.apply("corsHeaders");
+            setCors(Utils.splitList(corsOrigins), Utils.splitList(corsHeaders == null ? "Content-Type" : corsHeaders),
+                    longParam(initParam, "corsMaxAge", 600), "true".equals(initParam.apply("corsCredentials")));
+        }
+        if ("true".equals(initParam.apply("nonBlockingIO"))) {
+            setNonBlockingIO(true);
+        }
+        if ("true".equals(initParam.apply("virtualThreads"))) {
+            useVirtualThreads();
+        }
+        if (initParam.apply("maxConcurrentRequests") != null) {
+            setMaxConcurrentRequests(intParam(initParam, "maxConcurrentRequests", 0));
+        }
+        if ("true".equals(initParam.apply("lazyHandlers"))) {
+            setLazyHandlers(true);
+        }
+        if ("true".equals(initParam.apply("generatedHandlers"))) {
+            addGeneratedHandlers();
+        }
+        setHandlerIndex(initParam.apply("handlerIndex"));
+        String handlers = initParam.apply("handlers");
+        if (handlers != null) {
+            setHandlers(Utils.splitList(handlers));
+        }
+        if (initParam.apply("warmUp") != null) {
+            warmUp(intParam(initParam, "warmUp", 0));
+        }
+    }
+
+    static int intParam(Function<String, String> initParam, String name, int defaultValue) throws ServletException {
+        return param(initParam, name, defaultValue, (s) -> {
+            return Integer.valueOf(s);
+        });
+    }
+
+    static long longParam(Function<String, String> initParam, String name, long defaultValue) throws ServletException {
+        return param(initParam, name, defaultValue, (s) -> {
+            return Long.valueOf(s);
+        });
+    }
+
+    static double doubleParam(Function<String, String> initParam, String name, double defaultValue) throws ServletException {
+        return param(initParam, name, defaultValue, (s) -> {
+            return Double.valueOf(s);
+        });
+    }
+
+    /**
+     * Parse init parameter, or return default value if parameter is not set.
+     * 
+     * @throws ServletException If parameter is not a valid number.
+     */
+    static <T> T param(Function<String, String> initParam, String name, T defaultValue, Function<String, T> parser) throws ServletException {
+        String value = initParam.apply(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return parser.apply(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new ServletException("Invalid init parameter " + name + ": " + value);
+        }
+    }
 
     public void setJsonBuilder(JsonBuilder jsonBuilder) {
         this.jsonBuilder = jsonBuilder;
     }
 
+    /**
+     * Register converter to support custom type of path variable. Converters
+     * must be registered before handlers are added.
+     * 
+     * @param clazz Type of path variable.
+     * @param converter Converter to convert string to the type.
+     */
+    public <T> void registerConverter(Class<T> clazz, Converter<T> converter) {
+        this.routes.converters.register(clazz, converter);
+    }
+
+    /**
+     * Set buffer size of JSON response. Response body which fits in buffer is
+     * sent with Content-Length, otherwise it is sent as chunked. Default to 8K.
+     * 
+     * @param size Buffer size in bytes, at least 256.
+     */
+    public void setResponseBufferSize(int size) {
+        if (size < MIN_RESPONSE_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Invalid response buffer size: " + size);
+        }
+        this.responseBuffers = new BufferPool(size, 256);
+    }
+
+    /**
+     * Set max size of JSON request body. Request with larger body is rejected
+     * with 413. Default to 10M.
+     * 
+     * @param size Max body size in bytes.
+     */
+    public void setMaxRequestBodySize(long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid max request body size: " + size);
+        }
+        this.maxRequestBodySize = size;
+    }
+
+    /**
+     * Set timeout of handler which returns CompletionStage. Request is
+     * responded with 503 if the result is not completed in time. With
+     * non-blocking I/O, reading body and writing response are not limited by
+     * this timeout. Default to 30s.
+     * 
+     * @param timeout Timeout in milliseconds.
+     */
+    public void setAsyncTimeout(long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Invalid async timeout: " + timeout);
+        }
+        this.asyncTimeout = timeout;
+    }
+
+    /**
+     * Set flush interval of handler method which returns Stream, Iterator or
+     * Iterable. The elements are written to client if interval is passed
+     * since last flush. Set to 0 to flush only when buffer is full. Default
+     * to 200 ms.
+     * 
+     * @param interval Interval in milliseconds.
+     */
+    public void setStreamFlushInterval(long interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Invalid stream flush interval: " + interval);
+        }
+        this.streamFlushInterval = interval;
+    }
+
+    /**
+     * Set executor to call handler methods and send responses. The request is
+     * put into async mode and the container thread is released, so blocking
+     * handler code does not hold container threads. Set to null to call
+     * handler methods on container threads (default).
+     * 
+     * @param executor Executor, or null.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Use non-blocking I/O to read request body and write response. The body
+     * is read into memory before calling handler method, and the response is
+     * serialized into memory before writing, so slow clients do not hold
+     * container threads. Request must support async. Default to false.
+     * 
+     * @param nonBlockingIO True if use non-blocking I/O.
+     */
+    public void setNonBlockingIO(boolean nonBlockingIO) {
+        this.nonBlockingIO = nonBlockingIO;
+    }
+
+    /**
+     * Record metrics of each route, and serve metrics as JSON by GET /_metrics
+     * if no handler is registered for that path. Default to false.
+     * 
+     * @param enabled True if record metrics.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        this.metricsEnabled = enabled;
+    }
+
+    /**
+     * Get metrics of all registered routes.
+     * 
+     * @return List of RouteMetrics.
+     */
+    public List<RouteMetrics> getMetrics() {
+        List<RouteMetrics> list = new ArrayList<RouteMetrics>(this.routes.callables().size());
+        for (Callable c : this.routes.callables()) {
+            list.add(c.metrics);
+        }
+        return list;
+    }
+
+    /**
+     * Get number of requests which did not match any route.
+     */
+    public long getNotFoundRequests() {
+        return this.notFound.sum();
+    }
+
+    /**
+     * Write access log as JSON lines to file, like {"time": "2015-01-01T12:00:00Z",
+     * "method": "GET", "route": "/users/:id", "status": 200, "bytes": 123,
+     * "duration": 456}, where duration is in microseconds. Records are written
+     * by a background thread. Set file to null to disable access log (default).
+     * 
+     * @param file Log file, or null.
+     * @param sampleRate Rate of requests to log, between 0 (exclusive) and 1.
+     */
+    public void setAccessLog(String file, double sampleRate) throws IOException {
+        AccessLog old = this.accessLog;
+        this.accessLog = file == null ? null : new AccessLog(file, sampleRate, 8192);
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * Compress JSON response by gzip or deflate if client accepts. Body smaller
+     * than threshold is not compressed. The threshold only applies to body
+     * which fits in response buffer, and larger body is always compressed.
+     * Set to -1 to disable compression (default).
+     * 
+     * @param threshold Min size in bytes to compress, or -1 to disable.
+     */
+    public void setCompressionThreshold(int threshold) {
+        this.compression = threshold < 0 ? null : new Compression(threshold);
+    }
+
+    /**
+     * Set max total size of responses cached for handler methods annotated by
+     * &#64;Cached, including compressed copies. Default to 16M.
+     * 
+     * @param size Max size in bytes.
+     */
+    public void setResponseCacheSize(long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid response cache size: " + size);
+        }
+        this.responseCache = new ResponseCache(size);
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public void invalidateCache() {
+        this.responseCache.invalidate(null, null);
+    }
+
+    /**
+     * Remove cached responses of a route, e.g. invalidateCache("/users").
+     * 
+     * @param route Route template like "/users/:id".
+     */
+    public void invalidateCache(String route) {
+        this.responseCache.invalidate(route, null);
+    }
+
+    /**
+     * Remove cached responses of a route with request path, e.g.
+     * invalidateCache("/users/:id", "/users/123").
+     * 
+     * @param route Route template like "/users/:id".
+     * @param path Request path like "/users/123".
+     */
+    public void invalidateCache(String route, String path) {
+        this.responseCache.invalidate(route, path);
+    }
+
+    /**
+     * Serve batch request by POST to path, which executes multiple API calls
+     * sent as JSON array like [{"method": "GET", "path": "/users/123"}, ...],
+     * and responds JSON array like [{"status": 200, "body": {...}}, ...].
+     * Consecutive GET calls are executed in parallel. Set path to null to
+     * disable batch (default).
+     * 
+     * @param path Path of batch like "/batch", or null.
+     * @param parallelism Max threads to execute GET calls in parallel.
+     */
+    public void setBatch(String path, int parallelism) {
+        setBatch(path, parallelism, 100);
+    }
+
+    /**
+     * Serve batch request by POST to path, with max number of API calls in
+     * one batch request. Default to 100.
+     * 
+     * @param path Path of batch like "/batch", or null.
+     * @param parallelism Max threads to execute GET calls in parallel.
+     * @param maxItems Max API calls in one batch request.
+     */
+    public void setBatch(String path, int parallelism, int maxItems) {
+        if (path != null && !path.startsWith("/")) {
+            throw new IllegalArgumentException("Invalid batch path: " + path);
+        }
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Invalid batch parallelism: " + parallelism);
+        }
+        if (maxItems <= 0) {
+            throw new IllegalArgumentException("Invalid batch max items: " + maxItems);
+        }
+        BatchProcessor old = this.batch;
+        this.batch = path == null ? null : new BatchProcessor(this, path, parallelism, maxItems);
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * Allow cross-origin requests of all routes. Routes annotated by &#64;Cors
+     * use their own settings. Set origins to null to disable CORS (default).
+     * 
+     * @param origins Allowed origins like "https://www.example.com", or "*" to
+     *        allow any origin, or null.
+     * @param headers Request headers allowed in preflight request.
+     * @param maxAge Seconds to cache preflight response by browser.
+     * @param credentials Allow cookies and authorization headers, which is not
+     *        allowed with origin "*".
+     */
+    public void setCors(List<String> origins, List<String> headers, long maxAge, boolean credentials) {
+        this.cors = origins == null ? null : new CorsPolicy(origins.toArray(new String[origins.size()]), headers.toArray(new String[headers.size()]), maxAge, credentials);
+    }
+
+    /**
+     * Release resources held by this handler.
+     */
+    public void destroy() {
+        AccessLog old = this.accessLog;
+        this.accessLog = null;
+        if (old != null) {
+            old.close();
+        }
+        BatchProcessor batch = this.batch;
+        this.batch = null;
+        if (batch != null) {
+            batch.shutdown();
+        }
+        ScheduledExecutorService timer = this.timer;
+        this.timer = null;
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * Get timer to schedule async timeout of non-blocking requests.
+     */
+    ScheduledExecutorService timer() {
+        ScheduledExecutorService t = this.timer;
+        if (t == null) {
+            synchronized (this) {
+                t = this.timer;
+                if (t == null) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, (Runnable r) -> {
+                        Thread thread = new Thread(r, "jxrest-timer");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    // most timeouts are cancelled when responded:
+                    executor.setRemoveOnCancelPolicy(true);
+                    this.timer = t = executor;
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Call handler methods on virtual threads. Requires Java 21 or later.
+     */
+    public void useVirtualThreads() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            setExecutor((Executor) m.invoke(null));
+            log.info("Use virtual threads to process API.");
+        }
+        catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by current JVM: " + System.getProperty("java.version"));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Set max concurrent requests of each route. Request exceeds the limit
+     * waits up to async timeout if an executor is set, or is responded with
+     * 503 immediately otherwise. A request returns CompletionStage holds its
+     * permit until the stage is completed or timeout. Default to 0 which
+     * means unlimited.
+     * 
+     * @param max Max concurrent requests, or 0 if unlimited.
+     */
+    public void setMaxConcurrentRequests(int max) {
+        this.routes.setMaxConcurrentRequests(max);
+    }
+
+    /**
+     * Set max concurrent requests of the route, which must be added before.
+     * The limit is kept if the route is replaced by replaceHandler().
+     * 
+     * @param httpMethod Http method like "GET".
+     * @param path Path of route like "/users/:id".
+     * @param max Max concurrent requests, or 0 if unlimited.
+     */
+    public void setMaxConcurrentRequests(String httpMethod, String path, int max) {
+        if (this.routes.getCallable(httpMethod, path) == null) {
+            throw new IllegalArgumentException("Route not found: " + httpMethod + " " + path);
+        }
+        this.routes.setMaxConcurrentRequests(httpMethod, path, max);
+    }
+
+    /**
+     * Save class names of handlers found by setHandlers() into index file, and
+     * load handlers from the index without scanning classpath if the file
+     * exists. The index is written again if handler names are changed, or
+     * directories or jars of handler packages are modified. Default to null
+     * which means always scan classpath.
+     * 
+     * @param file Index file, or null.
+     */
+    public void setHandlerIndex(String file) {
+        this.handlerIndex = file == null ? null : new File(file);
+    }
+
+    /**
+     * Add handlers by class names or package names by calling findHandlers()
+     * for each name. All packages are scanned in one pass when findHandlers()
+     * is first called.
+     * 
+     * @param names Class names or package names.
+     */
     public void setHandlers(List<String> names) {
-        for (String name : names) {
-            findHandlers(name);
+        // publish routes of all handlers at once:
+        List<Callable> callables = new ArrayList<Callable>();
+        this.pendingNames = names;
+        this.pendingCallables = callables;
+        try {
+            for (String name : names) {
+                findHandlers(name);
+            }
+        }
+        finally {
+            this.pendingNames = null;
+            this.scannedHandlers = null;
+            this.pendingCallables = null;
+        }
+        routes.update(null, callables);
+    }
+
+    /**
+     * Add handlers with routes generated at compile time by jxrest-processor,
+     * which are listed in META-INF/services/com.itranswarp.jxrest.RouteProvider.
+     * Handler methods are registered and invoked without reflection or
+     * classpath scanning.
+     * 
+     * @return Number of handlers added.
+     */
+    public int addGeneratedHandlers() {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        int n = 0;
+        List<Callable> callables = new ArrayList<Callable>();
+        for (RouteProvider provider : ServiceLoader.load(RouteProvider.class, cl == null ? getClass().getClassLoader() : cl)) {
+            Object handler = provider.newHandler();
+            if (handler == null) {
+                handler = newHandler(provider.handlerClass());
+            }
+            callables.addAll(routes.createCallables(handler, provider));
+            n++;
         }
+        routes.update(null, callables);
+        log.info("Added " + n + " generated handlers.");
+        return n;
     }
 
+    /**
+     * Find handler classes by class name or package name and add them by
+     * addHandler(), which is called by setHandlers() for each name.
+     * 
+     * @param name Class name or package name.
+     */
     protected void findHandlers(String name) {
-        for (Class<?> clazz : new ClassFinder().findClasses(name)) {
+        if (this.pendingNames != null && this.scannedHandlers == null) {
+            try {
+                this.scannedHandlers = scanHandlers(this.pendingNames);
+            }
+            catch (RuntimeException e) {
+                // some names may be handled by subclass, scan each name instead:
+                this.scannedHandlers = Collections.emptyMap();
+            }
+        }
+        Map<String, List<Class<?>>> scanned = this.scannedHandlers;
+        List<Class<?>> classes = scanned == null ? null : scanned.get(name);
+        if (classes == null) {
+            classes = new ClassFinder().findClasses(name);
+        }
+        for (Class<?> clazz : classes) {
             addHandler(clazz);
         }
     }
 
+    /**
+     * Find classes of all names in one pass, or load them from handler index.
+     * 
+     * @return Map of name and classes found by the name.
+     */
+    Map<String, List<Class<?>>> scanHandlers(List<String> names) {
+        String[] args = names.toArray(new String[names.size()]);
+        ClassFinder finder = new ClassFinder();
+        List<Class<?>> classes = this.handlerIndex == null ? finder.findClasses(args) : finder.findClasses(this.handlerIndex, args);
+        Map<String, List<Class<?>>> scanned = new LinkedHashMap<String, List<Class<?>>>();
+        for (String name : names) {
+            scanned.put(name, new ArrayList<Class<?>>());
+        }
+        for (Class<?> clazz : classes) {
+            // class belongs to first name which is the class or its package:
+            for (String name : names) {
+                String className = clazz.getName();
+                if (className.equals(name) || className.startsWith(name + ".")) {
+                    scanned.get(name).add(clazz);
+                    break;
+                }
+            }
+        }
+        return scanned;
+    }
+
+    /**
+     * Create handlers added by class on first call instead of when added, to
+     * start faster. Must be set before handlers are added. Default to false.
+     * 
+     * @param lazy True if create handlers on first call.
+     */
+    public void setLazyHandlers(boolean lazy) {
+        this.lazyHandlers = lazy;
+    }
+
+    /**
+     * Add routes of handler class, which is called by setHandlers() for each
+     * class found.
+     * 
+     * @param clazz Handler class.
+     */
     protected void addHandler(Class<?> clazz) {
+        List<Callable> callables = createCallables(clazz);
+        if (this.pendingCallables != null) {
+            // published by setHandlers() when all classes are added:
+            this.pendingCallables.addAll(callables);
+        }
+        else {
+            routes.update(null, callables);
+        }
+    }
+
+    List<Callable> createCallables(Class<?> clazz) {
+        if (this.lazyHandlers) {
+            return routes.createCallables(clazz, null, new HandlerHolder(clazz, () -> {
+                return newHandler(clazz);
+            }));
+        }
+        return routes.createCallables(clazz, newHandler(clazz), null);
+    }
+
+    /**
+     * Add routes of handler instance at runtime. Requests being processed are
+     * not affected.
+     * 
+     * @param handler Handler instance.
+     */
+    public void addHandlerInstance(Object handler) {
+        checkHandlerInstance(handler);
+        routes.addHandler(handler);
+    }
+
+    void checkHandlerInstance(Object handler) {
+        if (handler instanceof Class) {
+            throw new IllegalArgumentException("Handler must be an instance but class is passed: " + handler);
+        }
+    }
+
+    /**
+     * Replace all routes of handler class by routes of new handler in one
+     * step, e.g. switch a feature from old implementation to new one without
+     * restart. Requests being processed finish on old handler. Nothing is
+     * changed if any new route is duplicate or ambiguous.
+     * 
+     * @param oldClass Class of handler to be replaced.
+     * @param handler New handler instance, which can be the same class.
+     * @return Number of removed routes.
+     */
+    public int replaceHandler(Class<?> oldClass, Object handler) {
+        checkHandlerInstance(handler);
+        return removed(routes.update((c) -> {
+            return c.handlerClass == oldClass;
+        }, routes.createCallables(handler.getClass(), handler, null)));
+    }
+
+    /**
+     * Remove all routes of handler class at runtime.
+     * 
+     * @param clazz Handler class.
+     * @return Number of removed routes.
+     */
+    public int removeHandler(Class<?> clazz) {
+        return removed(routes.update((c) -> {
+            return c.handlerClass == clazz;
+        }, Collections.<Callable>emptyList()));
+    }
+
+    /**
+     * Remove a route at runtime.
+     * 
+     * @param httpMethod Http method like "GET".
+     * @param path Path of route like "/users/:id".
+     * @return True if route is removed.
+     */
+    public boolean removeRoute(String httpMethod, String path) {
+        return removed(routes.update((c) -> {
+            return c.httpMethod.equals(httpMethod) && c.path.equals(path);
+        }, Collections.<Callable>emptyList())) > 0;
+    }
+
+    /**
+     * Remove cached responses of removed routes.
+     */
+    int removed(List<Callable> callables) {
+        for (Callable c : callables) {
+            if (c.cacheTtl > 0) {
+                invalidateCache(c.path);
+            }
+        }
+        return callables.size();
+    }
+
+    Object newHandler(Class<?> clazz) {
         try {
-            routes.addHandler(clazz.newInstance());
+            return clazz.newInstance();
         }
         catch (InstantiationException | IllegalAccessException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Warm up all routes before serving requests. Lazy handlers are created,
+     * then routing, binding of path variables, parsing of an empty JSON object
+     * into each body type, and serializing of a default instance of the return
+     * type are repeated with synthetic values, so the first requests do not
+     * pay for class loading and JIT compiling. Handler methods are not called.
+     * 
+     * @param iterations Iterations of each route.
+     * @return Number of routes warmed up.
+     */
+    public int warmUp(int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Invalid iterations: " + iterations);
+        }
+        long start = System.currentTimeMillis();
+        int n = 0;
+        for (Callable c : routes.callables()) {
+            if (c.invoker instanceof LazyInvoker) {
+                ((LazyInvoker) c.invoker).delegate();
+            }
+            String path = samplePath(c);
+            if (path == null) {
+                log.warn("Cannot warm up route: " + c.httpMethod + " " + c.path);
+                continue;
+            }
+            try {
+                List<Class<?>> bodyTypes = new ArrayList<Class<?>>();
+                for (Var var : c.vars) {
+                    if (var.varType == Var.JSON_VAR && parseSampleBody(c, var.argType)) {
+                        bodyTypes.add(var.argType);
+                    }
+                }
+                Object result = sampleResult(c);
+                for (int i = 0; i < iterations; i++) {
+                    RouteMatch match = routes.match(c.httpMethod, path);
+                    Map<String, Object> args = new LinkedHashMap<String, Object>();
+                    for (Var var : match.callable.vars) {
+                        if (var.varType == Var.PATH_VAR) {
+                            Object value = var.resolver.resolve(match.path, match.captures, null, null, null);
+                            // serialize other types as string which is always supported by JsonWriter:
+                            args.put(var.name, value instanceof Number || value instanceof Boolean ? value : String.valueOf(value));
+                        }
+                    }
+                    toJsonBytes(args);
+                    for (Class<?> type : bodyTypes) {
+                        jsonBuilder.createReader(new StringReader("{}")).parse(type);
+                    }
+                    if (result != null) {
+                        toJsonBytes(result);
+                    }
+                }
+                n++;
+            }
+            catch (Exception e) {
+                log.warn("Warm up route failed: " + c.httpMethod + " " + c.path, e);
+            }
+        }
+        log.info("Warmed up " + n + " routes in " + (System.currentTimeMillis() - start) + " ms.");
+        return n;
+    }
+
+    /**
+     * Try to parse an empty JSON object into body type.
+     * 
+     * @return True if body type can be parsed from empty object.
+     */
+    boolean parseSampleBody(Callable c, Class<?> type) {
+        try {
+            jsonBuilder.createReader(new StringReader("{}")).parse(type);
+            return true;
+        }
+        catch (Exception e) {
+            log.debug("Cannot warm up body " + type.getName() + " of route: " + c.httpMethod + " " + c.path);
+            return false;
+        }
+    }
+
+    /**
+     * Create default instance of return type, or of the result type of
+     * CompletionStage, by no-arg constructor.
+     * 
+     * @return Sample result, or null if cannot be created.
+     */
+    Object sampleResult(Callable c) {
+        Class<?> clazz = c.resultType;
+        if (clazz == null) {
+            return null;
+        }
+        if (clazz.isPrimitive() || clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+            return null;
+        }
+        try {
+            Constructor<?> constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            Object result = constructor.newInstance();
+            return JsonStreamWriter.isStream(result) ? null : result;
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Cannot warm up result " + clazz.getName() + " of route: " + c.httpMethod + " " + c.path);
+            return null;
+        }
+    }
+
+    /**
+     * Build request path of route with sample values of path variables.
+     * 
+     * @return Request path, or null if no sample value can be converted.
+     */
+    String samplePath(Callable c) {
+        if (c.isStatic) {
+            return c.path;
+        }
+        StringBuilder sb = new StringBuilder(c.path.length() + 16);
+        Matcher m = Route.RE_ROUTE_VAR.matcher(c.path);
+        int start = 0;
+        while (m.find()) {
+            sb.append(c.path, start, m.start());
+            String value = "warmup";
+            for (Var var : c.vars) {
+                if (var.varType == Var.PATH_VAR && var.name.equals(m.group(1))) {
+                    value = sampleValue(var.argType, routes.converters.get(var.argType));
+                }
+            }
+            if (value == null) {
+                return null;
+            }
+            sb.append(value);
+            start = m.end();
+        }
+        sb.append(c.path, start, c.path.length());
+        return sb.toString();
+    }
+
+    String sampleValue(Class<?> type, Converter<?> converter) {
+        Object[] constants = type.getEnumConstants();
+        if (constants != null && constants.length > 0) {
+            String s = ((Enum<?>) constants[0]).name();
+            try {
+                converter.convert(s);
+                return s;
+            }
+            catch (RuntimeException e) {
+                // try sample values
+            }
+        }
+        for (String s : SAMPLE_VALUES) {
+            try {
+                converter.convert(s);
+                return s;
+            }
+            catch (RuntimeException e) {
+                // try next
+            }
+        }
+        return null;
+    }
+
     protected void processApi(HttpServletRequest req, HttpServletResponse resp, String method, String path) throws IOException {
-        switch (method) {
-        case "GET":
-            processApiRequest(req, resp, "GET", path);
-            break;
-        case "POST":
-            processApiRequest(req, resp, "POST", path);
-            break;
-        case "PUT":
-            processApiRequest(req, resp, "PUT", path);
-            break;
-        case "DELETE":
-            processApiRequest(req, resp, "DELETE", path);
-            break;
-        default:
-            processBadRequest(req, resp, method, path);
-            break;
+        processApi(req, resp, method, path, 0);
+    }
+
+    /**
+     * Process API request whose API path starts at offset of request uri,
+     * e.g. "/api/users/123" with offset 4 if url prefix is "/api". The path
+     * is matched by offset and http method is dispatched by index, so no
+     * string is allocated before calling handler method.
+     * 
+     * @param uri Request uri.
+     * @param offset Start index of API path in uri.
+     */
+    void processApi(HttpServletRequest req, HttpServletResponse resp, String uri, int offset) throws IOException {
+        processApi(req, resp, req.getMethod(), uri, offset);
+    }
+
+    void processApi(HttpServletRequest req, HttpServletResponse resp, String method, String uri, int offset) throws IOException {
+        AccessLog accessLog = this.accessLog;
+        if (accessLog != null && accessLog.sample()) {
+            processApiWithAccessLog(accessLog, req, resp, method, uri, offset);
+            return;
         }
+        processApiMethod(req, resp, method, uri, offset);
+    }
+
+    void processApiWithAccessLog(AccessLog accessLog, HttpServletRequest req, HttpServletResponse resp, String method, String uri, int offset) throws IOException {
+        long time = System.currentTimeMillis();
+        long start = System.nanoTime();
+        AccessLogResponse logResp = new AccessLogResponse(resp);
+        try {
+            processApiMethod(req, logResp, method, uri, offset);
+        }
+        finally {
+            if (req.isAsyncStarted()) {
+                req.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) throws IOException {
+                        accessLog.log(time, method, logResp.route, logResp.getStatus(), logResp.bytes, System.nanoTime() - start);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) throws IOException {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) throws IOException {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) throws IOException {
+                    }
+                });
+            }
+            else {
+                accessLog.log(time, method, logResp.route, logResp.getStatus(), logResp.bytes, System.nanoTime() - start);
+            }
+        }
+    }
+
+    void processApiMethod(HttpServletRequest req, HttpServletResponse resp, String method, String uri, int offset) throws IOException {
+        int index = HttpMethod.indexOf(method);
+        if (index < 0) {
+            String allow = allow(uri, offset);
+            if (allow != null) {
+                resp.setHeader("Allow", allow);
+            }
+            processBadRequest(req, resp, method, uri.substring(offset));
+            return;
+        }
+        if (index == HttpMethod.HEAD) {
+            processHead(req, resp, uri, offset);
+            return;
+        }
+        if (index == HttpMethod.OPTIONS) {
+            processOptions(req, resp, uri, offset);
+            return;
+        }
+        processApiRequest(req, resp, index, uri, offset);
+    }
+
+    /**
+     * Process HEAD request by GET handler and discard body. Cached response is
+     * sent without calling handler. Async result is processed as GET, and
+     * Content-Length is set if the body fits in the response buffer.
+     */
+    void processHead(HttpServletRequest req, HttpServletResponse resp, String uri, int offset) throws IOException {
+        HeadResponse headResp = new HeadResponse(resp);
+        processApiRequest(req, headResp, HttpMethod.GET, uri, offset);
+        if (!req.isAsyncStarted()) {
+            headResp.finish();
+        }
+    }
+
+    /**
+     * Close stream result of HEAD request without reading elements.
+     * 
+     * @return True if result is a stream of HEAD request and is closed.
+     */
+    boolean closeHeadStream(HttpServletRequest req, HttpServletResponse resp, Object ret) {
+        if (!(resp instanceof HeadResponse) || !JsonStreamWriter.isStream(ret)) {
+            return false;
+        }
+        JsonStreamWriter.close(ret);
+        ((HeadResponse) resp).streaming = true;
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType(JsonStreamWriter.acceptsNdjson(req.getHeader("Accept")) ? JsonStreamWriter.NDJSON : "application/json");
+        return true;
+    }
+
+    /**
+     * Process OPTIONS request by "Allow" header computed from route tables,
+     * without calling handler.
+     */
+    void processOptions(HttpServletRequest req, HttpServletResponse resp, String uri, int offset) throws IOException {
+        String allow = allow(uri, offset);
+        if (allow == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        resp.setHeader("Allow", allow);
+        String origin = req.getHeader("Origin");
+        String requestMethod = req.getHeader("Access-Control-Request-Method");
+        if (origin != null && requestMethod != null) {
+            CorsPolicy policy = corsPolicy(HttpMethod.indexOf(requestMethod), uri, offset);
+            if (policy != null) {
+                policy.setPreflightHeaders(resp, origin, allow);
+            }
+        }
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * Get CORS policy of route which is requested by preflight.
+     * 
+     * @param index Index of HttpMethod of Access-Control-Request-Method.
+     * @return CorsPolicy, or null if route not found or CORS is disabled.
+     */
+    CorsPolicy corsPolicy(int index, String uri, int offset) {
+        if (index == HttpMethod.HEAD) {
+            index = HttpMethod.GET;
+        }
+        if (index < 0 || index >= HttpMethod.ROUTES) {
+            return null;
+        }
+        RouteMatch match = this.routes.match(index, uri, offset);
+        if (match != null) {
+            return match.callable.cors != null ? match.callable.cors : this.cors;
+        }
+        BatchProcessor batch = this.batch;
+        if (batch != null && index == HttpMethod.POST && pathEquals(uri, offset, batch.path)) {
+            return this.cors;
+        }
+        return null;
+    }
+
+    /**
+     * Get "Allow" header of API path starts at offset of uri.
+     * 
+     * @return Allowed methods like "GET, HEAD, OPTIONS", or null if not found.
+     */
+    String allow(String uri, int offset) {
+        BatchProcessor batch = this.batch;
+        if (batch != null && pathEquals(uri, offset, batch.path)) {
+            return HttpMethod.ALLOWS[1 << HttpMethod.POST];
+        }
+        if (this.metricsEnabled && pathEquals(uri, offset, "/_metrics")) {
+            return HttpMethod.ALLOWS[1 << HttpMethod.GET];
+        }
+        return this.routes.allow(uri, offset);
     }
 
     protected Object parseBeanFromJson(Class<?> type, HttpServletRequest req) throws IOException {
+        InputStream input = req.getInputStream();
+        long contentLength = req.getContentLengthLong();
+        int contentEncoding = Compression.parseContentEncoding(req.getHeader("Content-Encoding"));
+        if (contentEncoding > 0) {
+            // inflate while parsing, and limit decompressed size:
+            input = new InflatingInputStream(input, this.inflaters, contentEncoding, this.maxRequestBodySize);
+            contentLength = -1;
+        }
         String encoding = req.getCharacterEncoding();
-        if (encoding == null) {
-            encoding = "UTF-8";
+        if (encoding != null && !"UTF-8".equalsIgnoreCase(encoding)) {
+            Reader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(input, encoding));
+                return jsonBuilder.createReader(reader).parse(type);
+            }
+            finally {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
         }
-        Reader reader = null;
-        try {
-            reader = new BufferedReader(new InputStreamReader(req.getInputStream(), encoding));
+        // decode UTF-8 from servlet InputStream by pooled buffer:
+        BufferPool pool = this.requestBuffers;
+        byte[] buffer = pool.acquire();
+        try (Reader reader = new Utf8Reader(input, buffer, contentLength, this.maxRequestBodySize)) {
             return jsonBuilder.createReader(reader).parse(type);
         }
         finally {
-            if (reader != null) {
-                reader.close();
-            }
-        }    
+            pool.release(buffer);
+        }
     }
 
     protected void processBadRequest(HttpServletRequest req, HttpServletResponse resp, String method, String path) throws IOException {
@@ -109,41 +1136,596 @@ public class RestApiHandler {
         return false;
     }
 
-    void processApiRequest(HttpServletRequest req, HttpServletResponse resp, String method, String path) throws IOException {
+    /**
+     * Process API request.
+     * 
+     * @param index Index of HttpMethod.
+     * @param uri Request uri.
+     * @param offset Start index of API path in uri.
+     */
+    void processApiRequest(HttpServletRequest req, HttpServletResponse resp, int index, String uri, int offset) throws IOException {
+        String method = HttpMethod.NAMES[index];
+        boolean isGet = index == HttpMethod.GET;
         // check content type:
-        if (!"GET".equals(method) && (req.getContentLength()!=0 && !checkContentType(req.getContentType()))) {
+        if (!isGet && (req.getContentLength()!=0 && !checkContentType(req.getContentType()))) {
             log.debug("415 UNSUPPORTED MEDIA TYPE: not a json request.");
             resp.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Request must be application/json.");
             return;
         }
+        // check content encoding:
+        if (!isGet && Compression.parseContentEncoding(req.getHeader("Content-Encoding")) < 0) {
+            log.debug("415 UNSUPPORTED MEDIA TYPE: unsupported content encoding.");
+            resp.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "Content-Encoding must be gzip or deflate.");
+            return;
+        }
+        // check content length before reading:
+        if (!isGet && req.getContentLengthLong() > this.maxRequestBodySize) {
+            log.debug("413 REQUEST ENTITY TOO LARGE.");
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Request body is too large.");
+            return;
+        }
+        BatchProcessor batch = this.batch;
+        if (batch != null && index == HttpMethod.POST && pathEquals(uri, offset, batch.path)) {
+            AccessLogResponse.setRoute(resp, batch.path);
+            CorsPolicy cors = this.cors;
+            String origin = cors == null ? null : req.getHeader("Origin");
+            if (origin != null) {
+                cors.setHeaders(resp, origin);
+            }
+            batch.process(req, resp);
+            return;
+        }
+        long start = this.metricsEnabled ? System.nanoTime() : 0L;
+        RouteMatch match = this.routes.match(index, uri, offset);
+        if (match == null) {
+            if (this.metricsEnabled && isGet && pathEquals(uri, offset, "/_metrics")) {
+                processMetrics(req, resp);
+                return;
+            }
+            String allow = allow(uri, offset);
+            if (allow != null) {
+                resp.setHeader("Allow", allow);
+                resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Method Not Allowed");
+                return;
+            }
+            if (this.metricsEnabled) {
+                this.notFound.increment();
+            }
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (this.metricsEnabled) {
+            RouteMetrics metrics = match.callable.metrics;
+            metrics.requests.increment();
+            metrics.routing.record(System.nanoTime() - start);
+        }
+        AccessLogResponse.setRoute(resp, match.callable.path);
+        CorsPolicy cors = match.callable.cors != null ? match.callable.cors : this.cors;
+        String origin = cors == null ? null : req.getHeader("Origin");
+        if (origin != null) {
+            cors.setHeaders(resp, origin);
+        }
+        if (match.callable.cacheTtl > 0) {
+            CacheEntry entry = this.responseCache.get(cacheKey(req, match));
+            if (entry != null) {
+                int status = sendCacheEntry(req, resp, entry);
+                recordStatus(this.metricsEnabled ? match.callable.metrics : null, status);
+                return;
+            }
+        }
+        if (this.nonBlockingIO && req.isAsyncSupported()) {
+            new NonBlockingApiRequest(this, req, resp, method, match).start();
+            return;
+        }
+        Executor executor = this.executor;
+        if (executor != null && req.isAsyncSupported()) {
+            dispatchApiRequest(executor, req, resp, method, match);
+        }
+        else {
+            invokeApiRequest(req, resp, method, match, 0);
+        }
+    }
+
+    /**
+     * Is API path starts at offset of uri equals to path?
+     */
+    static boolean pathEquals(String uri, int offset, String path) {
+        return uri.length() - offset == path.length() && uri.startsWith(path, offset);
+    }
+
+    /**
+     * Call handler method by executor. The container thread is released
+     * until the response is sent.
+     */
+    void dispatchApiRequest(Executor executor, HttpServletRequest req, HttpServletResponse resp, String method, RouteMatch match) throws IOException {
+        AsyncContext ctx = req.startAsync(req, resp);
+        // handler running on executor cannot be interrupted safely, so no
+        // timeout by container and timeout is checked by executing thread:
+        ctx.setTimeout(0);
+        try {
+            executor.execute(() -> {
+                try {
+                    invokeApiRequest(req, resp, method, match, this.asyncTimeout);
+                }
+                catch (Exception e) {
+                    log.error("Send response failed.", e);
+                }
+                finally {
+                    ctx.complete();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            log.warn("Executor rejected request: " + req.getRequestURI());
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Service unavailable.");
+            recordStatus(this.metricsEnabled ? match.callable.metrics : null, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            ctx.complete();
+        }
+    }
+
+    /**
+     * Call handler method on current thread and send response.
+     * 
+     * @param limiterTimeout Milliseconds to wait if route reaches max concurrent requests.
+     */
+    void invokeApiRequest(HttpServletRequest req, HttpServletResponse resp, String method, RouteMatch match, long limiterTimeout) throws IOException {
+        RouteMetrics metrics = this.metricsEnabled ? match.callable.metrics : null;
+        Semaphore limiter = match.callable.limiter;
+        boolean acquired = false;
         RestContext.initRestContext(req, resp);
         try {
+            if (limiter != null) {
+                acquired = limiter.tryAcquire(limiterTimeout, TimeUnit.MILLISECONDS);
+                if (!acquired) {
+                    log.warn("Too many concurrent requests: " + method + " " + match.callable.path);
+                    resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many requests.");
+                    recordStatus(metrics, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    return;
+                }
+            }
             JsonCallback jsonCallback = null;
+            // nanoseconds spent in parsing request body:
+            long[] parsed = null;
             if (!"GET".equals(method)) {
-                jsonCallback = (Class<?> type) -> {
-                    return parseBeanFromJson(type, req);
-                };
+                if (metrics == null) {
+                    jsonCallback = (Class<?> type) -> {
+                        return parseBeanFromJson(type, req);
+                    };
+                }
+                else {
+                    long[] parsedNanos = parsed = new long[1];
+                    jsonCallback = (Class<?> type) -> {
+                        long start = System.nanoTime();
+                        try {
+                            return parseBeanFromJson(type, req);
+                        }
+                        finally {
+                            long nanos = System.nanoTime() - start;
+                            parsedNanos[0] += nanos;
+                            metrics.parsing.record(nanos);
+                        }
+                    };
+                }
             }
-            Object ret = this.routes.call(method, path, jsonCallback, req, resp);
-            if (ret instanceof Void) {
-                return;
+            long start = metrics == null ? 0L : System.nanoTime();
+            Object ret = match.call(jsonCallback, req, resp);
+            if (metrics != null) {
+                metrics.invoking.record(System.nanoTime() - start - (parsed == null ? 0L : parsed[0]));
+            }
+            if (ret instanceof CompletionStage) {
+                CompletableFuture<?> future = ((CompletionStage<?>) ret).toCompletableFuture();
+                if (acquired) {
+                    // hold permit until completed, or cancelled by timeout:
+                    acquired = false;
+                    future.whenComplete((result, err) -> {
+                        limiter.release();
+                    });
+                }
+                processAsyncResult(req, resp, match, future, metrics);
+            }
+            else {
+                sendRouteResult(req, resp, match, ret, metrics);
+            }
+        }
+        catch (Exception e) {
+            sendException(req, resp, e, metrics);
+        }
+        finally {
+            RestContext.destroyRestContext();
+            if (acquired) {
+                limiter.release();
+            }
+        }
+    }
+
+    /**
+     * Send result of route, which is cached if route is @Cached.
+     */
+    void sendRouteResult(HttpServletRequest req, HttpServletResponse resp, RouteMatch match, Object ret, RouteMetrics metrics) throws IOException {
+        if (match.callable.cacheTtl > 0 && !(ret instanceof Void)) {
+            sendCachedResult(req, resp, match, ret, metrics);
+        }
+        else {
+            sendResult(req, resp, ret, metrics);
+        }
+    }
+
+    /**
+     * Serialize result, put into cache and send with ETag.
+     */
+    void sendCachedResult(HttpServletRequest req, HttpServletResponse resp, RouteMatch match, Object ret, RouteMetrics metrics) throws IOException {
+        long start = metrics == null ? 0L : System.nanoTime();
+        NonBlockingApiRequest.BodyOutputStream output = toJsonBytes(ret);
+        if (metrics != null) {
+            metrics.serializing.record(System.nanoTime() - start);
+        }
+        CacheEntry entry = putCacheEntry(req, match, output);
+        recordStatus(metrics, sendCacheEntry(req, resp, entry));
+    }
+
+    CacheKey cacheKey(HttpServletRequest req, RouteMatch match) {
+        String[] names = match.callable.cacheQuery;
+        String[] query = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            query[i] = req.getParameter(names[i]);
+        }
+        return new CacheKey(match.callable.path, match.apiPath(), query);
+    }
+
+    /**
+     * Put serialized response into cache.
+     * 
+     * @return Cached entry, or a new entry not cached if the body is too large.
+     */
+    CacheEntry putCacheEntry(HttpServletRequest req, RouteMatch match, NonBlockingApiRequest.BodyOutputStream output) {
+        byte[] body = output.toByteArray();
+        CacheEntry entry = this.responseCache.put(cacheKey(req, match), body, match.callable.cacheTtl);
+        if (entry == null) {
+            entry = new CacheEntry(null, body, ResponseCache.etag(body), 0L);
+        }
+        return entry;
+    }
+
+    /**
+     * Send cached response with ETag, or 304 if If-None-Match is matched.
+     * 
+     * @return Http status.
+     */
+    int sendCacheEntry(HttpServletRequest req, HttpServletResponse resp, CacheEntry entry) throws IOException {
+        byte[] body = prepareCacheEntry(req, resp, entry);
+        if (body == null) {
+            return HttpServletResponse.SC_NOT_MODIFIED;
+        }
+        resp.getOutputStream().write(body);
+        return HttpServletResponse.SC_OK;
+    }
+
+    /**
+     * Set headers of cached response and select body by Accept-Encoding.
+     * 
+     * @return Body to send, or null if 304 is set.
+     */
+    byte[] prepareCacheEntry(HttpServletRequest req, HttpServletResponse resp, CacheEntry entry) throws IOException {
+        int encoding = Compression.NONE;
+        Compression compression = this.compression;
+        if (compression != null) {
+            resp.addHeader("Vary", "Accept-Encoding");
+            if (entry.body.length >= compression.threshold) {
+                encoding = Compression.negotiate(req.getHeader("Accept-Encoding"));
             }
-            resp.setCharacterEncoding("UTF-8");
-            resp.setContentType("application/json");
-            Writer writer = resp.getWriter();
+        }
+        String etag = entry.getETag(encoding);
+        resp.setHeader("ETag", etag);
+        if (ResponseCache.matchesIfNoneMatch(req.getHeader("If-None-Match"), etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return null;
+        }
+        byte[] body = entry.getBody(compression, encoding);
+        if (encoding != Compression.NONE) {
+            resp.setHeader("Content-Encoding", Compression.ENCODINGS[encoding]);
+        }
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType("application/json");
+        resp.setContentLength(body.length);
+        return body;
+    }
+
+    /**
+     * Serialize object as JSON into memory.
+     */
+    NonBlockingApiRequest.BodyOutputStream toJsonBytes(Object ret) throws IOException {
+        NonBlockingApiRequest.BodyOutputStream output = new NonBlockingApiRequest.BodyOutputStream();
+        byte[] buffer = this.responseBuffers.acquire();
+        try {
+            Utf8Writer writer = new Utf8Writer(output, buffer);
             JsonWriter jsonWriter = this.jsonBuilder.createWriter(writer);
-            jsonWriter.write(ret);
-            writer.flush();
+            if (JsonStreamWriter.isStream(ret)) {
+                JsonStreamWriter.write(jsonWriter, writer, ret, false, 0);
+            }
+            else {
+                jsonWriter.write(ret);
+            }
+            writer.close();
+        }
+        finally {
+            this.responseBuffers.release(buffer);
         }
-        catch (ApiNotFoundException e) {
+        return output;
+    }
+
+    /**
+     * Call processResult() and record metrics if metrics is not null.
+     */
+    void sendResult(HttpServletRequest req, HttpServletResponse resp, Object ret, RouteMetrics metrics) throws IOException {
+        if (metrics == null) {
+            processResult(req, resp, ret);
+            return;
+        }
+        long start = System.nanoTime();
+        processResult(req, resp, ret);
+        metrics.serializing.record(System.nanoTime() - start);
+        metrics.recordStatus(resp.getStatus());
+    }
+
+    /**
+     * Call processException() and record metrics if metrics is not null.
+     */
+    void sendException(HttpServletRequest req, HttpServletResponse resp, Exception e, RouteMetrics metrics) throws IOException {
+        processException(req, resp, e);
+        if (metrics != null) {
+            metrics.recordException(e);
+            metrics.recordStatus(resp.getStatus());
+        }
+    }
+
+    void recordStatus(RouteMetrics metrics, int status) {
+        if (metrics != null) {
+            metrics.recordStatus(status);
+        }
+    }
+
+    /**
+     * Send result of handler method as JSON.
+     */
+    protected void processResult(HttpServletRequest req, HttpServletResponse resp, Object ret) throws IOException {
+        if (ret instanceof Void) {
+            return;
+        }
+        if (JsonStreamWriter.isStream(ret)) {
+            writeJsonStream(req, resp, ret);
+            return;
+        }
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType("application/json");
+        Compression compression = this.compression;
+        if (compression == null) {
+            writeJson(resp, ret);
+        }
+        else {
+            resp.addHeader("Vary", "Accept-Encoding");
+            writeJson(resp, ret, compression, Compression.negotiate(req.getHeader("Accept-Encoding")));
+        }
+    }
+
+    /**
+     * Write Stream, Iterator or Iterable as JSON array, or as NDJSON if client
+     * accepts application/x-ndjson, and flush periodically.
+     */
+    void writeJsonStream(HttpServletRequest req, HttpServletResponse resp, Object ret) throws IOException {
+        if (closeHeadStream(req, resp, ret)) {
+            return;
+        }
+        boolean ndjson = JsonStreamWriter.acceptsNdjson(req.getHeader("Accept"));
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType(ndjson ? JsonStreamWriter.NDJSON : "application/json");
+        Compression compression = this.compression;
+        int encoding = Compression.NONE;
+        if (compression != null) {
+            resp.addHeader("Vary", "Accept-Encoding");
+            encoding = Compression.negotiate(req.getHeader("Accept-Encoding"));
+        }
+        BufferPool pool = this.responseBuffers;
+        byte[] buffer = pool.acquire();
+        Utf8Writer writer = new Utf8Writer(resp, buffer);
+        writer.setCompression(compression, encoding);
+        try {
+            JsonStreamWriter.write(this.jsonBuilder.createWriter(writer), writer, ret, ndjson, this.streamFlushInterval);
+            writer.close();
+        }
+        catch (IOException | RuntimeException e) {
+            writer.discard();
+            if (!writer.isStreaming()) {
+                // nothing sent yet, so error response can be sent:
+                throw e;
+            }
+            log.warn("Stream response aborted: " + req.getRequestURI(), e);
+        }
+        finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Send result when CompletionStage is completed, and put into cache if
+     * route is @Cached. The request is put into async mode if it is not
+     * completed yet, so the container thread is released while waiting.
+     */
+    void processAsyncResult(HttpServletRequest req, HttpServletResponse resp, RouteMatch match, CompletionStage<?> stage, RouteMetrics metrics) throws Exception {
+        CompletableFuture<?> future = stage.toCompletableFuture();
+        if (future.isDone() || !req.isAsyncSupported() || req.isAsyncStarted()) {
+            // already completed, already dispatched to executor, or have to wait on current thread:
+            Object ret;
+            try {
+                ret = future.get(this.asyncTimeout, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e) {
+                future.cancel(false);
+                processAsyncTimeout(req, resp);
+                recordStatus(metrics, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            catch (ExecutionException e) {
+                throw unwrapAsyncException(e);
+            }
+            sendRouteResult(req, resp, match, ret, metrics);
+            return;
+        }
+        AsyncContext ctx = req.startAsync(req, resp);
+        ctx.setTimeout(this.asyncTimeout);
+        AtomicBoolean completed = new AtomicBoolean(false);
+        ctx.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (completed.compareAndSet(false, true)) {
+                    future.cancel(false);
+                    try {
+                        processAsyncTimeout(req, resp);
+                        recordStatus(metrics, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    }
+                    finally {
+                        ctx.complete();
+                    }
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+                if (completed.compareAndSet(false, true)) {
+                    future.cancel(false);
+                    log.warn("Async request failed.", event.getThrowable());
+                    ctx.complete();
+                }
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+            }
+        });
+        future.whenComplete((ret, err) -> {
+            if (!completed.compareAndSet(false, true)) {
+                // already timeout:
+                return;
+            }
+            try {
+                if (err == null) {
+                    sendRouteResult(req, resp, match, ret, metrics);
+                }
+                else {
+                    sendException(req, resp, unwrapAsyncException(err), metrics);
+                }
+            }
+            catch (Exception e) {
+                log.error("Send async result failed.", e);
+            }
+            finally {
+                ctx.complete();
+            }
+        });
+    }
+
+    Exception unwrapAsyncException(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+            t = t.getCause();
+        }
+        if (t instanceof Exception) {
+            return (Exception) t;
+        }
+        return new RuntimeException(t);
+    }
+
+    /**
+     * Send 503 when async result is not completed in time.
+     */
+    protected void processAsyncTimeout(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        log.warn("Async request timeout: " + req.getRequestURI());
+        resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Request timeout.");
+    }
+
+    /**
+     * Send metrics of all routes as JSON.
+     */
+    protected void processMetrics(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        List<Object> list = new ArrayList<Object>();
+        for (RouteMetrics metrics : getMetrics()) {
+            list.add(metrics.toMap());
+        }
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("notFound", getNotFoundRequests());
+        map.put("routes", list);
+        processResult(req, resp, map);
+    }
+
+    /**
+     * Send error response of exception thrown when processing API.
+     */
+    protected void processException(HttpServletRequest req, HttpServletResponse resp, Exception e) throws IOException {
+        if (e instanceof ApiNotFoundException) {
             resp.sendError(HttpServletResponse.SC_NOT_FOUND);
         }
-        catch (Exception e) {
+        else if (e instanceof RequestTooLargeException) {
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "Request body is too large.");
+        }
+        else if (e instanceof ZipException) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid compressed request body.");
+        }
+        else if (e instanceof ApiException) {
+            processApiException(req, resp, (ApiException) e);
+        }
+        else {
             log.error("Process API failed.", e);
             resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
+    }
+
+    /**
+     * Send 400 with JSON like {"error": "code", "data": "data", "message": "message"}.
+     */
+    protected void processApiException(HttpServletRequest req, HttpServletResponse resp, ApiException e) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType("application/json");
+        writeJson(resp, toErrorMap(e));
+    }
+
+    Map<String, Object> toErrorMap(ApiException e) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("error", e.getCode());
+        map.put("data", e.getData());
+        map.put("message", e.getMessage());
+        return map;
+    }
+
+    /**
+     * Write object as JSON to servlet OutputStream using UTF-8.
+     */
+    protected void writeJson(HttpServletResponse resp, Object ret) throws IOException {
+        writeJson(resp, ret, null, Compression.NONE);
+    }
+
+    /**
+     * Write object as JSON, compressed by encoding if body is large enough.
+     */
+    void writeJson(HttpServletResponse resp, Object ret, Compression compression, int encoding) throws IOException {
+        BufferPool pool = this.responseBuffers;
+        byte[] buffer = pool.acquire();
+        Utf8Writer writer = new Utf8Writer(resp, buffer);
+        writer.setCompression(compression, encoding);
+        try {
+            JsonWriter jsonWriter = this.jsonBuilder.createWriter(writer);
+            jsonWriter.write(ret);
+            writer.close();
+        }
+        catch (IOException | RuntimeException e) {
+            // release compressor if compressing was started:
+            writer.discard();
+            throw e;
+        }
         finally {
-            RestContext.destroyRestContext();
+            pool.release(buffer);
         }
     }
 }
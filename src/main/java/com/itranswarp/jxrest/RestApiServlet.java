@@ -1,7 +1,6 @@
 package com.itranswarp.jxrest;
 
 import java.io.IOException;
-import java.util.stream.Stream;
 
 import javax.servlet.GenericServlet;
 import javax.servlet.ServletException;
@@ -57,16 +56,9 @@ public class RestApiServlet extends GenericServlet {
             this.handler = new RestApiHandler();
         }
         setUrlPrefix(getInitParameter("urlPrefix"));
-        String handlers = getInitParameter("handlers");
-        if (handlers != null) {
-            Stream.of(handlers.split("\\,")).map((s) -> {
-                return s.trim();
-            }).filter((s) -> {
-                return !s.isEmpty();
-            }).forEach((s) -> {
-                this.handler.findHandlers(s);
-            });
-        }
+        this.handler.configure((name) -> {
+            return getInitParameter(name);
+        });
     }
 
     @Override
@@ -74,19 +66,23 @@ public class RestApiServlet extends GenericServlet {
         HttpServletRequest req = (HttpServletRequest) request;
         HttpServletResponse resp = (HttpServletResponse) response;
         String path = req.getRequestURI();
-        if (path.startsWith(this.urlPrefix)) {
-            String apiUrl = path.substring(this.urlPrefix.length());
-            if (apiUrl.startsWith("/")) {
-                log.info("Process API request: " + apiUrl);
-                this.handler.processApi(req, resp, req.getMethod(), apiUrl);
-                return;
+        int offset = this.urlPrefix.length();
+        // match API path by offset without substring:
+        if (path.startsWith(this.urlPrefix) && path.length() > offset && path.charAt(offset) == '/') {
+            if (log.isDebugEnabled()) {
+                log.debug("Process API request: " + path.substring(offset));
             }
+            this.handler.processApi(req, resp, path, offset);
+            return;
         }
         resp.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Method Not Allowed");
     }
 
     public void destroy() {
         log.info("Destroy RestApiServlet...");
+        if (this.handler != null) {
+            this.handler.destroy();
+        }
         this.handler = null;
     }
 
@@ -1,9 +1,7 @@
 package com.itranswarp.jxrest;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -83,25 +81,41 @@ class Route {
         }
     }
 
-    boolean hasParameter(String param) {
-        for (String s : this.parameters) {
-            if (s.equals(param)) {
-                return true;
+    /**
+     * Get position of the parameter, or -1 if not found.
+     */
+    int indexOfParameter(String param) {
+        for (int i = 0; i < this.parameters.length; i++) {
+            if (this.parameters[i].equals(param)) {
+                return i;
             }
         }
-        return false;
+        return -1;
+    }
+
+    /**
+     * Match the path and fill captures as [start0, end0, start1, end1, ...].
+     */
+    boolean matches(String path, int[] captures) {
+        return matches(path, 0, captures);
     }
 
-    Map<String, String> matches(String path) {
+    /**
+     * Match the path starts at offset and fill captures as offsets in path.
+     */
+    boolean matches(String path, int offset, int[] captures) {
         Matcher m = regexPath.matcher(path);
+        if (offset > 0) {
+            m.region(offset, path.length());
+        }
         if (m.matches()) {
-            Map<String, String> map = new HashMap<String, String>();
-            for (String param : this.parameters) {
-                map.put(param, m.group(param));
+            for (int i = 0; i < this.parameters.length; i++) {
+                captures[i + i] = m.start(i + 1);
+                captures[i + i + 1] = m.end(i + 1);
             }
-            return map;
+            return true;
         }
-        return null;
+        return false;
     }
 }
 
@@ -0,0 +1,122 @@
+package com.itranswarp.jxrest;
+
+/**
+ * Descriptor of a route added to RouteRegistry by generated code. Settings are
+ * set by chained calls, so new settings can be added without changing the
+ * methods called by code generated by older versions.
+ *
+ * @author Michael Liao
+ */
+public final class RouteDescriptor {
+
+    final String httpMethod;
+    final String path;
+    final String methodName;
+    String[] paramNames = new String[0];
+    Class<?>[] paramTypes = new Class<?>[0];
+    boolean[] stringMaps = new boolean[0];
+    String[] queryNames = null;
+    String[] queryDefaults = null;
+    long cacheTtl = 0;
+    String[] cacheQuery = null;
+    CorsPolicy cors = null;
+    RouteInvoker invoker = null;
+    Class<?> resultType = null;
+
+    /**
+     * Create descriptor of route.
+     *
+     * @param httpMethod Http method like "GET".
+     * @param path Path of route like "/users/:id".
+     * @param methodName Name of handler method.
+     */
+    public RouteDescriptor(String httpMethod, String path, String methodName) {
+        this.httpMethod = httpMethod;
+        this.path = path;
+        this.methodName = methodName;
+    }
+
+    /**
+     * Set parameters of handler method.
+     *
+     * @param names Parameter names of handler method.
+     * @param types Parameter types of handler method.
+     * @param stringMaps Is parameter has type Map&lt;String, String&gt;.
+     * @return This descriptor.
+     */
+    public RouteDescriptor params(String[] names, Class<?>[] types, boolean[] stringMaps) {
+        this.paramNames = names;
+        this.paramTypes = types;
+        this.stringMaps = stringMaps;
+        return this;
+    }
+
+    /**
+     * Set &#64;Query of parameters.
+     *
+     * @param names Names of &#64;Query of each parameter, or null if the
+     *        parameter is not annotated.
+     * @param defaults Default values of &#64;Query of each parameter, or null.
+     * @return This descriptor.
+     */
+    public RouteDescriptor query(String[] names, String[] defaults) {
+        this.queryNames = names;
+        this.queryDefaults = defaults;
+        return this;
+    }
+
+    /**
+     * Set &#64;Cached of handler method.
+     *
+     * @param ttl Ttl in seconds.
+     * @param query Names of query parameters which are part of cache key.
+     * @return This descriptor.
+     */
+    public RouteDescriptor cached(long ttl, String[] query) {
+        this.cacheTtl = ttl;
+        this.cacheQuery = query;
+        return this;
+    }
+
+    /**
+     * Set &#64;Cors of handler method.
+     *
+     * @param origins Allowed origins.
+     * @param headers Allowed headers.
+     * @param maxAge Max age in seconds.
+     * @param credentials Allow credentials.
+     * @return This descriptor.
+     */
+    public RouteDescriptor cors(String[] origins, String[] headers, long maxAge, boolean credentials) {
+        this.cors = new CorsPolicy(origins, headers, maxAge, credentials);
+        return this;
+    }
+
+    /**
+     * Set invoker of handler method. Method without invoker is not accessible
+     * from generated code and is invoked by reflection.
+     *
+     * @param invoker Invoker of handler method.
+     * @return This descriptor.
+     */
+    public RouteDescriptor invoker(RouteInvoker invoker) {
+        this.invoker = invoker;
+        return this;
+    }
+
+    /**
+     * Set class of result, or of the result of CompletionStage, which is used
+     * to warm up serialization.
+     *
+     * @param type Result class.
+     * @return This descriptor.
+     */
+    public RouteDescriptor result(Class<?> type) {
+        this.resultType = type;
+        return this;
+    }
+
+    HandlerSignature toSignature() {
+        return new HandlerSignature(methodName, paramNames, paramTypes, stringMaps, queryNames, queryDefaults, cacheTtl, cacheQuery, cors, resultType);
+    }
+}
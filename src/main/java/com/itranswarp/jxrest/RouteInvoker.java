@@ -0,0 +1,55 @@
+package com.itranswarp.jxrest;
+
+/**
+ * Invoke handler method with resolved arguments, generated at compile time by
+ * jxrest-processor. Methods with no more than 4 arguments override the method
+ * with the same number of arguments, and other methods override invoke().
+ * 
+ * @author Michael Liao
+ */
+public abstract class RouteInvoker {
+
+    /**
+     * Invoke handler method by argument array.
+     * 
+     * @param args Arguments.
+     * @return Result of handler method.
+     * @throws Exception If handler method throws exception.
+     */
+    public Object invoke(Object[] args) throws Exception {
+        switch (args.length) {
+        case 0:
+            return invoke0();
+        case 1:
+            return invoke1(args[0]);
+        case 2:
+            return invoke2(args[0], args[1]);
+        case 3:
+            return invoke3(args[0], args[1], args[2]);
+        case 4:
+            return invoke4(args[0], args[1], args[2], args[3]);
+        default:
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public Object invoke0() throws Exception {
+        throw new UnsupportedOperationException();
+    }
+
+    public Object invoke1(Object a0) throws Exception {
+        throw new UnsupportedOperationException();
+    }
+
+    public Object invoke2(Object a0, Object a1) throws Exception {
+        throw new UnsupportedOperationException();
+    }
+
+    public Object invoke3(Object a0, Object a1, Object a2) throws Exception {
+        throw new UnsupportedOperationException();
+    }
+
+    public Object invoke4(Object a0, Object a1, Object a2, Object a3) throws Exception {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,40 @@
+package com.itranswarp.jxrest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Matched callable with path and offsets of path variables.
+ * 
+ * @author Michael Liao
+ */
+class RouteMatch {
+
+    final Callable callable;
+    // request path, or request uri with API path starts at offset:
+    final String path;
+    final int offset;
+    final int[] captures;
+
+    RouteMatch(Callable callable, String path, int[] captures) {
+        this(callable, path, 0, captures);
+    }
+
+    RouteMatch(Callable callable, String path, int offset, int[] captures) {
+        this.callable = callable;
+        this.path = path;
+        this.offset = offset;
+        this.captures = captures;
+    }
+
+    /**
+     * Get API path without prefix.
+     */
+    String apiPath() {
+        return offset == 0 ? path : path.substring(offset);
+    }
+
+    Object call(JsonCallback jsonCallback, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        return callable.call(path, captures, jsonCallback, request, response);
+    }
+}
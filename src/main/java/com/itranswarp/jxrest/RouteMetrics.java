@@ -0,0 +1,141 @@
+package com.itranswarp.jxrest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a registered route, keyed by http method and route template
+ * like "GET /users/:id".
+ *
+ * @author Michael Liao
+ */
+public class RouteMetrics {
+
+    final String method;
+    final String path;
+    final LongAdder requests = new LongAdder();
+    final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<Integer, LongAdder>();
+    final ConcurrentMap<String, LongAdder> apiErrors = new ConcurrentHashMap<String, LongAdder>();
+    final LatencyHistogram routing = new LatencyHistogram();
+    final LatencyHistogram parsing = new LatencyHistogram();
+    final LatencyHistogram invoking = new LatencyHistogram();
+    final LatencyHistogram serializing = new LatencyHistogram();
+
+    RouteMetrics(String method, String path) {
+        this.method = method;
+        this.path = path;
+    }
+
+    void recordStatus(int status) {
+        LongAdder adder = statuses.get(status);
+        if (adder == null) {
+            adder = statuses.computeIfAbsent(status, (key) -> {
+                return new LongAdder();
+            });
+        }
+        adder.increment();
+    }
+
+    void recordException(Exception e) {
+        if (e instanceof ApiException) {
+            String code = ((ApiException) e).getCode();
+            if (code == null) {
+                code = "";
+            }
+            LongAdder adder = apiErrors.get(code);
+            if (adder == null) {
+                adder = apiErrors.computeIfAbsent(code, (key) -> {
+                    return new LongAdder();
+                });
+            }
+            adder.increment();
+        }
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Number of requests matched this route.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Count of responses by http status.
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        Map<Integer, Long> map = new TreeMap<Integer, Long>();
+        statuses.forEach((status, adder) -> {
+            map.put(status, adder.sum());
+        });
+        return map;
+    }
+
+    /**
+     * Count of ApiException by error code.
+     */
+    public Map<String, Long> getApiErrorCounts() {
+        Map<String, Long> map = new TreeMap<String, Long>();
+        apiErrors.forEach((code, adder) -> {
+            map.put(code, adder.sum());
+        });
+        return map;
+    }
+
+    /**
+     * Latency of finding route.
+     */
+    public LatencyHistogram getRoutingLatency() {
+        return routing;
+    }
+
+    /**
+     * Latency of parsing JSON request body.
+     */
+    public LatencyHistogram getParsingLatency() {
+        return parsing;
+    }
+
+    /**
+     * Latency of calling handler method, not including parsing request body.
+     */
+    public LatencyHistogram getInvokingLatency() {
+        return invoking;
+    }
+
+    /**
+     * Latency of writing JSON response.
+     */
+    public LatencyHistogram getSerializingLatency() {
+        return serializing;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> statusMap = new LinkedHashMap<String, Object>();
+        getStatusCounts().forEach((status, count) -> {
+            statusMap.put(String.valueOf(status), count);
+        });
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("method", method);
+        map.put("path", path);
+        map.put("requests", getRequests());
+        map.put("statuses", statusMap);
+        map.put("apiErrors", new LinkedHashMap<String, Object>(getApiErrorCounts()));
+        map.put("routing", routing.toMap());
+        map.put("parsing", parsing.toMap());
+        map.put("invoking", invoking.toMap());
+        map.put("serializing", serializing.toMap());
+        return map;
+    }
+}
@@ -0,0 +1,35 @@
+package com.itranswarp.jxrest;
+
+/**
+ * Routes of a handler class generated at compile time by jxrest-processor,
+ * and loaded by RestApiHandler.addGeneratedHandlers() as service, so handler
+ * methods are registered and invoked without reflection.
+ * 
+ * @author Michael Liao
+ */
+public interface RouteProvider {
+
+    /**
+     * Get handler class.
+     * 
+     * @return Handler class.
+     */
+    Class<?> handlerClass();
+
+    /**
+     * Create handler instance.
+     * 
+     * @return New handler instance, or null if handler has no accessible
+     *         constructor without arguments.
+     */
+    Object newHandler();
+
+    /**
+     * Register routes of handler instance.
+     * 
+     * @param handler Handler instance.
+     * @param registry Registry to add routes.
+     */
+    void register(Object handler, RouteRegistry registry);
+
+}
@@ -0,0 +1,54 @@
+package com.itranswarp.jxrest;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registry to add routes of a handler instance, used by generated code.
+ * 
+ * @author Michael Liao
+ */
+public final class RouteRegistry {
+
+    final Routes routes;
+    final Object handler;
+    final Class<?> handlerClass;
+    final List<Callable> callables = new ArrayList<Callable>();
+
+    RouteRegistry(Routes routes, Object handler, Class<?> handlerClass) {
+        this.routes = routes;
+        this.handler = handler;
+        this.handlerClass = handlerClass;
+    }
+
+    /**
+     * Add route of handler method.
+     * 
+     * @param route Descriptor of route.
+     */
+    public void add(RouteDescriptor route) {
+        HandlerSignature signature = route.toSignature();
+        Callable callable;
+        if (route.invoker == null) {
+            Method method = findMethod(route.methodName, route.paramTypes);
+            callable = new Callable(handler, handlerClass, signature, method, null, route.httpMethod, route.path, routes.converters);
+        }
+        else {
+            callable = new Callable(handler, handlerClass, signature, null, new GeneratedInvoker(route.invoker), route.httpMethod, route.path, routes.converters);
+        }
+        callables.add(callable);
+    }
+
+    Method findMethod(String methodName, Class<?>[] paramTypes) {
+        for (Class<?> clazz = handlerClass; clazz != null; clazz = clazz.getSuperclass()) {
+            try {
+                return clazz.getDeclaredMethod(methodName, paramTypes);
+            }
+            catch (NoSuchMethodException e) {
+                // try super class
+            }
+        }
+        throw new IllegalArgumentException("Method not found: " + handlerClass.getName() + "." + methodName + "()");
+    }
+}
@@ -0,0 +1,289 @@
+package com.itranswarp.jxrest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Segment-based trie of non-static routes for one http method. Lookup walks the
+ * request path segment by segment, so the cost grows with path depth instead of
+ * the number of registered routes.
+ *
+ * Static segments have priority over variable segments at each level. The
+ * priority is resolved when the trie is compiled: each state of the compiled
+ * trie holds all routes still possible in priority order, so lookup never
+ * backtracks. Routes that mix literals and variables inside one segment (e.g.
+ * "/files/:name.json") cannot be put in the trie and are matched by regular
+ * expression after the trie.
+ *
+ * @author Michael Liao
+ */
+class RouteTrie {
+
+    final Node root = new Node();
+    final List<Callable> trieCallables = new ArrayList<Callable>();
+    final List<Callable> regexCallables = new ArrayList<Callable>();
+
+    /**
+     * Compiled root state, set by compile().
+     */
+    State start = null;
+
+    /**
+     * Max number of path variables of all routes, used to size the captures array.
+     */
+    int maxParameters = 0;
+
+    /**
+     * Is the path can be stored as trie nodes? Each segment must be either pure
+     * static or exactly one variable.
+     */
+    static boolean isSegmentPath(String path) {
+        for (String segment : path.split("/", -1)) {
+            if (!isVarSegment(segment) && isMixedSegment(segment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isVarSegment(String segment) {
+        return Route.RE_ROUTE_VAR.matcher(segment).matches();
+    }
+
+    static boolean isMixedSegment(String segment) {
+        return Route.RE_ROUTE_VAR.matcher(segment).find();
+    }
+
+    void add(String httpMethod, Callable callable) {
+        String path = callable.path;
+        if (isSegmentPath(path)) {
+            String[] segments = path.split("/", -1);
+            int[] varSegments = new int[callable.route.parameters.length];
+            int n = 0;
+            Node node = root;
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (isVarSegment(segment)) {
+                    varSegments[n] = i;
+                    n++;
+                    if (node.varChild == null) {
+                        node.varChild = new Node();
+                    }
+                    node = node.varChild;
+                }
+                else {
+                    Node child = node.staticChildren.get(segment);
+                    if (child == null) {
+                        child = new Node();
+                        node.staticChildren.put(segment, child);
+                    }
+                    node = child;
+                }
+            }
+            if (node.callable != null) {
+                throw conflict(httpMethod, path, node.callable.path);
+            }
+            node.callable = callable;
+            node.varSegments = varSegments;
+            trieCallables.add(callable);
+        }
+        else {
+            for (Callable c : regexCallables) {
+                if (c.route.regexPath.pattern().equals(callable.route.regexPath.pattern())) {
+                    throw conflict(httpMethod, path, c.path);
+                }
+            }
+            regexCallables.add(callable);
+        }
+        maxParameters = Math.max(maxParameters, callable.route.parameters.length);
+    }
+
+    IllegalArgumentException conflict(String httpMethod, String path, String existPath) {
+        if (path.equals(existPath)) {
+            return new IllegalArgumentException("Duplicate handler for " + httpMethod + " " + path);
+        }
+        return new IllegalArgumentException("Ambiguous handler for " + httpMethod + " " + path + ": conflicts with " + existPath);
+    }
+
+    /**
+     * Compile trie after all routes are added.
+     *
+     * @throws IllegalArgumentException If a regex route is shadowed by a trie route.
+     */
+    void compile(String httpMethod) {
+        for (Callable rc : regexCallables) {
+            for (Callable tc : trieCallables) {
+                if (shadows(tc.path, rc.path)) {
+                    throw conflict(httpMethod, rc.path, tc.path);
+                }
+            }
+        }
+        List<Node> nodes = new ArrayList<Node>(1);
+        nodes.add(root);
+        this.start = compile(nodes, new HashMap<List<Node>, State>());
+    }
+
+    /**
+     * Build state from nodes ordered by priority. Nodes are shared by states
+     * with same nodes.
+     */
+    State compile(List<Node> nodes, Map<List<Node>, State> states) {
+        State state = states.get(nodes);
+        if (state != null) {
+            return state;
+        }
+        state = new State();
+        states.put(nodes, state);
+        for (Node node : nodes) {
+            if (node.callable != null) {
+                state.callable = node.callable;
+                state.varSegments = node.varSegments;
+                break;
+            }
+        }
+        // static segment goes to static child first, then variable child:
+        Map<String, State> children = new HashMap<String, State>();
+        for (Node node : nodes) {
+            for (String segment : node.staticChildren.keySet()) {
+                if (!children.containsKey(segment)) {
+                    List<Node> next = new ArrayList<Node>();
+                    for (Node n : nodes) {
+                        Node child = n.staticChildren.get(segment);
+                        if (child != null) {
+                            next.add(child);
+                        }
+                        if (n.varChild != null && !segment.isEmpty()) {
+                            next.add(n.varChild);
+                        }
+                    }
+                    children.put(segment, compile(next, states));
+                }
+            }
+        }
+        state.children = new RegionMap<State>(children);
+        // other segment goes to variable child only:
+        List<Node> next = new ArrayList<Node>();
+        for (Node n : nodes) {
+            if (n.varChild != null) {
+                next.add(n.varChild);
+            }
+        }
+        state.other = next.isEmpty() ? null : compile(next, states);
+        return state;
+    }
+
+    /**
+     * Is any path matched by regex route also matched by trie route which has
+     * variable segment where regex route is more specific?
+     */
+    static boolean shadows(String triePath, String regexPath) {
+        String[] ts = triePath.split("/", -1);
+        String[] rs = regexPath.split("/", -1);
+        if (ts.length != rs.length) {
+            return false;
+        }
+        boolean shadowed = false;
+        for (int i = 0; i < ts.length; i++) {
+            String t = ts[i];
+            String r = rs[i];
+            if (isVarSegment(t)) {
+                if (!isVarSegment(r)) {
+                    shadowed = true;
+                }
+            }
+            else if (isVarSegment(r)) {
+                // static segment of trie route is more specific
+            }
+            else if (isMixedSegment(r)) {
+                if (!Route.compile(r).pattern.matcher(t).matches()) {
+                    return false;
+                }
+            }
+            else if (!t.equals(r)) {
+                return false;
+            }
+        }
+        return shadowed;
+    }
+
+    /**
+     * Find matched callable and fill captures as [start0, end0, start1, end1, ...]
+     * offsets of path variables in the path.
+     *
+     * @param path Request path, or request uri with API path starts at offset.
+     * @param offset Start index of API path in path.
+     * @param captures Array with at least 2 * maxParameters elements.
+     * @return Callable object or null if not found.
+     */
+    Callable match(String path, int offset, int[] captures) {
+        State state = this.start;
+        int pos = offset;
+        for (;;) {
+            int next = path.indexOf('/', pos);
+            int end = next == (-1) ? path.length() : next;
+            State child = state.children.get(path, pos, end);
+            if (child == null && end > pos) {
+                child = state.other;
+            }
+            state = child;
+            if (state == null || next == (-1)) {
+                break;
+            }
+            pos = next + 1;
+        }
+        if (state != null && state.callable != null) {
+            capture(path, offset, state.varSegments, captures);
+            return state.callable;
+        }
+        for (Callable rc : regexCallables) {
+            if (rc.route.matches(path, offset, captures)) {
+                return rc;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fill captures by offsets of variable segments.
+     */
+    static void capture(String path, int offset, int[] varSegments, int[] captures) {
+        int segment = 0;
+        int pos = offset;
+        for (int i = 0; i < varSegments.length; i++) {
+            while (segment < varSegments[i]) {
+                pos = path.indexOf('/', pos) + 1;
+                segment++;
+            }
+            int next = path.indexOf('/', pos);
+            captures[i + i] = pos;
+            captures[i + i + 1] = next == (-1) ? path.length() : next;
+        }
+    }
+
+    /**
+     * Node of routes added.
+     */
+    static class Node {
+
+        final Map<String, Node> staticChildren = new LinkedHashMap<String, Node>();
+        Node varChild = null;
+        Callable callable = null;
+        // indexes of variable segments of callable:
+        int[] varSegments = null;
+    }
+
+    /**
+     * Compiled state which holds routes in priority order.
+     */
+    static class State {
+
+        // lookup static segment without substring:
+        RegionMap<State> children;
+        State other = null;
+        Callable callable = null;
+        int[] varSegments = null;
+    }
+}
@@ -1,15 +1,15 @@
 package com.itranswarp.jxrest;
 
-import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
-import java.lang.reflect.Parameter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -20,47 +20,67 @@ import org.apache.commons.logging.LogFactory;
 /**
  * A collection of Route objects.
  * 
+ * Routes are stored in an immutable RouteTable published by a volatile
+ * reference. Adding or removing routes builds a new table from a copy, so
+ * handlers can be changed at runtime without locking requests, and in-flight
+ * requests finish on the table they matched.
+ * 
  * @author Michael Liao
  */
 class Routes {
 
     Log log = LogFactory.getLog(getClass());
 
-    final Map<String, Callable> staticGetCallables = new HashMap<String, Callable>();
-    final Map<String, Callable> staticPostCallables = new HashMap<String, Callable>();
-    final Map<String, Callable> staticPutCallables = new HashMap<String, Callable>();
-    final Map<String, Callable> staticDeleteCallables = new HashMap<String, Callable>();
+    final Converters converters = new Converters();
 
-    final Map<String, Map<String, Callable>> staticMethods;
+    volatile RouteTable table = new RouteTable(Collections.<Callable>emptyList());
 
-    final List<Callable> regexGetCallables = new ArrayList<Callable>();
-    final List<Callable> regexPostCallables = new ArrayList<Callable>();
-    final List<Callable> regexPutCallables = new ArrayList<Callable>();
-    final List<Callable> regexDeleteCallables = new ArrayList<Callable>();
+    int maxConcurrentRequests = 0;
 
-    final Map<String, List<Callable>> regexMethods;
+    // max concurrent requests set by route, keyed by "GET /path":
+    final Map<String, Integer> routeMaxConcurrentRequests = new HashMap<String, Integer>();
 
     static List<Class<? extends Annotation>> HTTP_ANNOS = Arrays.asList(
             GET.class,
             POST.class,
             PUT.class,
-            DELETE.class);
+            DELETE.class,
+            PATCH.class);
 
-    Routes() {
-        staticMethods = new HashMap<String, Map<String, Callable>>();
-        staticMethods.put("GET", staticGetCallables);
-        staticMethods.put("POST", staticPostCallables);
-        staticMethods.put("PUT", staticPutCallables);
-        staticMethods.put("DELETE", staticDeleteCallables);
-        regexMethods = new HashMap<String, List<Callable>>();
-        regexMethods.put("GET", regexGetCallables);
-        regexMethods.put("POST", regexPostCallables);
-        regexMethods.put("PUT", regexPutCallables);
-        regexMethods.put("DELETE", regexDeleteCallables);
+    /**
+     * Get all callables of current table.
+     */
+    List<Callable> callables() {
+        return table.callables;
     }
 
     public void addHandler(Object handler) {
-        Class<?> clazz = handler.getClass();
+        update(null, createCallables(handler.getClass(), handler, null));
+    }
+
+    /**
+     * Add routes of handler which is created by holder on first call.
+     */
+    void addLazyHandler(HandlerHolder holder) {
+        update(null, createCallables(holder.handlerClass, null, holder));
+    }
+
+    /**
+     * Add routes of handler by generated RouteProvider without reflection.
+     */
+    void addHandler(Object handler, RouteProvider provider) {
+        update(null, createCallables(handler, provider));
+    }
+
+    void addHandler(Object handler, Class<?> clazz, Method method, String httpMethod, String path) {
+        update(null, Arrays.asList(createCallable(handler, null, clazz, method, httpMethod, path)));
+    }
+
+    /**
+     * Create callables of handler instance, or of handler held by holder if handler is null.
+     */
+    List<Callable> createCallables(Class<?> clazz, Object handler, HandlerHolder holder) {
+        List<Callable> list = new ArrayList<Callable>();
         for (Method m : Utils.getAllMethods(clazz)) {
             if (m.isAnnotationPresent(Path.class)) {
                 Annotation httpMethod = null;
@@ -83,7 +103,7 @@ class Routes {
                 if (Modifier.isAbstract(m.getModifiers())) {
                     throw new IllegalArgumentException("Invalid abstract method: " + clazz.getName() + "." + m.getName() + "()");
                 }
-                addHandler(handler, clazz, m, httpMethod.annotationType().getSimpleName(), m.getAnnotation(Path.class).value());
+                list.add(createCallable(handler, holder, clazz, m, httpMethod.annotationType().getSimpleName(), m.getAnnotation(Path.class).value()));
             }
             else {
                 for (Class<? extends Annotation> anno : HTTP_ANNOS) {
@@ -93,59 +113,245 @@ class Routes {
                 }
             }
         }
+        return list;
     }
 
-    void addHandler(Object handler, Class<?> clazz, Method method, String httpMethod, String path) {
-        Callable callable = new Callable(handler, clazz, method, httpMethod, path);
-        if (callable.isStatic) {
-            Map<String, Callable> map = staticMethods.get(httpMethod);
-            if (map.containsKey(path)) {
-                throw new IllegalArgumentException("Duplicate handler for " + httpMethod + " " + path);
+    /**
+     * Create callables of handler by generated RouteProvider.
+     */
+    List<Callable> createCallables(Object handler, RouteProvider provider) {
+        RouteRegistry registry = new RouteRegistry(this, handler, provider.handlerClass());
+        provider.register(handler, registry);
+        return registry.callables;
+    }
+
+    Callable createCallable(Object handler, HandlerHolder holder, Class<?> clazz, Method method, String httpMethod, String path) {
+        return holder == null
+                ? new Callable(handler, clazz, method, httpMethod, path, converters)
+                : new Callable(null, clazz, HandlerSignature.of(method), method, new LazyInvoker(holder, method), httpMethod, path, converters);
+    }
+
+    /**
+     * Remove callables matched by predicate and add new callables, then
+     * publish the new table in one step. The current table is unchanged if
+     * any route is duplicate or ambiguous.
+     * 
+     * @param removing Predicate of callables to remove, or null if remove nothing.
+     * @param adding Callables to add.
+     * @return Removed callables.
+     */
+    synchronized List<Callable> update(Predicate<Callable> removing, List<Callable> adding) {
+        List<Callable> removed = new ArrayList<Callable>();
+        List<Callable> list = new ArrayList<Callable>(table.callables.size() + adding.size());
+        for (Callable c : table.callables) {
+            if (removing != null && removing.test(c)) {
+                removed.add(c);
             }
-            map.put(path, callable);
-            log.info(httpMethod + ": " + path + ", handler: " + toHandlerString(clazz, method));
-        }
-        else {
-            List<Callable> callables = this.regexMethods.get(httpMethod);
-            // check if duplicate:
-            for (Callable c : callables) {
-                if (c.path.equals(path)) {
-                    throw new IllegalArgumentException("Duplicate handler for " + httpMethod + " " + path);
-                }
+            else {
+                list.add(c);
             }
-            callables.add(callable);
-            log.info(httpMethod + ": " + path + ", handler: " + toHandlerString(clazz, method));
         }
+        for (Callable c : adding) {
+            // route replaced or added again keeps its own limit:
+            Integer max = routeMaxConcurrentRequests.get(c.httpMethod + " " + c.path);
+            c.setMaxConcurrentRequests(max == null ? maxConcurrentRequests : max);
+            list.add(c);
+        }
+        // throws IllegalArgumentException if duplicate or ambiguous:
+        this.table = new RouteTable(list);
+        for (Callable c : removed) {
+            log.info("Removed " + c.httpMethod + ": " + c.path + ", handler: " + c.handlerString);
+        }
+        for (Callable c : adding) {
+            log.info(c.httpMethod + ": " + c.path + ", handler: " + c.handlerString);
+        }
+        return removed;
     }
 
-    String toHandlerString(Class<?> clazz, Method method) {
-        List<String> paramNames = new ArrayList<String>();
-        for (Parameter param : method.getParameters()) {
-            paramNames.add(param.getName());
+    /**
+     * Set max concurrent requests for all routes.
+     */
+    synchronized void setMaxConcurrentRequests(int max) {
+        for (Callable c : table.callables) {
+            if (!routeMaxConcurrentRequests.containsKey(c.httpMethod + " " + c.path)) {
+                c.setMaxConcurrentRequests(max);
+            }
         }
-        return clazz.getName() + "." + method.getName() + "(" + String.join(", ", paramNames) + ")";
+        this.maxConcurrentRequests = max;
     }
 
-    public Object call(String httpMethod, String path, JsonCallback jsonCallback, HttpServletRequest request, HttpServletResponse response) throws Exception {
-        // try find static handler:
-        Callable sc = staticMethods.get(httpMethod).get(path);
-        if (sc != null) {
-            return sc.call(null, jsonCallback, request, response);
+    /**
+     * Set max concurrent requests of route, which is kept when the route is
+     * replaced.
+     */
+    synchronized void setMaxConcurrentRequests(String httpMethod, String path, int max) {
+        for (Callable c : table.callables) {
+            if (c.httpMethod.equals(httpMethod) && c.path.equals(path)) {
+                c.setMaxConcurrentRequests(max);
+            }
         }
-        // try find regex handler:
-        List<Callable> list = regexMethods.get(httpMethod);
-        for (Callable c : list) {
-            Map<String, String> pathValues = c.route.matches(path);
-            if (pathValues != null) {
-                return c.call(pathValues, jsonCallback, request, response);
+        routeMaxConcurrentRequests.put(httpMethod + " " + path, max);
+    }
+
+    /**
+     * Find registered callable by http method and path template.
+     * 
+     * @return Callable object, or null if not found.
+     */
+    Callable getCallable(String httpMethod, String path) {
+        for (Callable c : table.callables) {
+            if (c.httpMethod.equals(httpMethod) && c.path.equals(path)) {
+                return c;
             }
         }
-        throw new ApiNotFoundException();
+        return null;
+    }
+
+    /**
+     * Find matched route.
+     * 
+     * @return RouteMatch object, or null if not found.
+     */
+    RouteMatch match(String httpMethod, String path) {
+        int method = HttpMethod.indexOf(httpMethod);
+        return method < 0 || method >= HttpMethod.ROUTES ? null : table.match(method, path, 0);
+    }
+
+    /**
+     * Get "Allow" header of API path starts at offset of request uri.
+     * 
+     * @return Allowed methods like "GET, HEAD, OPTIONS", or null if no route matches.
+     */
+    String allow(String uri, int offset) {
+        return table.allow(uri, offset);
+    }
+
+    /**
+     * Find matched route of API path starts at offset of request uri.
+     * 
+     * @param method Index of HttpMethod.
+     * @return RouteMatch object, or null if not found.
+     */
+    RouteMatch match(int method, String uri, int offset) {
+        return table.match(method, uri, offset);
+    }
+
+    public Object call(String httpMethod, String path, JsonCallback jsonCallback, HttpServletRequest request, HttpServletResponse response) throws Exception {
+        RouteMatch match = match(httpMethod, path);
+        if (match == null) {
+            throw new ApiNotFoundException();
+        }
+        return match.call(jsonCallback, request, response);
     }
 }
 
-interface JsonCallback {
+/**
+ * Immutable route tables built from callables, never changed after created.
+ * Tables are stored in arrays indexed by HttpMethod.
+ * 
+ * @author Michael Liao
+ */
+class RouteTable {
 
-    Object getJson(Class<?> type) throws IOException;
+    final List<Callable> callables;
+    final RegionMap<Callable>[] staticMethods;
+    final RouteTrie[] regexMethods;
+    // precomputed "Allow" header of each static path:
+    final RegionMap<String> staticAllows;
 
+    /**
+     * Build tables.
+     * 
+     * @throws IllegalArgumentException If any route is duplicate or ambiguous.
+     */
+    @SuppressWarnings("unchecked")
+    RouteTable(List<Callable> callables) {
+        this.callables = Collections.unmodifiableList(callables);
+        int n = HttpMethod.ROUTES;
+        List<Map<String, Callable>> statics = new ArrayList<Map<String, Callable>>(n);
+        this.staticMethods = (RegionMap<Callable>[]) new RegionMap<?>[n];
+        this.regexMethods = new RouteTrie[n];
+        for (int i = 0; i < n; i++) {
+            statics.add(new HashMap<String, Callable>());
+            regexMethods[i] = new RouteTrie();
+        }
+        for (Callable callable : callables) {
+            String httpMethod = callable.httpMethod;
+            int index = HttpMethod.indexOf(httpMethod);
+            if (callable.isStatic) {
+                Map<String, Callable> map = statics.get(index);
+                if (map.containsKey(callable.path)) {
+                    throw new IllegalArgumentException("Duplicate handler for " + httpMethod + " " + callable.path);
+                }
+                map.put(callable.path, callable);
+            }
+            else {
+                // throws IllegalArgumentException if duplicate or ambiguous:
+                regexMethods[index].add(httpMethod, callable);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            staticMethods[i] = new RegionMap<Callable>(statics.get(i));
+            // throws IllegalArgumentException if regex route is shadowed:
+            regexMethods[i].compile(HttpMethod.NAMES[i]);
+        }
+        Map<String, String> allows = new HashMap<String, String>();
+        for (Callable callable : callables) {
+            if (callable.isStatic && !allows.containsKey(callable.path)) {
+                allows.put(callable.path, HttpMethod.ALLOWS[allowMask(callable.path, 0)]);
+            }
+        }
+        this.staticAllows = new RegionMap<String>(allows);
+    }
+
+    /**
+     * Get "Allow" header of path, or null if no route matches.
+     * 
+     * @param path Request path, or request uri with API path starts at offset.
+     * @param offset Start index of API path.
+     */
+    String allow(String path, int offset) {
+        String allow = staticAllows.get(path, offset, path.length());
+        if (allow != null) {
+            return allow;
+        }
+        int mask = allowMask(path, offset);
+        return mask == 0 ? null : HttpMethod.ALLOWS[mask];
+    }
+
+    /**
+     * Get bit mask of methods which have route matches path.
+     */
+    int allowMask(String path, int offset) {
+        int mask = 0;
+        for (int i = 0; i < HttpMethod.ROUTES; i++) {
+            if (match(i, path, offset) != null) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Find matched route without allocating string.
+     * 
+     * @param method Index of HttpMethod.
+     * @param path Request path, or request uri with API path starts at offset.
+     * @param offset Start index of API path.
+     */
+    RouteMatch match(int method, String path, int offset) {
+        // try find static handler:
+        Callable sc = staticMethods[method].get(path, offset, path.length());
+        if (sc != null) {
+            return sc.staticMatch;
+        }
+        // try find regex handler:
+        RouteTrie trie = regexMethods[method];
+        int[] captures = new int[trie.maxParameters * 2];
+        Callable c = trie.match(path, offset, captures);
+        if (c != null) {
+            return new RouteMatch(c, path, offset, captures);
+        }
+        return null;
+    }
 }
@@ -0,0 +1,81 @@
+package com.itranswarp.jxrest;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free pool of objects. Each thread probes a few slots starting
+ * from a slot selected by its thread id, so threads rarely touch the same slot.
+ * 
+ * @author Michael Liao
+ */
+class StripedPool<T> {
+
+    // number of slots probed by each poll or offer:
+    static final int PROBES = 4;
+
+    final AtomicReferenceArray<T> slots;
+    final int mask;
+
+    StripedPool(int maxObjects) {
+        if (maxObjects <= 0) {
+            throw new IllegalArgumentException("Invalid max objects: " + maxObjects);
+        }
+        int n = 1;
+        while (n < maxObjects) {
+            n = n << 1;
+        }
+        this.slots = new AtomicReferenceArray<T>(n);
+        this.mask = n - 1;
+    }
+
+    /**
+     * Take an object from pool.
+     * 
+     * @return Object or null if no object is found.
+     */
+    T poll() {
+        int start = start();
+        for (int i = 0; i < PROBES; i++) {
+            int index = (start + i) & mask;
+            T t = slots.get(index);
+            if (t != null && slots.compareAndSet(index, t, null)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Put an object into pool.
+     * 
+     * @return False if no free slot is found.
+     */
+    boolean offer(T t) {
+        int start = start();
+        for (int i = 0; i < PROBES; i++) {
+            int index = (start + i) & mask;
+            if (slots.get(index) == null && slots.compareAndSet(index, null, t)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count pooled objects.
+     */
+    int size() {
+        int n = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    int start() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32)) * PROBES;
+    }
+}
@@ -0,0 +1,191 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Reader that decodes UTF-8 bytes from InputStream directly by a byte buffer.
+ * No more than contentLength bytes are read if contentLength is known, and
+ * RequestTooLargeException is thrown if more than maxBytes bytes are read.
+ * 
+ * @author Michael Liao
+ */
+class Utf8Reader extends Reader {
+
+    static final char REPLACEMENT = '\ufffd';
+
+    final InputStream input;
+    final byte[] buffer;
+    final long maxBytes;
+    // remaining bytes to read, or -1 if unknown:
+    long remaining;
+    long total = 0;
+    int pos = 0;
+    int end = 0;
+    boolean eof = false;
+    char pendingLowSurrogate = 0;
+
+    Utf8Reader(InputStream input, byte[] buffer, long contentLength, long maxBytes) {
+        this.input = input;
+        this.buffer = buffer;
+        this.remaining = contentLength;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Create reader to decode bytes which are already read.
+     */
+    Utf8Reader(byte[] data, int length) {
+        this(null, data, 0, Long.MAX_VALUE);
+        this.end = length;
+        this.eof = true;
+    }
+
+    /**
+     * Move unread bytes to the head of buffer and read more bytes.
+     * 
+     * @return False if no more bytes.
+     */
+    boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, end - pos);
+            end = end - pos;
+            pos = 0;
+        }
+        int len = buffer.length - end;
+        if (remaining >= 0 && remaining < len) {
+            len = (int) remaining;
+        }
+        if (len == 0) {
+            eof = true;
+            return false;
+        }
+        int n = input.read(buffer, end, len);
+        if (n == (-1)) {
+            eof = true;
+            return false;
+        }
+        end += n;
+        total += n;
+        if (remaining > 0) {
+            remaining -= n;
+        }
+        if (total > maxBytes) {
+            throw new RequestTooLargeException();
+        }
+        return true;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        if (pendingLowSurrogate != 0) {
+            cbuf[off + n++] = pendingLowSurrogate;
+            pendingLowSurrogate = 0;
+        }
+        final byte[] buf = this.buffer;
+        while (n < len) {
+            // fast path for ascii:
+            while (n < len && pos < end && buf[pos] >= 0) {
+                cbuf[off + n++] = (char) buf[pos++];
+            }
+            if (n == len) {
+                break;
+            }
+            if (pos == end) {
+                // do not block if some chars are ready:
+                if (n > 0 || !fill()) {
+                    break;
+                }
+                continue;
+            }
+            int b = buf[pos] & 0xff;
+            int size = b >= 0xf0 ? 4 : (b >= 0xe0 ? 3 : (b >= 0xc0 ? 2 : 1));
+            if (end - pos < size) {
+                if (n > 0) {
+                    break;
+                }
+                if (!fill() && end - pos < size) {
+                    // truncated sequence at end of stream:
+                    pos = end;
+                    cbuf[off + n++] = REPLACEMENT;
+                }
+                continue;
+            }
+            int cp = decode(buf, pos, size);
+            if (cp < 0) {
+                pos++;
+                cbuf[off + n++] = REPLACEMENT;
+            }
+            else if (cp < 0x10000) {
+                pos += size;
+                cbuf[off + n++] = (char) cp;
+            }
+            else {
+                pos += size;
+                cbuf[off + n++] = Character.highSurrogate(cp);
+                if (n < len) {
+                    cbuf[off + n++] = Character.lowSurrogate(cp);
+                }
+                else {
+                    pendingLowSurrogate = Character.lowSurrogate(cp);
+                }
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    /**
+     * Decode code point from bytes, or return -1 if bytes are malformed.
+     */
+    static int decode(byte[] buf, int pos, int size) {
+        int b = buf[pos] & 0xff;
+        int cp;
+        int min;
+        switch (size) {
+        case 2:
+            cp = b & 0x1f;
+            min = 0x80;
+            break;
+        case 3:
+            cp = b & 0x0f;
+            min = 0x800;
+            break;
+        case 4:
+            if (b > 0xf4) {
+                return -1;
+            }
+            cp = b & 0x07;
+            min = 0x10000;
+            break;
+        default:
+            // unexpected continuation byte:
+            return -1;
+        }
+        for (int i = 1; i < size; i++) {
+            int c = buf[pos + i] & 0xff;
+            if ((c & 0xc0) != 0x80) {
+                return -1;
+            }
+            cp = (cp << 6) | (c & 0x3f);
+        }
+        if (cp < min || cp > 0x10ffff || (cp >= 0xd800 && cp <= 0xdfff)) {
+            return -1;
+        }
+        return cp;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (input != null) {
+            input.close();
+        }
+    }
+}
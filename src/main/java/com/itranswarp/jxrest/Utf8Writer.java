@@ -0,0 +1,206 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writer that encodes chars as UTF-8 directly into a byte buffer, and writes
+ * bytes to the servlet OutputStream. If the whole body fits in the buffer, the
+ * Content-Length is set when closed. Otherwise the buffer is flushed each time
+ * it is full and the container sends the body as chunked.
+ * 
+ * If compression is set, a body not smaller than the threshold is compressed:
+ * the whole buffer at once with Content-Length, or as a compressed stream if
+ * the body does not fit in the buffer.
+ * 
+ * Utf8Writer can also write to a given OutputStream, which is used when the
+ * body must be buffered before sending.
+ * 
+ * @author Michael Liao
+ */
+class Utf8Writer extends Writer {
+
+    final HttpServletResponse response;
+    final byte[] buffer;
+    final int limit;
+    int count = 0;
+    char highSurrogate = 0;
+    OutputStream output = null;
+    boolean closed = false;
+    Compression compression = null;
+    int encoding = Compression.NONE;
+    CompressingOutputStream compressor = null;
+
+    Utf8Writer(HttpServletResponse response, byte[] buffer) {
+        this.response = response;
+        this.buffer = buffer;
+        // reserve 4 bytes for any encoded char:
+        this.limit = buffer.length - 4;
+    }
+
+    Utf8Writer(OutputStream output, byte[] buffer) {
+        this((HttpServletResponse) null, buffer);
+        this.output = output;
+    }
+
+    /**
+     * Compress body by encoding negotiated with client.
+     */
+    void setCompression(Compression compression, int encoding) {
+        this.compression = compression;
+        this.encoding = encoding;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (count > limit) {
+            flushBuffer();
+        }
+        encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (count > limit) {
+                flushBuffer();
+            }
+            encode(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            if (count > limit) {
+                flushBuffer();
+            }
+            encode(str.charAt(i));
+        }
+    }
+
+    void encode(char c) {
+        byte[] buf = this.buffer;
+        if (c < 0x80 && highSurrogate == 0) {
+            buf[count++] = (byte) c;
+        }
+        else if (Character.isHighSurrogate(c)) {
+            if (highSurrogate != 0) {
+                buf[count++] = '?';
+            }
+            highSurrogate = c;
+        }
+        else if (Character.isLowSurrogate(c)) {
+            if (highSurrogate == 0) {
+                buf[count++] = '?';
+                return;
+            }
+            int cp = Character.toCodePoint(highSurrogate, c);
+            highSurrogate = 0;
+            buf[count++] = (byte) (0xf0 | (cp >> 18));
+            buf[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            buf[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            buf[count++] = (byte) (0x80 | (cp & 0x3f));
+        }
+        else {
+            if (highSurrogate != 0) {
+                // unpaired high surrogate:
+                highSurrogate = 0;
+                buf[count++] = '?';
+                encode(c);
+            }
+            else if (c < 0x800) {
+                buf[count++] = (byte) (0xc0 | (c >> 6));
+                buf[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else {
+                buf[count++] = (byte) (0xe0 | (c >> 12));
+                buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[count++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Is the body already sent partially?
+     */
+    boolean isStreaming() {
+        return output != null && response != null;
+    }
+
+    void flushBuffer() throws IOException {
+        if (output == null) {
+            output = response.getOutputStream();
+            if (encoding != Compression.NONE) {
+                response.setHeader("Content-Encoding", Compression.ENCODINGS[encoding]);
+                output = compressor = compression.createOutputStream(output, encoding);
+            }
+        }
+        output.write(buffer, 0, count);
+        count = 0;
+    }
+
+    /**
+     * Do nothing, buffered bytes are written when buffer is full or writer is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+    }
+
+    /**
+     * Send buffered bytes to client immediately, and the body is sent as
+     * chunked. Used when writing a stream result.
+     */
+    void flushNow() throws IOException {
+        flushBuffer();
+        output.flush();
+    }
+
+    /**
+     * Release compressor if the response is aborted before closed.
+     */
+    void discard() {
+        closed = true;
+        if (compressor != null) {
+            compressor.discard();
+        }
+    }
+
+    /**
+     * Write remaining bytes. Content-Length is set if nothing was sent before.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            buffer[count++] = '?';
+        }
+        if (output == null) {
+            if (encoding != Compression.NONE && count >= compression.threshold) {
+                byte[] data = compression.compress(buffer, 0, count, encoding);
+                response.setHeader("Content-Encoding", Compression.ENCODINGS[encoding]);
+                response.setContentLength(data.length);
+                output = response.getOutputStream();
+                output.write(data);
+                output.flush();
+                return;
+            }
+            encoding = Compression.NONE;
+            response.setContentLength(count);
+        }
+        flushBuffer();
+        if (compressor != null) {
+            compressor.finish();
+        }
+        output.flush();
+    }
+}
@@ -1,8 +1,12 @@
 package com.itranswarp.jxrest;
 
+import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
+import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Utils for internal use only.
@@ -21,4 +25,114 @@ class Utils {
         }
         return methods;
     }
+
+    /**
+     * Split comma-separated list like "a, b," to ["a", "b"].
+     */
+    static List<String> splitList(String s) {
+        return Stream.of(s.split("\\,")).map((x) -> {
+            return x.trim();
+        }).filter((x) -> {
+            return !x.isEmpty();
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * Find value of query parameter in raw query string without substring.
+     * Name is compared as is, and the first value is returned if the
+     * parameter has multiple values.
+     * 
+     * @param query Raw query string like "page=1&amp;limit=20", or null.
+     * @param name Name of query parameter.
+     * @return Offsets of value as (start &lt;&lt; 32 | end), or -1 if not found.
+     */
+    static long findQuery(String query, String name) {
+        if (query == null) {
+            return -1;
+        }
+        int len = query.length();
+        int nameLen = name.length();
+        int start = 0;
+        while (start < len) {
+            int end = query.indexOf('&', start);
+            if (end == (-1)) {
+                end = len;
+            }
+            int keyEnd = start + nameLen;
+            if (keyEnd <= end && query.startsWith(name, start)) {
+                if (keyEnd == end) {
+                    return ((long) end << 32) | end;
+                }
+                if (query.charAt(keyEnd) == '=') {
+                    return ((long) (keyEnd + 1) << 32) | end;
+                }
+            }
+            start = end + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Decode string encoded by application/x-www-form-urlencoded.
+     */
+    static String urlDecode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parse long from s[start, end) without substring, same as Long.parseLong().
+     */
+    static long parseLong(CharSequence s, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("For input string: \"\"");
+        }
+        boolean negative = false;
+        long limit = -Long.MAX_VALUE;
+        int i = start;
+        char first = s.charAt(i);
+        if (first == '-' || first == '+') {
+            if (first == '-') {
+                negative = true;
+                limit = Long.MIN_VALUE;
+            }
+            i ++;
+            if (i == end) {
+                throw numberFormatException(s, start, end);
+            }
+        }
+        long multmin = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < multmin) {
+                throw numberFormatException(s, start, end);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw numberFormatException(s, start, end);
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Parse int from s[start, end) without substring, same as Integer.parseInt().
+     */
+    static int parseInt(CharSequence s, int start, int end) {
+        long n = parseLong(s, start, end);
+        if (n < Integer.MIN_VALUE || n > Integer.MAX_VALUE) {
+            throw numberFormatException(s, start, end);
+        }
+        return (int) n;
+    }
+
+    static NumberFormatException numberFormatException(CharSequence s, int start, int end) {
+        return new NumberFormatException("For input string: \"" + s.subSequence(start, end) + "\"");
+    }
 }
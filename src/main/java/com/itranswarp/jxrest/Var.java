@@ -1,5 +1,7 @@
 package com.itranswarp.jxrest;
 
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
@@ -7,7 +9,7 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * A Var holds information of a method argument.
- * 
+ *
  * @author Michael Liao
  */
 class Var {
@@ -17,37 +19,89 @@ class Var {
     static final int QUERY_VAR = 2;
     static final int REQUEST_VAR = 3;
     static final int RESPONSE_VAR = 4;
+    static final int QUERY_PARAM_VAR = 5;
 
     final int varType;
     final Class<?> argType;
     final String name;
     final int index;
+    // position of path variable in route, or -1 if not a path variable:
+    final int pathIndex;
+    final ArgumentResolver resolver;
 
-    Var(int varType, Class<?> argType, String name, int index) {
+    Var(int varType, Class<?> argType, String name, int index, int pathIndex, ArgumentResolver resolver) {
         this.varType = varType;
         this.argType = argType;
         this.name = name;
         this.index = index;
+        this.pathIndex = pathIndex;
+        this.resolver = resolver;
     }
 
-    static Var createPathVar(Class<?> argType, String name, int index) {
-        return new Var(PATH_VAR, argType, name, index);
+    static Var createPathVar(Class<?> argType, String name, int index, int pathIndex, Converter<?> converter) {
+        ArgumentResolver resolver;
+        if (converter == Converters.INT_CONVERTER) {
+            resolver = new IntPathResolver(pathIndex);
+        }
+        else if (converter == Converters.LONG_CONVERTER) {
+            resolver = new LongPathResolver(pathIndex);
+        }
+        else {
+            resolver = new PathResolver(pathIndex, converter);
+        }
+        return new Var(PATH_VAR, argType, name, index, pathIndex, resolver);
     }
 
     static Var createJsonVar(Class<?> type, String name, int index) {
-        return new Var(JSON_VAR, type, name, index);
+        return new Var(JSON_VAR, type, name, index, -1, (path, captures, jsonCallback, request, response) -> {
+            return jsonCallback.getJson(type);
+        });
     }
 
     static Var createRequestVar(String name, int index) {
-        return new Var(REQUEST_VAR, HttpServletRequest.class, name, index);
+        return new Var(REQUEST_VAR, HttpServletRequest.class, name, index, -1, (path, captures, jsonCallback, request, response) -> {
+            return request;
+        });
     }
 
     static Var createQueryVar(String name, int index) {
-        return new Var(QUERY_VAR, Map.class, name, index);
+        return new Var(QUERY_VAR, Map.class, name, index, -1, (path, captures, jsonCallback, request, response) -> {
+            return createQuery(request);
+        });
+    }
+
+    /**
+     * Create var of query parameter annotated by &#64;Query.
+     * 
+     * @param queryName Name of query parameter.
+     * @param defaultValue Default value as string, or null if no default.
+     */
+    static Var createQueryParamVar(Class<?> argType, String name, int index, String queryName, String defaultValue, Converter<?> converter) {
+        Object value = null;
+        if (defaultValue != null) {
+            try {
+                value = converter.convert(defaultValue);
+            }
+            catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid default value \"" + defaultValue + "\" of query parameter: " + queryName, e);
+            }
+        }
+        return new Var(QUERY_PARAM_VAR, argType, name, index, -1, new QueryResolver(queryName, converter, value, argType.isPrimitive()));
     }
 
     static Var createResponseVar(String name, int index) {
-        return new Var(RESPONSE_VAR, HttpServletResponse.class, name, index);
+        return new Var(RESPONSE_VAR, HttpServletResponse.class, name, index, -1, (path, captures, jsonCallback, request, response) -> {
+            return response;
+        });
+    }
+
+    static Map<String, String> createQuery(HttpServletRequest request) {
+        Map<String, String> map = new HashMap<String, String>();
+        for (Enumeration<String> e = request.getParameterNames(); e.hasMoreElements(); ) {
+            String key = e.nextElement();
+            map.put(key, request.getParameter(key));
+        }
+        return map;
     }
 
 }
@@ -0,0 +1,74 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AccessLogTest {
+
+    File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("access-", ".log");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testLog() throws Exception {
+        AccessLog accessLog = new AccessLog(file.getPath(), 1.0, 16);
+        accessLog.log(0L, "GET", "/users/:id", 200, 123, 456000);
+        accessLog.log(1000L, "POST", null, 404, 0, 1000);
+        accessLog.close();
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertEquals("{\"time\":\"1970-01-01T00:00:00Z\",\"method\":\"GET\",\"route\":\"/users/:id\",\"status\":200,\"bytes\":123,\"duration\":456}", lines.get(0));
+        assertEquals("{\"time\":\"1970-01-01T00:00:01Z\",\"method\":\"POST\",\"route\":null,\"status\":404,\"bytes\":0,\"duration\":1}", lines.get(1));
+    }
+
+    @Test
+    public void testManyThreads() throws Exception {
+        AccessLog accessLog = new AccessLog(file.getPath(), 1.0, 1 << 16);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 5000; n++) {
+                    accessLog.log(System.currentTimeMillis(), "GET", "/test", 200, n, n);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        accessLog.close();
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(20000 - accessLog.dropped.sum(), lines.size());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        AccessLog accessLog = new AccessLog(file.getPath(), 1.0, 4);
+        // stop consumer by claiming all slots without publishing:
+        accessLog.tail.addAndGet(4);
+        accessLog.log(0L, "GET", "/test", 200, 0, 0);
+        assertEquals(1, accessLog.dropped.sum());
+        accessLog.close();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidSampleRate() throws Exception {
+        new AccessLog(file.getPath(), 0, 16);
+    }
+}
@@ -0,0 +1,132 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Test;
+
+public class ClassFinderTest {
+
+    @Test
+    public void testFindClassesInDir() {
+        List<String> names = names(new ClassFinder().findClasses("com.itranswarp.jxrest.handler"));
+        assertTrue(names.contains("com.itranswarp.jxrest.handler.UserHandler"));
+        assertTrue(names.contains("com.itranswarp.jxrest.handler.User"));
+        assertFalse(names.contains("com.itranswarp.jxrest.RestApiHandler"));
+    }
+
+    @Test
+    public void testFindClassByName() {
+        List<String> names = names(new ClassFinder().findClasses("com.itranswarp.jxrest.handler.UserHandler", "com.itranswarp.jxrest.handler"));
+        assertEquals("com.itranswarp.jxrest.handler.UserHandler", names.get(0));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testPackageNotFound() {
+        new ClassFinder().findClasses("com.itranswarp.notfound");
+    }
+
+    @Test
+    public void testFindClassesInJar() throws Exception {
+        // put classes of two packages into a jar:
+        File jar = File.createTempFile("handlers-", ".jar");
+        try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar))) {
+            output.putNextEntry(new JarEntry("com/itranswarp/jxrest/"));
+            output.putNextEntry(new JarEntry("com/itranswarp/jxrest/handler/"));
+            addEntry(output, "com/itranswarp/jxrest/handler/UserHandler.class");
+            addEntry(output, "com/itranswarp/jxrest/handler/User.class");
+            addEntry(output, "com/itranswarp/jxrest/handler/Entity.class");
+            addEntry(output, "com/itranswarp/jxrest/Cached.class");
+        }
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, null)) {
+            Thread.currentThread().setContextClassLoader(loader);
+            ClassFinder finder = new ClassFinder();
+            List<String> classNames = finder.findClassNames("com.itranswarp.jxrest.handler", "com.itranswarp.jxrest");
+            assertEquals("[com.itranswarp.jxrest.handler.Entity, com.itranswarp.jxrest.handler.User, com.itranswarp.jxrest.handler.UserHandler, com.itranswarp.jxrest.Cached]", classNames.toString());
+            List<Class<?>> classes = finder.loadClasses(classNames);
+            assertSame(loader, classes.get(0).getClassLoader());
+        }
+        finally {
+            Thread.currentThread().setContextClassLoader(old);
+            jar.delete();
+        }
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        File index = File.createTempFile("handlers-", ".idx");
+        index.delete();
+        try {
+            ClassFinder finder = new ClassFinder();
+            List<String> names = names(finder.findClasses(index, "com.itranswarp.jxrest.handler"));
+            assertTrue(index.isFile());
+            String stamp = finder.stampOf("com.itranswarp.jxrest.handler");
+            assertEquals(names, finder.readIndex(index, "com.itranswarp.jxrest.handler", stamp));
+            // index of other handlers is ignored:
+            assertNull(finder.readIndex(index, "com.itranswarp.jxrest", stamp));
+            assertEquals(names, names(finder.findClasses(index, "com.itranswarp.jxrest.handler")));
+        }
+        finally {
+            index.delete();
+        }
+    }
+
+    @Test
+    public void testIndexOfChangedJar() throws Exception {
+        File index = File.createTempFile("handlers-", ".idx");
+        File jar = File.createTempFile("handlers-", ".jar");
+        try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar))) {
+            output.putNextEntry(new JarEntry("com/itranswarp/jxrest/handler/"));
+            addEntry(output, "com/itranswarp/jxrest/handler/User.class");
+        }
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, null)) {
+            Thread.currentThread().setContextClassLoader(loader);
+            ClassFinder finder = new ClassFinder();
+            String key = "com.itranswarp.jxrest.handler";
+            finder.writeIndex(index, key, finder.stampOf(key), finder.findClassNames(key));
+            assertEquals("[com.itranswarp.jxrest.handler.User]", finder.readIndex(index, key, finder.stampOf(key)).toString());
+            // add class to jar:
+            try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar))) {
+                output.putNextEntry(new JarEntry("com/itranswarp/jxrest/handler/"));
+                addEntry(output, "com/itranswarp/jxrest/handler/User.class");
+                addEntry(output, "com/itranswarp/jxrest/handler/Entity.class");
+            }
+            jar.setLastModified(jar.lastModified() + 2000);
+            assertNull(finder.readIndex(index, key, finder.stampOf(key)));
+        }
+        finally {
+            Thread.currentThread().setContextClassLoader(old);
+            jar.delete();
+            index.delete();
+        }
+    }
+
+    void addEntry(JarOutputStream output, String name) throws Exception {
+        output.putNextEntry(new JarEntry(name));
+        File file = new File("target/test-classes/" + name);
+        if (!file.exists()) {
+            file = new File("target/classes/" + name);
+        }
+        output.write(Files.readAllBytes(file.toPath()));
+        output.closeEntry();
+    }
+
+    static List<String> names(List<Class<?>> classes) {
+        List<String> names = new ArrayList<String>();
+        for (Class<?> clazz : classes) {
+            names.add(clazz.getName());
+        }
+        return names;
+    }
+}
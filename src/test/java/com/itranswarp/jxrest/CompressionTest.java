@@ -0,0 +1,89 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+public class CompressionTest {
+
+    @Test
+    public void testNegotiate() {
+        assertEquals(Compression.NONE, Compression.negotiate(null));
+        assertEquals(Compression.NONE, Compression.negotiate(""));
+        assertEquals(Compression.NONE, Compression.negotiate("br, identity"));
+        assertEquals(Compression.GZIP, Compression.negotiate("gzip, deflate, br"));
+        assertEquals(Compression.GZIP, Compression.negotiate("deflate, GZIP"));
+        assertEquals(Compression.DEFLATE, Compression.negotiate("deflate"));
+        assertEquals(Compression.DEFLATE, Compression.negotiate("gzip;q=0, deflate;q=0.5"));
+        assertEquals(Compression.NONE, Compression.negotiate("gzip; q=0.0"));
+        assertEquals(Compression.GZIP, Compression.negotiate("*"));
+        // "*" does not select refused encoding:
+        assertEquals(Compression.DEFLATE, Compression.negotiate("gzip;q=0, *"));
+        assertEquals(Compression.DEFLATE, Compression.negotiate("*, gzip;q=0"));
+        assertEquals(Compression.NONE, Compression.negotiate("gzip;q=0, deflate;q=0, *"));
+        assertEquals(Compression.NONE, Compression.negotiate("*;q=0"));
+    }
+
+    @Test
+    public void testCompressGzip() throws Exception {
+        Compression compression = new Compression(0);
+        byte[] data = randomText(100000);
+        byte[] gzip = compression.compress(data, 0, data.length, Compression.GZIP);
+        assertTrue(gzip.length < data.length);
+        assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+        // compressor is reused:
+        assertEquals(1, compression.compressors.size());
+        byte[] again = compression.compress(data, 0, data.length, Compression.GZIP);
+        assertArrayEquals(gzip, again);
+    }
+
+    @Test
+    public void testCompressDeflate() throws Exception {
+        Compression compression = new Compression(0);
+        byte[] data = randomText(100000);
+        byte[] deflate = compression.compress(data, 0, data.length, Compression.DEFLATE);
+        assertArrayEquals(data, readAll(new InflaterInputStream(new ByteArrayInputStream(deflate))));
+    }
+
+    @Test
+    public void testOutputStream() throws Exception {
+        Compression compression = new Compression(0);
+        byte[] data = randomText(100000);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CompressingOutputStream output = compression.createOutputStream(target, Compression.GZIP);
+        for (int i = 0; i < data.length; i += 1000) {
+            output.write(data, i, Math.min(1000, data.length - i));
+        }
+        output.finish();
+        output.finish();
+        assertArrayEquals(data, readAll(new GZIPInputStream(new ByteArrayInputStream(target.toByteArray()))));
+        assertEquals(1, compression.compressors.size());
+    }
+
+    static byte[] randomText(int size) {
+        Random random = new Random(123);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = input.read(buffer)) != -1) {
+            output.write(buffer, 0, n);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,111 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.Test;
+
+public class InflatingInputStreamTest {
+
+    InflaterPool pool = new InflaterPool(4);
+
+    @Test
+    public void testGzip() throws Exception {
+        byte[] data = CompressionTest.randomText(100000);
+        assertArrayEquals(data, inflate(gzip(data), Compression.GZIP, 1000000));
+    }
+
+    @Test
+    public void testGzipWithFileName() throws Exception {
+        byte[] data = CompressionTest.randomText(1000);
+        byte[] gzip = gzip(data);
+        // set FNAME flag and insert "a.json\0" after 10-byte header:
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(gzip, 0, 10);
+        output.write("a.json\0".getBytes("UTF-8"));
+        output.write(gzip, 10, gzip.length - 10);
+        byte[] named = output.toByteArray();
+        named[3] = InflatingInputStream.FNAME;
+        assertArrayEquals(data, inflate(named, Compression.GZIP, 1000000));
+    }
+
+    @Test
+    public void testZlib() throws Exception {
+        byte[] data = CompressionTest.randomText(100000);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(output)) {
+            deflater.write(data);
+        }
+        assertArrayEquals(data, inflate(output.toByteArray(), Compression.DEFLATE, 1000000));
+    }
+
+    @Test
+    public void testRawDeflate() throws Exception {
+        byte[] data = CompressionTest.randomText(100000);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(output, new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+            deflater.write(data);
+        }
+        assertArrayEquals(data, inflate(output.toByteArray(), Compression.DEFLATE, 1000000));
+    }
+
+    @Test(expected = RequestTooLargeException.class)
+    public void testZipBomb() throws Exception {
+        // 10 MB of zeros is compressed to about 10 KB:
+        byte[] bomb = gzip(new byte[10 * 1024 * 1024]);
+        assertTrue(bomb.length < 20000);
+        inflate(bomb, Compression.GZIP, 1024 * 1024);
+    }
+
+    @Test(expected = ZipException.class)
+    public void testInvalidChecksum() throws Exception {
+        byte[] gzip = gzip(CompressionTest.randomText(1000));
+        gzip[gzip.length - 8] ^= 1;
+        inflate(gzip, Compression.GZIP, 1000000);
+    }
+
+    @Test(expected = ZipException.class)
+    public void testInvalidHeader() throws Exception {
+        inflate("{\"name\":\"Bob\"}".getBytes("UTF-8"), Compression.GZIP, 1000000);
+    }
+
+    @Test(expected = ZipException.class)
+    public void testTruncated() throws Exception {
+        byte[] gzip = gzip(CompressionTest.randomText(100000));
+        byte[] truncated = new byte[gzip.length / 2];
+        System.arraycopy(gzip, 0, truncated, 0, truncated.length);
+        inflate(truncated, Compression.GZIP, 1000000);
+    }
+
+    @Test
+    public void testInflaterReused() throws Exception {
+        byte[] data = CompressionTest.randomText(1000);
+        byte[] gzip = gzip(data);
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(data, inflate(gzip, Compression.GZIP, 1000000));
+        }
+        assertEquals(1, pool.inflaters.size());
+    }
+
+    byte[] inflate(byte[] compressed, int encoding, long maxBytes) throws IOException {
+        try (InputStream input = new InflatingInputStream(new ByteArrayInputStream(compressed), pool, encoding, maxBytes)) {
+            return CompressionTest.readAll(input);
+        }
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(data);
+        }
+        return output.toByteArray();
+    }
+}
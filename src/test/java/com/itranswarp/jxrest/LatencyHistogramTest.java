@@ -0,0 +1,67 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketIndex() {
+        for (long v = 0; v < 100000; v++) {
+            int index = LatencyHistogram.bucketIndex(v);
+            assertTrue(v <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) {
+                assertTrue(v > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+        assertEquals(0, LatencyHistogram.bucketIndex(-1));
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getPercentile(99), 0);
+        assertEquals(0.0, h.getMean(), 0.0);
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 10000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(10000, h.getCount());
+        assertEquals(10000000, h.getMax());
+        assertEquals(5000500.0, h.getMean(), 0.001);
+        assertWithin(5000000, h.getPercentile(50));
+        assertWithin(9900000, h.getPercentile(99));
+        assertEquals(10000000, h.getPercentile(100));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 10000; n++) {
+                    h.record(n);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(80000, h.getCount());
+        assertEquals(9999, h.getMax());
+    }
+
+    void assertWithin(long expected, long actual) {
+        assertTrue("expected " + expected + " but " + actual, Math.abs(actual - expected) <= expected / 8);
+    }
+}
@@ -0,0 +1,107 @@
+package com.itranswarp.jxrest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * AsyncContext which records listeners and completion, and fires timeout or
+ * error by test.
+ */
+class MockAsyncContext implements AsyncContext {
+
+    final ServletRequest request;
+    final ServletResponse response;
+    final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+    volatile int completed = 0;
+    long timeout = 0;
+
+    MockAsyncContext(ServletRequest request, ServletResponse response) {
+        this.request = request;
+        this.response = response;
+    }
+
+    void fireTimeout() throws IOException {
+        for (AsyncListener listener : listeners) {
+            listener.onTimeout(new AsyncEvent(this, request, response));
+        }
+    }
+
+    void fireError(Throwable t) throws IOException {
+        for (AsyncListener listener : listeners) {
+            listener.onError(new AsyncEvent(this, request, response, t));
+        }
+    }
+
+    @Override
+    public ServletRequest getRequest() {
+        return request;
+    }
+
+    @Override
+    public ServletResponse getResponse() {
+        return response;
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse() {
+        return true;
+    }
+
+    @Override
+    public void dispatch() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void dispatch(String path) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void dispatch(ServletContext context, String path) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized void complete() {
+        completed++;
+    }
+
+    @Override
+    public void start(Runnable run) {
+        run.run();
+    }
+
+    @Override
+    public void addListener(AsyncListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void addListener(AsyncListener listener, ServletRequest request, ServletResponse response) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(Class<T> clazz) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public long getTimeout() {
+        return timeout;
+    }
+}
@@ -0,0 +1,408 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class NonBlockingApiRequestTest {
+
+    RestApiHandler handler;
+    HttpServletRequest request;
+    HttpServletResponse response;
+    MockAsyncContext ctx;
+    MockInput input;
+    MockOutput output;
+    long contentLength;
+    int status;
+    Map<String, String> responseHeaders;
+
+    @Before
+    public void setUp() {
+        NonBlockingHandler.calls.set(0);
+        NonBlockingHandler.future = new CompletableFuture<String>();
+        handler = new RestApiHandler();
+        handler.setNonBlockingIO(true);
+        handler.routes.addHandler(new NonBlockingHandler());
+        input = new MockInput();
+        output = new MockOutput();
+        contentLength = -1;
+        status = 200;
+        responseHeaders = new HashMap<String, String>();
+        request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {
+            HttpServletRequest.class
+        }, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "isAsyncSupported":
+                return true;
+            case "isAsyncStarted":
+                return ctx != null;
+            case "startAsync":
+                ctx = new MockAsyncContext(request, response);
+                return ctx;
+            case "getAsyncContext":
+                return ctx;
+            case "getContentLength":
+                return (int) contentLength;
+            case "getContentLengthLong":
+                return contentLength;
+            case "getContentType":
+                return "application/json";
+            case "getInputStream":
+                return input;
+            case "getRequestURI":
+                return "/test";
+            default:
+                return null;
+            }
+        });
+        response = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {
+            HttpServletResponse.class
+        }, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "getOutputStream":
+                return output;
+            case "getStatus":
+                return status;
+            case "setHeader":
+                responseHeaders.put((String) args[0], (String) args[1]);
+                return null;
+            case "setContentLength":
+                responseHeaders.put("Content-Length", String.valueOf(args[0]));
+                return null;
+            case "setStatus":
+            case "sendError":
+                status = (Integer) args[0];
+                return null;
+            case "containsHeader":
+            case "isCommitted":
+                return false;
+            default:
+                return null;
+            }
+        });
+    }
+
+    String body() {
+        return new String(output.data.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static String repeat(char ch, int n) {
+        char[] cs = new char[n];
+        Arrays.fill(cs, ch);
+        return new String(cs);
+    }
+
+    @Test
+    public void testReadBodyInChunks() throws Exception {
+        // unknown length starts with 8K buffer and grows:
+        String s = repeat('x', 20000);
+        byte[] data = ("{\"s\":\"" + s + "\"}").getBytes(StandardCharsets.UTF_8);
+        handler.processApi(request, response, "POST", "/echo");
+        assertNotNull(input.listener);
+        for (int pos = 0; pos < data.length; pos += 5000) {
+            input.feed(Arrays.copyOfRange(data, pos, Math.min(data.length, pos + 5000)));
+        }
+        assertEquals(0, NonBlockingHandler.calls.get());
+        input.finish();
+        assertEquals(1, NonBlockingHandler.calls.get());
+        assertEquals(200, status);
+        assertEquals("\"" + s + "\"", body());
+        assertEquals(1, ctx.completed);
+    }
+
+    @Test
+    public void testReadBodyWithoutSizeLimit() throws Exception {
+        // maxRequestBodySize + 1 overflows when growing buffer:
+        handler.setMaxRequestBodySize(Long.MAX_VALUE);
+        String s = repeat('x', 20000);
+        handler.processApi(request, response, "POST", "/echo");
+        input.feed(("{\"s\":\"" + s + "\"}").getBytes(StandardCharsets.UTF_8));
+        input.finish();
+        assertEquals(200, status);
+        assertEquals("\"" + s + "\"", body());
+    }
+
+    @Test
+    public void testNoTimeoutWhenReading() throws Exception {
+        handler.setAsyncTimeout(50);
+        handler.processApi(request, response, "POST", "/echo");
+        assertEquals(0, ctx.getTimeout());
+        input.feed("{\"s\":".getBytes(StandardCharsets.UTF_8));
+        Thread.sleep(200);
+        assertEquals(0, ctx.completed);
+        input.feed("\"slow\"}".getBytes(StandardCharsets.UTF_8));
+        input.finish();
+        assertEquals(200, status);
+        assertEquals("\"slow\"", body());
+        assertEquals(1, ctx.completed);
+    }
+
+    @Test
+    public void testNoTimeoutWhenWriting() throws Exception {
+        handler.setAsyncTimeout(50);
+        output.budget = 1;
+        contentLength = 0;
+        handler.processApi(request, response, "GET", "/large/20000");
+        Thread.sleep(200);
+        assertEquals(0, ctx.completed);
+        assertEquals(200, status);
+        output.budget = Integer.MAX_VALUE;
+        output.listener.onWritePossible();
+        assertEquals(1, ctx.completed);
+        assertEquals("\"" + repeat('a', 20000) + "\"", body());
+    }
+
+    @Test
+    public void testHandlerTimeout() throws Exception {
+        handler.setAsyncTimeout(50);
+        contentLength = 0;
+        handler.processApi(request, response, "GET", "/future");
+        for (int i = 0; i < 100 && ctx.completed == 0; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(503, status);
+        assertEquals(1, ctx.completed);
+        assertTrue(NonBlockingHandler.future.isCancelled());
+    }
+
+    @Test
+    public void testBodyTooLarge() throws Exception {
+        handler.setMaxRequestBodySize(100);
+        handler.processApi(request, response, "POST", "/echo");
+        input.feed(("{\"s\":\"" + repeat('x', 200) + "\"}").getBytes(StandardCharsets.UTF_8));
+        assertEquals(413, status);
+        assertEquals(1, ctx.completed);
+        // handler must not be called with truncated body:
+        input.finish();
+        assertEquals(0, NonBlockingHandler.calls.get());
+        assertEquals(1, ctx.completed);
+        assertEquals(0, output.data.size());
+    }
+
+    @Test
+    public void testReadError() throws Exception {
+        handler.processApi(request, response, "POST", "/echo");
+        input.feed("{\"s\":".getBytes(StandardCharsets.UTF_8));
+        input.listener.onError(new IOException("Connection reset"));
+        assertEquals(1, ctx.completed);
+        input.finish();
+        assertEquals(0, NonBlockingHandler.calls.get());
+        assertEquals(1, ctx.completed);
+    }
+
+    @Test
+    public void testWriteInChunks() throws Exception {
+        output.budget = 1;
+        contentLength = 0;
+        handler.processApi(request, response, "GET", "/large/20000");
+        assertNotNull(output.listener);
+        assertEquals(Arrays.asList(BodyWriteListener.CHUNK_SIZE), output.writes);
+        assertEquals(0, ctx.completed);
+        output.budget = Integer.MAX_VALUE;
+        output.listener.onWritePossible();
+        assertEquals(1, ctx.completed);
+        assertEquals(3, output.writes.size());
+        for (int n : output.writes) {
+            assertTrue(n <= BodyWriteListener.CHUNK_SIZE);
+        }
+        assertEquals("\"" + repeat('a', 20000) + "\"", body());
+        // write error completes:
+        output.listener.onError(new IOException("Broken pipe"));
+        assertEquals(2, ctx.completed);
+    }
+
+    @Test
+    public void testHead() throws Exception {
+        contentLength = 0;
+        handler.processApi(request, response, "HEAD", "/large/100");
+        assertEquals(200, status);
+        assertEquals(0, output.data.size());
+        assertEquals("102", responseHeaders.get("Content-Length"));
+        assertEquals(1, ctx.completed);
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        contentLength = 0;
+        handler.processApi(request, response, "GET", "/future");
+        assertEquals(0, ctx.completed);
+        ctx.fireTimeout();
+        assertEquals(503, status);
+        assertEquals(1, ctx.completed);
+        // result after timeout is ignored:
+        NonBlockingHandler.future.complete("late");
+        assertEquals(1, ctx.completed);
+        assertEquals(0, output.data.size());
+    }
+
+    @Test
+    public void testTimeoutReleasesPermit() throws Exception {
+        contentLength = 0;
+        handler.setMaxConcurrentRequests("GET", "/future", 1);
+        Callable c = handler.routes.getCallable("GET", "/future");
+        handler.processApi(request, response, "GET", "/future");
+        // permit is held until future is completed:
+        assertEquals(0, c.limiter.availablePermits());
+        ctx.fireTimeout();
+        assertTrue(NonBlockingHandler.future.isCancelled());
+        assertEquals(1, c.limiter.availablePermits());
+    }
+
+    @Test
+    public void testFutureBeforeTimeout() throws Exception {
+        contentLength = 0;
+        handler.processApi(request, response, "GET", "/future");
+        NonBlockingHandler.future.complete("done");
+        assertEquals("\"done\"", body());
+        assertEquals(1, ctx.completed);
+        ctx.fireTimeout();
+        assertEquals(200, status);
+        assertEquals(1, ctx.completed);
+    }
+
+    @Test
+    public void testAsyncError() throws Exception {
+        handler.processApi(request, response, "POST", "/echo");
+        ctx.fireError(new IOException("Client gone"));
+        assertEquals(1, ctx.completed);
+        input.finish();
+        assertEquals(0, NonBlockingHandler.calls.get());
+    }
+
+    /**
+     * Input stream which has data only after fed by test.
+     */
+    static class MockInput extends ServletInputStream {
+
+        ReadListener listener;
+        byte[] available = new byte[0];
+        int pos = 0;
+        boolean finished = false;
+
+        void feed(byte[] data) throws IOException {
+            available = data;
+            pos = 0;
+            listener.onDataAvailable();
+        }
+
+        void finish() throws IOException {
+            finished = true;
+            listener.onAllDataRead();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return pos < available.length ? (available[pos++] & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= available.length) {
+                return finished ? -1 : 0;
+            }
+            int n = Math.min(len, available.length - pos);
+            System.arraycopy(available, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public boolean isReady() {
+            return pos < available.length;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * Output stream which is ready for budget writes.
+     */
+    static class MockOutput extends ServletOutputStream {
+
+        WriteListener listener;
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final List<Integer> writes = new ArrayList<Integer>();
+        int budget = Integer.MAX_VALUE;
+
+        @Override
+        public void write(int b) throws IOException {
+            data.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            data.write(b, off, len);
+            writes.add(len);
+            budget--;
+        }
+
+        @Override
+        public boolean isReady() {
+            return budget > 0;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            this.listener = listener;
+            try {
+                listener.onWritePossible();
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    public static class NonBlockingHandler {
+
+        static final AtomicInteger calls = new AtomicInteger();
+        static CompletableFuture<String> future;
+
+        @POST
+        @Path("/echo")
+        String echo(Map<String, Object> data) {
+            calls.incrementAndGet();
+            return (String) data.get("s");
+        }
+
+        @GET
+        @Path("/large/:n")
+        String large(int n) {
+            return repeat('a', n);
+        }
+
+        @GET
+        @Path("/future")
+        CompletableFuture<String> future() {
+            return future;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ResponseCacheTest {
+
+    CacheKey key(String path) {
+        return new CacheKey("/items/:id", path, new String[0]);
+    }
+
+    @Test
+    public void testEvictBySize() {
+        ResponseCache cache = new ResponseCache(100);
+        cache.put(key("/items/1"), new byte[40], 10000);
+        cache.put(key("/items/2"), new byte[40], 10000);
+        // access 1 so that 2 is least recently used:
+        assertNotNull(cache.get(key("/items/1")));
+        cache.put(key("/items/3"), new byte[40], 10000);
+        assertNotNull(cache.get(key("/items/1")));
+        assertNull(cache.get(key("/items/2")));
+        assertNotNull(cache.get(key("/items/3")));
+        assertEquals(80, cache.bytes.get());
+        assertNull(cache.put(key("/items/4"), new byte[101], 10000));
+    }
+
+    @Test
+    public void testExpires() throws Exception {
+        ResponseCache cache = new ResponseCache(100);
+        cache.put(key("/items/1"), new byte[10], 1);
+        Thread.sleep(10);
+        assertNull(cache.get(key("/items/1")));
+        assertEquals(0, cache.bytes.get());
+    }
+
+    @Test
+    public void testCountEncodedBodies() throws Exception {
+        Compression compression = new Compression(0);
+        ResponseCache cache = new ResponseCache(1000);
+        CacheEntry entry = cache.put(key("/items/1"), new byte[400], 10000);
+        byte[] gzip = entry.getBody(compression, Compression.GZIP);
+        assertSame(gzip, entry.getBody(compression, Compression.GZIP));
+        assertEquals(400 + gzip.length, cache.bytes.get());
+        cache.invalidate(null, null);
+        assertEquals(0, cache.bytes.get());
+        // compressed copy of removed entry is not counted:
+        entry.getBody(compression, Compression.DEFLATE);
+        assertEquals(0, cache.bytes.get());
+    }
+
+    @Test
+    public void testEvictByEncodedBodies() throws Exception {
+        Compression compression = new Compression(0);
+        ResponseCache cache = new ResponseCache(1000);
+        CacheEntry entry1 = cache.put(key("/items/1"), new byte[400], 10000);
+        cache.put(key("/items/2"), new byte[590], 10000);
+        assertNotNull(cache.get(key("/items/2")));
+        entry1.getBody(compression, Compression.GZIP);
+        assertNull(cache.get(key("/items/1")));
+        assertNotNull(cache.get(key("/items/2")));
+        assertEquals(590, cache.bytes.get());
+    }
+
+    @Test
+    public void testQueryKey() {
+        assertEquals(new CacheKey("/items", "/items", new String[] { "10" }), new CacheKey("/items", "/items", new String[] { "10" }));
+        assertNotEquals(new CacheKey("/items", "/items", new String[] { "10" }), new CacheKey("/items", "/items", new String[] { null }));
+    }
+
+    @Test
+    public void testETag() {
+        String etag = ResponseCache.etag("{}".getBytes());
+        assertEquals(34, etag.length());
+        assertEquals(etag, ResponseCache.etag("{}".getBytes()));
+        assertNotEquals(etag, ResponseCache.etag("[]".getBytes()));
+        assertTrue(ResponseCache.matchesIfNoneMatch(etag, etag));
+        assertTrue(ResponseCache.matchesIfNoneMatch("\"abc\", " + etag, etag));
+        assertTrue(ResponseCache.matchesIfNoneMatch("W/" + etag, etag));
+        assertTrue(ResponseCache.matchesIfNoneMatch("*", etag));
+        assertFalse(ResponseCache.matchesIfNoneMatch("\"abc\"", etag));
+        assertFalse(ResponseCache.matchesIfNoneMatch(null, etag));
+    }
+}
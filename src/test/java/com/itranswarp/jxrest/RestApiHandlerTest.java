@@ -0,0 +1,1246 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RestApiHandlerTest {
+
+    RestApiHandler handler;
+    HttpServletRequest request;
+    HttpServletResponse response;
+    ByteArrayOutputStream body;
+    int status;
+    Map<String, String> requestHeaders;
+    Map<String, String> responseHeaders;
+    byte[] requestBody;
+    String queryString;
+    boolean asyncSupported;
+    MockAsyncContext ctx;
+
+    @Before
+    public void setUp() {
+        handler = new RestApiHandler();
+        handler.setAsyncTimeout(500);
+        handler.routes.addHandler(new AsyncHandler());
+        body = new ByteArrayOutputStream();
+        status = 200;
+        requestHeaders = new HashMap<String, String>();
+        responseHeaders = new HashMap<String, String>();
+        requestBody = new byte[0];
+        queryString = null;
+        asyncSupported = false;
+        ctx = null;
+        AsyncHandler.pending = new CompletableFuture<String>();
+        request = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {
+            HttpServletRequest.class
+        }, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "isAsyncSupported":
+                return asyncSupported;
+            case "isAsyncStarted":
+                return ctx != null;
+            case "startAsync":
+                ctx = new MockAsyncContext(request, response);
+                return ctx;
+            case "getAsyncContext":
+                return ctx;
+            case "getContentLength":
+                return requestBody.length;
+            case "getContentLengthLong":
+                return (long) requestBody.length;
+            case "getContentType":
+                return "application/json";
+            case "getInputStream":
+                ByteArrayInputStream input = new ByteArrayInputStream(requestBody);
+                return new ServletInputStream() {
+                    public int read() throws IOException {
+                        return input.read();
+                    }
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        return input.read(b, off, len);
+                    }
+                    public boolean isFinished() {
+                        return input.available() == 0;
+                    }
+                    public boolean isReady() {
+                        return true;
+                    }
+                    public void setReadListener(ReadListener listener) {
+                    }
+                };
+            case "getRequestURI":
+                return "/test";
+            case "getQueryString":
+                return queryString;
+            case "getParameter":
+                String[] values = BatchRequest.parseQuery(queryString).get(args[0]);
+                return values == null ? null : values[0];
+            case "getHeader":
+                return requestHeaders.get(args[0]);
+            case "getHeaders":
+                String header = requestHeaders.get(args[0]);
+                return Collections.enumeration(header == null ? Collections.emptyList() : Arrays.asList(header));
+            case "getHeaderNames":
+                return Collections.enumeration(requestHeaders.keySet());
+            default:
+                return null;
+            }
+        });
+        ServletOutputStream output = new ServletOutputStream() {
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+            public boolean isReady() {
+                return true;
+            }
+            public void setWriteListener(WriteListener listener) {
+            }
+        };
+        response = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {
+            HttpServletResponse.class
+        }, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "getOutputStream":
+                return output;
+            case "getStatus":
+                return status;
+            case "setHeader":
+                responseHeaders.put((String) args[0], (String) args[1]);
+                return null;
+            case "setContentLength":
+            case "setContentLengthLong":
+                responseHeaders.put("Content-Length", String.valueOf(args[0]));
+                return null;
+            case "addHeader":
+                responseHeaders.merge((String) args[0], (String) args[1], (a, b) -> {
+                    return a + ", " + b;
+                });
+                return null;
+            case "containsHeader":
+                return responseHeaders.containsKey(args[0]);
+            case "isCommitted":
+                return false;
+            case "setStatus":
+            case "sendError":
+                status = (Integer) args[0];
+                return null;
+            default:
+                return null;
+            }
+        });
+    }
+
+    String body() {
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testApiException() throws Exception {
+        handler.processApi(request, response, "GET", "/error");
+        assertEquals(400, status);
+        assertEquals("{\"error\":\"test:error\",\"data\":\"data\",\"message\":\"bad thing\"}", body());
+    }
+
+    @Test
+    public void testCompletedFuture() throws Exception {
+        handler.processApi(request, response, "GET", "/completed");
+        assertEquals(200, status);
+        assertEquals("\"done\"", body());
+    }
+
+    @Test
+    public void testAsyncNotSupported() throws Exception {
+        handler.processApi(request, response, "GET", "/async/100");
+        assertEquals(200, status);
+        assertEquals("100", body());
+    }
+
+    @Test
+    public void testAsyncApiException() throws Exception {
+        handler.processApi(request, response, "GET", "/async/error");
+        assertEquals(400, status);
+        assertEquals("{\"error\":\"async:error\",\"data\":null,\"message\":null}", body());
+    }
+
+    @Test
+    public void testMaxConcurrentRequests() throws Exception {
+        handler.setMaxConcurrentRequests("GET", "/completed", 1);
+        Callable c = handler.routes.getCallable("GET", "/completed");
+        assertTrue(c.limiter.tryAcquire());
+        handler.processApi(request, response, "GET", "/completed");
+        assertEquals(503, status);
+        c.limiter.release();
+        status = 200;
+        handler.processApi(request, response, "GET", "/completed");
+        assertEquals(200, status);
+        assertEquals(1, c.limiter.availablePermits());
+    }
+
+    @Test
+    public void testMaxConcurrentRequestsAsync() throws Exception {
+        asyncSupported = true;
+        handler.setMaxConcurrentRequests("GET", "/pending", 1);
+        Callable c = handler.routes.getCallable("GET", "/pending");
+        handler.processApi(request, response, "GET", "/pending");
+        // permit is held until future is completed:
+        assertEquals(0, c.limiter.availablePermits());
+        MockAsyncContext pendingCtx = ctx;
+        ctx = null;
+        handler.processApi(request, response, "GET", "/pending");
+        assertEquals(503, status);
+        status = 200;
+        AsyncHandler.pending.complete("done");
+        assertEquals(1, c.limiter.availablePermits());
+        assertEquals("\"done\"", body());
+        assertEquals(1, pendingCtx.completed);
+        // permit is released by timeout:
+        AsyncHandler.pending = new CompletableFuture<String>();
+        ctx = null;
+        handler.processApi(request, response, "GET", "/pending");
+        assertEquals(0, c.limiter.availablePermits());
+        ctx.fireTimeout();
+        assertEquals(503, status);
+        assertEquals(1, c.limiter.availablePermits());
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        asyncSupported = true;
+        queryString = "q=executor";
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        handler.setExecutor(executor);
+        handler.processApi(request, response, "GET", "/context");
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        // RestContext is set on executing thread:
+        assertEquals(200, status);
+        assertEquals("\"executor\"", body());
+        assertEquals(0, ctx.getTimeout());
+        assertEquals(1, ctx.completed);
+        assertNull(RestContext.getRestContext());
+    }
+
+    @Test
+    public void testExecutorRejected() throws Exception {
+        asyncSupported = true;
+        handler.setMetricsEnabled(true);
+        handler.setExecutor((Runnable task) -> {
+            throw new RejectedExecutionException();
+        });
+        handler.processApi(request, response, "GET", "/context");
+        assertEquals(503, status);
+        assertEquals(1, ctx.completed);
+        assertEquals(Long.valueOf(1), handler.routes.getCallable("GET", "/context").metrics.getStatusCounts().get(503));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testMaxConcurrentRequestsRouteNotFound() {
+        handler.setMaxConcurrentRequests("GET", "/not-found", 1);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        handler.setMetricsEnabled(true);
+        handler.processApi(request, response, "GET", "/completed");
+        handler.processApi(request, response, "GET", "/error");
+        handler.processApi(request, response, "GET", "/error");
+        handler.processApi(request, response, "GET", "/not-found");
+        RouteMetrics completed = handler.routes.getCallable("GET", "/completed").metrics;
+        assertEquals(1, completed.getRequests());
+        assertEquals(1, completed.getRoutingLatency().getCount());
+        assertEquals(1, completed.getInvokingLatency().getCount());
+        assertEquals(1, completed.getSerializingLatency().getCount());
+        assertEquals(Long.valueOf(1), completed.getStatusCounts().get(200));
+        RouteMetrics error = handler.routes.getCallable("GET", "/error").metrics;
+        assertEquals(2, error.getRequests());
+        assertEquals(Long.valueOf(2), error.getStatusCounts().get(400));
+        assertEquals(Long.valueOf(2), error.getApiErrorCounts().get("test:error"));
+        assertEquals(1, handler.getNotFoundRequests());
+        body.reset();
+        handler.processApi(request, response, "GET", "/_metrics");
+        assertTrue(body().startsWith("{\"notFound\":1,\"routes\":["));
+        assertTrue(body().contains("\"requests\":2"));
+    }
+
+    @Test
+    public void testMetricsDisabled() throws Exception {
+        handler.processApi(request, response, "GET", "/completed");
+        assertEquals(0, handler.routes.getCallable("GET", "/completed").metrics.getRequests());
+        handler.processApi(request, response, "GET", "/_metrics");
+        assertEquals(404, status);
+    }
+
+    @Test
+    public void testAccessLog() throws Exception {
+        File file = File.createTempFile("access-", ".log");
+        try {
+            handler.setAccessLog(file.getPath(), 1.0);
+            handler.processApi(request, response, "GET", "/completed");
+            handler.processApi(request, response, "GET", "/not-found");
+            handler.processApi(request, response, "HEAD", "/completed");
+            handler.destroy();
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            assertEquals(3, lines.size());
+            assertTrue(lines.get(0).contains("\"method\":\"GET\",\"route\":\"/completed\",\"status\":200,\"bytes\":6,"));
+            assertTrue(lines.get(1).contains("\"route\":null,\"status\":404,"));
+            // route of HEAD is recorded through HeadResponse:
+            assertTrue(lines.get(2).contains("\"method\":\"HEAD\",\"route\":\"/completed\","));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        AsyncHandler.cachedCalls.set(0);
+        handler.processApi(request, response, "GET", "/cached/123");
+        String etag = responseHeaders.get("ETag");
+        assertNotNull(etag);
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+        assertEquals("\"123\"", body());
+        assertEquals(1, AsyncHandler.cachedCalls.get());
+        // from cache:
+        body.reset();
+        handler.processApi(request, response, "GET", "/cached/123");
+        assertEquals("\"123\"", body());
+        assertEquals(etag, responseHeaders.get("ETag"));
+        assertEquals(1, AsyncHandler.cachedCalls.get());
+        // other path variable is not cached:
+        handler.processApi(request, response, "GET", "/cached/456");
+        assertEquals(2, AsyncHandler.cachedCalls.get());
+        // not modified:
+        body.reset();
+        requestHeaders.put("If-None-Match", etag);
+        handler.processApi(request, response, "GET", "/cached/123");
+        assertEquals(304, status);
+        assertEquals(0, body.size());
+        assertEquals(2, AsyncHandler.cachedCalls.get());
+        // invalidate:
+        handler.invalidateCache("/cached/:id", "/cached/123");
+        status = 200;
+        requestHeaders.clear();
+        handler.processApi(request, response, "GET", "/cached/123");
+        assertEquals(3, AsyncHandler.cachedCalls.get());
+        handler.processApi(request, response, "GET", "/cached/456");
+        assertEquals(3, AsyncHandler.cachedCalls.get());
+        handler.invalidateCache();
+        handler.processApi(request, response, "GET", "/cached/456");
+        assertEquals(4, AsyncHandler.cachedCalls.get());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testCachedPost() throws Exception {
+        handler.routes.addHandler(new Object() {
+            @POST
+            @Path("/cached")
+            @Cached
+            String post() {
+                return "";
+            }
+        });
+    }
+
+    @Test
+    public void testHead() throws Exception {
+        AsyncHandler.cachedCalls.set(0);
+        handler.processApi(request, response, "HEAD", "/cached/123");
+        assertEquals(200, status);
+        assertEquals(0, body.size());
+        assertEquals("5", responseHeaders.get("Content-Length"));
+        assertNotNull(responseHeaders.get("ETag"));
+        assertEquals(1, AsyncHandler.cachedCalls.get());
+        // from cache without calling handler:
+        responseHeaders.clear();
+        handler.processApi(request, response, "HEAD", "/cached/123");
+        assertEquals(0, body.size());
+        assertEquals("5", responseHeaders.get("Content-Length"));
+        assertEquals(1, AsyncHandler.cachedCalls.get());
+        // HEAD of stream is closed without reading:
+        responseHeaders.clear();
+        AsyncHandler.streamClosed.set(false);
+        handler.processApi(request, response, "HEAD", "/stream/3");
+        assertEquals(0, body.size());
+        assertNull(responseHeaders.get("Content-Length"));
+        assertTrue(AsyncHandler.streamClosed.get());
+    }
+
+    @Test
+    public void testHeadAsync() throws Exception {
+        asyncSupported = true;
+        handler.processApi(request, response, "HEAD", "/pending");
+        // container thread is not blocked:
+        assertNotNull(ctx);
+        assertEquals(0, ctx.completed);
+        AsyncHandler.pending.complete("done");
+        assertEquals(1, ctx.completed);
+        assertEquals(200, status);
+        assertEquals(0, body.size());
+        assertEquals("6", responseHeaders.get("Content-Length"));
+    }
+
+    @Test
+    public void testOptions() throws Exception {
+        handler.processApi(request, response, "OPTIONS", "/patch/123");
+        assertEquals(204, status);
+        assertEquals("GET, PATCH, HEAD, OPTIONS", responseHeaders.get("Allow"));
+        assertEquals(0, body.size());
+        handler.processApi(request, response, "OPTIONS", "/completed");
+        assertEquals("GET, HEAD, OPTIONS", responseHeaders.get("Allow"));
+        handler.processApi(request, response, "OPTIONS", "/not-found");
+        assertEquals(404, status);
+    }
+
+    @Test
+    public void testMethodNotAllowed() throws Exception {
+        handler.processApi(request, response, "POST", "/completed");
+        assertEquals(405, status);
+        assertEquals("GET, HEAD, OPTIONS", responseHeaders.get("Allow"));
+        responseHeaders.clear();
+        handler.processApi(request, response, "TRACE", "/patch/123");
+        assertEquals(405, status);
+        assertEquals("GET, PATCH, HEAD, OPTIONS", responseHeaders.get("Allow"));
+        handler.processApi(request, response, "DELETE", "/not-found");
+        assertEquals(404, status);
+    }
+
+    @Test
+    public void testCors() throws Exception {
+        requestHeaders.put("Origin", "https://www.example.com");
+        handler.processApi(request, response, "GET", "/completed");
+        assertNull(responseHeaders.get("Access-Control-Allow-Origin"));
+        handler.setCors(Arrays.asList("*"), Arrays.asList("Content-Type", "Authorization"), 600, false);
+        handler.processApi(request, response, "GET", "/completed");
+        assertEquals("*", responseHeaders.get("Access-Control-Allow-Origin"));
+        assertNull(responseHeaders.get("Vary"));
+        // route with @Cors:
+        responseHeaders.clear();
+        handler.processApi(request, response, "GET", "/patch/123");
+        assertNull(responseHeaders.get("Access-Control-Allow-Origin"));
+        requestHeaders.put("Origin", "https://example.com");
+        handler.processApi(request, response, "GET", "/patch/123");
+        assertEquals("https://example.com", responseHeaders.get("Access-Control-Allow-Origin"));
+        assertEquals("Origin", responseHeaders.get("Vary"));
+        assertEquals("true", responseHeaders.get("Access-Control-Allow-Credentials"));
+    }
+
+    @Test
+    public void testCorsPreflight() throws Exception {
+        handler.setCors(Arrays.asList("https://a.example.com", "https://b.example.com"), Arrays.asList("Content-Type", "Authorization"), 600, false);
+        requestHeaders.put("Origin", "https://b.example.com");
+        requestHeaders.put("Access-Control-Request-Method", "GET");
+        handler.processApi(request, response, "OPTIONS", "/completed");
+        assertEquals(204, status);
+        assertEquals(0, body.size());
+        assertEquals("https://b.example.com", responseHeaders.get("Access-Control-Allow-Origin"));
+        assertEquals("GET, HEAD, OPTIONS", responseHeaders.get("Access-Control-Allow-Methods"));
+        assertEquals("Content-Type, Authorization", responseHeaders.get("Access-Control-Allow-Headers"));
+        assertEquals("600", responseHeaders.get("Access-Control-Max-Age"));
+        // route with @Cors:
+        responseHeaders.clear();
+        requestHeaders.put("Origin", "https://example.com");
+        requestHeaders.put("Access-Control-Request-Method", "PATCH");
+        handler.processApi(request, response, "OPTIONS", "/patch/123");
+        assertEquals("https://example.com", responseHeaders.get("Access-Control-Allow-Origin"));
+        assertEquals("GET, PATCH, HEAD, OPTIONS", responseHeaders.get("Access-Control-Allow-Methods"));
+        assertEquals("3600", responseHeaders.get("Access-Control-Max-Age"));
+        // origin not allowed:
+        responseHeaders.clear();
+        requestHeaders.put("Origin", "https://evil.com");
+        handler.processApi(request, response, "OPTIONS", "/patch/123");
+        assertEquals("GET, PATCH, HEAD, OPTIONS", responseHeaders.get("Allow"));
+        assertNull(responseHeaders.get("Access-Control-Allow-Origin"));
+        // method not allowed:
+        responseHeaders.clear();
+        requestHeaders.put("Origin", "https://a.example.com");
+        requestHeaders.put("Access-Control-Request-Method", "DELETE");
+        handler.processApi(request, response, "OPTIONS", "/completed");
+        assertNull(responseHeaders.get("Access-Control-Allow-Origin"));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidCorsOrigin() {
+        handler.setCors(Arrays.asList("https://example.com/"), Arrays.asList("Content-Type"), 600, false);
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        queryString = "page=2&q=a%20b&limit=50";
+        handler.processApi(request, response, "GET", "/query");
+        assertEquals("\"2,50,a b\"", body());
+        // default and missing:
+        body.reset();
+        queryString = "page=3&limit=";
+        handler.processApi(request, response, "GET", "/query");
+        assertEquals("\"3,20,null\"", body());
+        // invalid and required:
+        body.reset();
+        queryString = "page=x";
+        handler.processApi(request, response, "GET", "/query");
+        assertEquals(400, status);
+        assertEquals("{\"error\":\"query:invalid\",\"data\":\"page\",\"message\":\"Invalid query parameter.\"}", body());
+        body.reset();
+        queryString = "pages=1";
+        handler.processApi(request, response, "GET", "/query");
+        assertEquals("{\"error\":\"query:missing\",\"data\":\"page\",\"message\":\"Missing query parameter.\"}", body());
+    }
+
+    @Test
+    public void testCachedFuture() throws Exception {
+        AsyncHandler.cachedCalls.set(0);
+        // completed future on blocking path:
+        handler.processApi(request, response, "GET", "/cached/future/1");
+        assertEquals("\"1\"", body());
+        assertNotNull(responseHeaders.get("ETag"));
+        body.reset();
+        handler.processApi(request, response, "GET", "/cached/future/1");
+        assertEquals("\"1\"", body());
+        assertEquals(1, AsyncHandler.cachedCalls.get());
+        // pending future completed after async started:
+        asyncSupported = true;
+        handler.processApi(request, response, "GET", "/cached/pending");
+        AsyncHandler.pending.complete("done");
+        assertEquals(1, ctx.completed);
+        body.reset();
+        ctx = null;
+        handler.processApi(request, response, "GET", "/cached/pending");
+        assertNull(ctx);
+        assertEquals("\"done\"", body());
+        assertEquals(2, AsyncHandler.cachedCalls.get());
+    }
+
+    @Test
+    public void testCachedQuery() throws Exception {
+        AsyncHandler.cachedCalls.set(0);
+        queryString = "limit=10";
+        handler.processApi(request, response, "GET", "/cached/query");
+        assertEquals("10", body());
+        body.reset();
+        queryString = "limit=50";
+        handler.processApi(request, response, "GET", "/cached/query");
+        assertEquals("50", body());
+        assertEquals(2, AsyncHandler.cachedCalls.get());
+        body.reset();
+        handler.processApi(request, response, "GET", "/cached/query");
+        assertEquals("50", body());
+        assertEquals(2, AsyncHandler.cachedCalls.get());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testQueryInvalidDefault() {
+        handler.routes.addHandler(new Object() {
+            @GET
+            @Path("/query/invalid")
+            int query(@Query(value = "limit", defaultValue = "x") int limit) {
+                return limit;
+            }
+        });
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testCorsAnyOriginWithCredentials() {
+        handler.setCors(Arrays.asList("*"), Arrays.asList("Content-Type"), 600, true);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testCorsAnnotationAnyOriginWithCredentials() {
+        handler.routes.addHandler(new Object() {
+            @GET
+            @Path("/cors/credentials")
+            @Cors(credentials = true)
+            String get() {
+                return "";
+            }
+        });
+    }
+
+    @Test
+    public void testPatch() throws Exception {
+        requestBody = "{\"name\":\"Bob\"}".getBytes(StandardCharsets.UTF_8);
+        handler.processApi(request, response, "PATCH", "/patch/123");
+        assertEquals(200, status);
+        assertEquals("\"123=Bob\"", body());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        handler.setBatch("/batch", 4);
+        handler.setMetricsEnabled(true);
+        requestBody = ("["
+                + "{\"method\":\"GET\",\"path\":\"/completed\"},"
+                + "{\"method\":\"GET\",\"path\":\"/context?q=a%20b\"},"
+                + "{\"method\":\"GET\",\"path\":\"/error\"},"
+                + "{\"method\":\"POST\",\"path\":\"/echo/bob?x=1\",\"body\":{\"age\":12}},"
+                + "{\"method\":\"GET\",\"path\":\"/async/error\"},"
+                + "{\"method\":\"DELETE\",\"path\":\"/not-found\"},"
+                + "{\"method\":\"DELETE\",\"path\":\"/completed\"},"
+                + "{\"method\":\"GET\",\"path\":\"/header\"},"
+                + "{\"method\":\"GET\",\"path\":\"/header\"}"
+                + "]").getBytes(StandardCharsets.UTF_8);
+        requestHeaders.put("X-Token", "secret");
+        try {
+            handler.processApi(request, response, "POST", "/batch");
+            assertEquals(200, status);
+            assertEquals("[{\"status\":200,\"body\":\"done\"},"
+                    + "{\"status\":200,\"body\":\"a b\"},"
+                    + "{\"status\":400,\"body\":{\"error\":\"test:error\",\"data\":\"data\",\"message\":\"bad thing\"}},"
+                    + "{\"status\":200,\"body\":\"bob:1:12\"},"
+                    + "{\"status\":400,\"body\":{\"error\":\"async:error\",\"data\":null,\"message\":null}},"
+                    + "{\"status\":404,\"body\":null},"
+                    + "{\"status\":405,\"body\":null},"
+                    + "{\"status\":200,\"body\":\"secret\"},"
+                    + "{\"status\":200,\"body\":\"secret\"}]", body());
+            assertEquals(1, handler.routes.getCallable("GET", "/completed").metrics.getRequests());
+            assertEquals(1, handler.getNotFoundRequests());
+            // invalid batch:
+            body.reset();
+            requestBody = "{\"method\":\"GET\"}".getBytes(StandardCharsets.UTF_8);
+            handler.processApi(request, response, "POST", "/batch");
+            assertEquals(400, status);
+            assertTrue(body().startsWith("{\"error\":\"batch:invalid\""));
+        }
+        finally {
+            handler.destroy();
+        }
+    }
+
+    @Test
+    public void testBatchMaxItems() throws Exception {
+        handler.setBatch("/batch", 4, 2);
+        requestBody = "[{\"method\":\"GET\",\"path\":\"/completed\"},{\"method\":\"GET\",\"path\":\"/completed\"},{\"method\":\"GET\",\"path\":\"/completed\"}]"
+                .getBytes(StandardCharsets.UTF_8);
+        try {
+            handler.processApi(request, response, "POST", "/batch");
+            assertEquals(400, status);
+            assertTrue(body().startsWith("{\"error\":\"batch:too_many\",\"data\":\"2\""));
+        }
+        finally {
+            handler.destroy();
+        }
+    }
+
+    @Test
+    public void testCompressionReleasedOnError() throws Exception {
+        handler.setCompressionThreshold(0);
+        requestHeaders.put("Accept-Encoding", "gzip");
+        // fails after compressing is started:
+        List<String> list = new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                if (index == 0) {
+                    return String.join("", Collections.nCopies(100000, "x"));
+                }
+                throw new IllegalStateException("Bad element");
+            }
+
+            @Override
+            public int size() {
+                return 2;
+            }
+        };
+        try {
+            handler.writeJson(response, list, handler.compression, Compression.GZIP);
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1, handler.compression.compressors.size());
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        AsyncHandler.streamClosed.set(false);
+        handler.processApi(request, response, "GET", "/stream/3");
+        assertEquals(200, status);
+        assertEquals("[0,1,2]", body());
+        assertTrue(AsyncHandler.streamClosed.get());
+        // empty:
+        body.reset();
+        handler.processApi(request, response, "GET", "/stream/0");
+        assertEquals("[]", body());
+        // iterator:
+        body.reset();
+        handler.processApi(request, response, "GET", "/iterator");
+        assertEquals("[\"a\",\"b\"]", body());
+        // ndjson:
+        body.reset();
+        requestHeaders.put("Accept", "application/x-ndjson");
+        handler.processApi(request, response, "GET", "/stream/3");
+        assertEquals("0\n1\n2\n", body());
+    }
+
+    @Test
+    public void testLargeStream() throws Exception {
+        handler.setResponseBufferSize(256);
+        handler.processApi(request, response, "GET", "/stream/10000");
+        String s = body();
+        assertTrue(s.startsWith("[0,1,2,"));
+        assertTrue(s.endsWith(",9998,9999]"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testResponseBufferTooSmall() {
+        handler.setResponseBufferSize(4);
+    }
+
+    @Test
+    public void testStreamError() throws Exception {
+        AsyncHandler.streamClosed.set(false);
+        handler.processApi(request, response, "GET", "/stream/error");
+        assertEquals(400, status);
+        assertEquals("{\"error\":\"stream:error\",\"data\":null,\"message\":null}", body());
+        assertTrue(AsyncHandler.streamClosed.get());
+    }
+
+    @Test
+    public void testAsyncTimeout() throws Exception {
+        handler.processApi(request, response, "GET", "/async/2000");
+        assertEquals(503, status);
+    }
+
+    @Test
+    public void testStartAsync() throws Exception {
+        asyncSupported = true;
+        handler.processApi(request, response, "GET", "/pending");
+        // container thread is released:
+        assertNotNull(ctx);
+        assertEquals(500, ctx.getTimeout());
+        assertEquals(1, ctx.listeners.size());
+        assertEquals(0, ctx.completed);
+        AsyncHandler.pending.complete("done");
+        assertEquals(200, status);
+        assertEquals("\"done\"", body());
+        assertEquals(1, ctx.completed);
+        // timeout after completed is ignored:
+        ctx.fireTimeout();
+        assertEquals(200, status);
+        assertEquals("\"done\"", body());
+        assertEquals(1, ctx.completed);
+    }
+
+    @Test
+    public void testStartAsyncTimeout() throws Exception {
+        asyncSupported = true;
+        handler.processApi(request, response, "GET", "/pending");
+        ctx.fireTimeout();
+        assertEquals(503, status);
+        assertEquals(1, ctx.completed);
+        assertTrue(AsyncHandler.pending.isCancelled());
+        // completed after timeout is ignored:
+        status = 200;
+        AsyncHandler.pending.complete("late");
+        assertEquals(200, status);
+        assertEquals("", body());
+        assertEquals(1, ctx.completed);
+    }
+
+    @Test
+    public void testStartAsyncException() throws Exception {
+        asyncSupported = true;
+        handler.processApi(request, response, "GET", "/pending");
+        AsyncHandler.pending.completeExceptionally(new ApiException("async:error"));
+        assertEquals(400, status);
+        assertEquals("{\"error\":\"async:error\",\"data\":null,\"message\":null}", body());
+        assertEquals(1, ctx.completed);
+    }
+
+    @Test
+    public void testStartAsyncError() throws Exception {
+        asyncSupported = true;
+        handler.processApi(request, response, "GET", "/pending");
+        ctx.fireError(new IOException("Client gone"));
+        assertEquals(1, ctx.completed);
+        assertTrue(AsyncHandler.pending.isCancelled());
+        ctx.fireTimeout();
+        assertEquals(200, status);
+        assertEquals(1, ctx.completed);
+    }
+
+    @Test
+    public void testStartAsyncRace() throws Exception {
+        asyncSupported = true;
+        for (int i = 0; i < 100; i++) {
+            AsyncHandler.pending = new CompletableFuture<String>();
+            ctx = null;
+            handler.processApi(request, response, "GET", "/pending");
+            MockAsyncContext asyncCtx = ctx;
+            Thread t = new Thread(() -> {
+                AsyncHandler.pending.complete("done");
+            });
+            t.start();
+            asyncCtx.fireTimeout();
+            t.join();
+            // either timeout or result, but completed only once:
+            assertEquals(1, asyncCtx.completed);
+        }
+    }
+
+    @Test
+    public void testLazyHandlers() throws Exception {
+        LazyHandler.instances.set(0);
+        handler.setLazyHandlers(true);
+        handler.addHandler(LazyHandler.class);
+        assertEquals(0, LazyHandler.instances.get());
+        handler.processApi(request, response, "GET", "/lazy/123");
+        assertEquals(200, status);
+        assertEquals("124", body());
+        body.reset();
+        handler.processApi(request, response, "GET", "/lazy");
+        assertEquals("\"lazy\"", body());
+        assertEquals(1, LazyHandler.instances.get());
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        LazyHandler.instances.set(0);
+        LazyHandler.calls.set(0);
+        LazyHandler.Item.instances.set(0);
+        handler.setLazyHandlers(true);
+        handler.addHandler(LazyHandler.class);
+        int n = handler.warmUp(10);
+        assertEquals(handler.routes.callables().size(), n);
+        assertEquals(1, LazyHandler.instances.get());
+        assertEquals("/lazy/1", handler.samplePath(handler.routes.getCallable("GET", "/lazy/:id")));
+        assertEquals("/lazy/date/2000-01-01", handler.samplePath(handler.routes.getCallable("GET", "/lazy/date/:date")));
+        assertEquals("/lazy/color/RED", handler.samplePath(handler.routes.getCallable("GET", "/lazy/color/:color")));
+        assertEquals(0, LazyHandler.calls.get());
+        // body parsed once to check and by each iteration, and one default result:
+        assertEquals(12, LazyHandler.Item.instances.get());
+    }
+
+    @Test
+    public void testLazyHandlerCreatedOnce() throws Exception {
+        LazyHandler.instances.set(0);
+        HandlerHolder holder = new HandlerHolder(LazyHandler.class, () -> {
+            return new LazyHandler();
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(holder::get));
+        }
+        for (Future<Object> f : futures) {
+            assertSame(holder.get(), f.get());
+        }
+        executor.shutdown();
+        assertEquals(1, LazyHandler.instances.get());
+    }
+
+    @Test
+    public void testLazyHandlerCreateFailed() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        HandlerHolder holder = new HandlerHolder(LazyHandler.class, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("not ready");
+            }
+            return new LazyHandler();
+        });
+        try {
+            holder.get();
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("not ready", e.getMessage());
+        }
+        // created by next call:
+        Object h = holder.get();
+        assertTrue(h instanceof LazyHandler);
+        assertSame(h, holder.get());
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testReplaceHandler() throws Exception {
+        handler.addHandlerInstance(new FeatureV1());
+        handler.processApi(request, response, "GET", "/feature/1");
+        assertEquals("\"v1-1\"", body());
+        // request matched before replaced is finished by old handler:
+        RouteMatch inflight = handler.routes.match("GET", "/feature/2");
+        assertEquals(2, handler.replaceHandler(FeatureV1.class, new FeatureV2()));
+        assertEquals("v1-2", inflight.call(null, request, response));
+        body.reset();
+        handler.processApi(request, response, "GET", "/feature/1");
+        assertEquals("\"v2-1\"", body());
+        assertNull(handler.routes.match("GET", "/feature"));
+        assertNotNull(handler.routes.match("GET", "/feature/v2"));
+    }
+
+    @Test
+    public void testReplaceHandlerKeepsRouteLimit() throws Exception {
+        handler.setMaxConcurrentRequests(10);
+        handler.addHandlerInstance(new FeatureV1());
+        handler.setMaxConcurrentRequests("GET", "/feature/:id", 1);
+        handler.replaceHandler(FeatureV1.class, new FeatureV2());
+        assertEquals(1, handler.routes.getCallable("GET", "/feature/:id").limiter.availablePermits());
+        assertEquals(10, handler.routes.getCallable("GET", "/feature/v2").limiter.availablePermits());
+        // global limit does not override limit of route:
+        handler.setMaxConcurrentRequests(20);
+        assertEquals(1, handler.routes.getCallable("GET", "/feature/:id").limiter.availablePermits());
+        assertEquals(20, handler.routes.getCallable("GET", "/feature/v2").limiter.availablePermits());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testAddHandlerInstanceByClass() {
+        handler.addHandlerInstance(FeatureV1.class);
+    }
+
+    @Test
+    public void testSetHandlersByAddHandler() throws Exception {
+        List<Class<?>> added = new ArrayList<Class<?>>();
+        RestApiHandler custom = new RestApiHandler() {
+            @Override
+            protected void addHandler(Class<?> clazz) {
+                added.add(clazz);
+                super.addHandler(clazz);
+            }
+        };
+        custom.setHandlers(Arrays.asList(FeatureV1.class.getName()));
+        assertEquals(Arrays.asList(FeatureV1.class), added);
+        assertNotNull(custom.routes.match("GET", "/feature/1"));
+    }
+
+    @Test
+    public void testConfigure() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("compressionThreshold", " 512 ");
+        params.put("handlers", FeatureV1.class.getName());
+        params.put("warmUp", "1");
+        RestApiHandler configured = new RestApiHandler();
+        configured.configure((name) -> {
+            return params.get(name);
+        });
+        assertEquals(512, configured.compression.threshold);
+        assertNotNull(configured.routes.match("GET", "/feature/1"));
+    }
+
+    @Test
+    public void testConfigureInvalidNumber() throws Exception {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("warmUp", "1k");
+        try {
+            new RestApiHandler().configure((name) -> {
+                return params.get(name);
+            });
+            fail("Expected ServletException");
+        }
+        catch (ServletException e) {
+            assertEquals("Invalid init parameter warmUp: 1k", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSetHandlersByFindHandlers() throws Exception {
+        RestApiHandler custom = new RestApiHandler() {
+            @Override
+            protected void findHandlers(String name) {
+                if (name.equals("features")) {
+                    addHandler(FeatureV1.class);
+                }
+                else {
+                    super.findHandlers(name);
+                }
+            }
+        };
+        custom.setHandlers(Arrays.asList("features", AsyncHandler.class.getName()));
+        assertNotNull(custom.routes.match("GET", "/feature/1"));
+        assertNotNull(custom.routes.match("GET", "/pending"));
+    }
+
+    @Test
+    public void testReplaceHandlerFailed() throws Exception {
+        handler.addHandlerInstance(new FeatureV1());
+        int size = handler.routes.callables().size();
+        try {
+            // conflicts with AsyncHandler:
+            handler.replaceHandler(FeatureV1.class, new Object() {
+                @GET
+                @Path("/completed")
+                String completed() {
+                    return "conflict";
+                }
+            });
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(size, handler.routes.callables().size());
+        assertEquals("v1-1", handler.routes.call("GET", "/feature/1", null, request, response));
+    }
+
+    @Test
+    public void testRemoveHandler() throws Exception {
+        handler.addHandlerInstance(new FeatureV1());
+        assertTrue(handler.removeRoute("GET", "/feature"));
+        assertFalse(handler.removeRoute("GET", "/feature"));
+        assertNotNull(handler.routes.match("GET", "/feature/1"));
+        assertEquals(1, handler.removeHandler(FeatureV1.class));
+        handler.processApi(request, response, "GET", "/feature/1");
+        assertEquals(404, status);
+    }
+}
+
+class FeatureV1 {
+
+    @GET
+    @Path("/feature/:id")
+    String get(String id) {
+        return "v1-" + id;
+    }
+
+    @GET
+    @Path("/feature")
+    String list() {
+        return "v1";
+    }
+}
+
+class FeatureV2 {
+
+    @GET
+    @Path("/feature/:id")
+    String get(String id) {
+        return "v2-" + id;
+    }
+
+    @GET
+    @Path("/feature/v2")
+    String v2() {
+        return "v2";
+    }
+}
+
+class LazyHandler {
+
+    static final AtomicInteger instances = new AtomicInteger();
+    static final AtomicInteger calls = new AtomicInteger();
+
+    public LazyHandler() {
+        instances.incrementAndGet();
+    }
+
+    @GET
+    @Path("/lazy/:id")
+    long get(long id) {
+        calls.incrementAndGet();
+        return id + 1;
+    }
+
+    @GET
+    @Path("/lazy/date/:date")
+    String date(LocalDate date) {
+        calls.incrementAndGet();
+        return date.toString();
+    }
+
+    @GET
+    @Path("/lazy/color/:color")
+    String color(Color color) {
+        calls.incrementAndGet();
+        return color.name();
+    }
+
+    @GET
+    @Path("/lazy")
+    String lazy() {
+        calls.incrementAndGet();
+        return "lazy";
+    }
+
+    @POST
+    @Path("/lazy/item")
+    Item item(Item item) {
+        calls.incrementAndGet();
+        return item;
+    }
+
+    public static class Item {
+
+        static final AtomicInteger instances = new AtomicInteger();
+
+        public String name;
+
+        public Item() {
+            instances.incrementAndGet();
+        }
+    }
+}
+
+class AsyncHandler {
+
+    static final AtomicInteger cachedCalls = new AtomicInteger();
+    static final AtomicBoolean streamClosed = new AtomicBoolean();
+    static CompletableFuture<String> pending;
+
+    @GET
+    @Path("/stream/:n")
+    IntStream stream(int n) {
+        return IntStream.range(0, n).onClose(() -> {
+            streamClosed.set(true);
+        });
+    }
+
+    @GET
+    @Path("/stream/error")
+    Stream<String> streamError() {
+        return Stream.<String>generate(() -> {
+            throw new ApiException("stream:error");
+        }).onClose(() -> {
+            streamClosed.set(true);
+        });
+    }
+
+    @GET
+    @Path("/iterator")
+    Iterator<String> iterator() {
+        return Arrays.asList("a", "b").iterator();
+    }
+
+    @GET
+    @Path("/cached/:id")
+    @Cached(ttl = 10)
+    String cached(String id) {
+        cachedCalls.incrementAndGet();
+        return id;
+    }
+
+    @GET
+    @Path("/patch/:id")
+    @Cors(origins = { "https://example.com" }, maxAge = 3600, credentials = true)
+    String getPatch(String id) {
+        return id;
+    }
+
+    @PATCH
+    @Path("/patch/:id")
+    @Cors(origins = { "https://example.com" }, maxAge = 3600, credentials = true)
+    String patch(String id, Map<String, Object> data) {
+        return id + "=" + data.get("name");
+    }
+
+    @GET
+    @Path("/query")
+    String query(@Query("page") int page, @Query(value = "limit", defaultValue = "20") int limit, @Query String q) {
+        return page + "," + limit + "," + q;
+    }
+
+    @GET
+    @Path("/cached/future/:id")
+    @Cached(ttl = 10)
+    CompletableFuture<String> cachedFuture(String id) {
+        cachedCalls.incrementAndGet();
+        return CompletableFuture.completedFuture(id);
+    }
+
+    @GET
+    @Path("/cached/pending")
+    @Cached(ttl = 10)
+    CompletableFuture<String> cachedPending() {
+        cachedCalls.incrementAndGet();
+        return pending;
+    }
+
+    @GET
+    @Path("/cached/query")
+    @Cached(ttl = 10)
+    int cachedQuery(@Query("limit") int limit) {
+        cachedCalls.incrementAndGet();
+        return limit;
+    }
+
+    @GET
+    @Path("/error")
+    String error() {
+        throw new ApiException("test:error", "data", "bad thing");
+    }
+
+    @GET
+    @Path("/context")
+    String context() {
+        return RestContext.getRestContext().getHttpServletRequest().getParameter("q");
+    }
+
+    @POST
+    @Path("/echo/:name")
+    String echo(String name, Map<String, String> query, Map<String, Object> body) {
+        return name + ":" + query.get("x") + ":" + body.get("age");
+    }
+
+    @GET
+    @Path("/completed")
+    CompletableFuture<String> completed() {
+        return CompletableFuture.completedFuture("done");
+    }
+
+    @GET
+    @Path("/header")
+    String header() {
+        return RestContext.getRestContext().getHttpServletRequest().getHeader("x-token");
+    }
+
+    @GET
+    @Path("/pending")
+    CompletableFuture<String> pending() {
+        return pending;
+    }
+
+    @GET
+    @Path("/async/:ms")
+    CompletionStage<Long> async(long ms) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Thread.sleep(ms);
+            }
+            catch (InterruptedException e) {
+            }
+            return ms;
+        });
+    }
+
+    @GET
+    @Path("/async/error")
+    CompletionStage<Long> asyncError() {
+        return CompletableFuture.supplyAsync(() -> {
+            throw new ApiException("async:error");
+        });
+    }
+}
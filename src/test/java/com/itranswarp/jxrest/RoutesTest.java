@@ -5,9 +5,11 @@ import static org.junit.Assert.*;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.time.LocalDate;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 import java.util.Vector;
 
 import javax.servlet.http.HttpServletRequest;
@@ -123,6 +125,139 @@ public class RoutesTest {
         routes.addHandler(new BadDeleteHandler());
     }
 
+    @Test
+    public void testRoutesStaticSegmentFirst() throws Exception {
+        Routes routes = new Routes();
+        routes.addHandler(new TrieHandler());
+        assertEquals("item-123", routes.call("GET", "/items/123", jsonCallback, request, response));
+        assertEquals("item-new", routes.call("GET", "/items/new/edit", jsonCallback, request, response));
+        assertEquals("item-edit-456", routes.call("GET", "/items/456/edit", jsonCallback, request, response));
+        assertEquals("comment-456-789", routes.call("GET", "/items/456/comments/789", jsonCallback, request, response));
+        // backtrack from static segment "new":
+        assertEquals("comment-new-1", routes.call("GET", "/items/new/comments/1", jsonCallback, request, response));
+        // mixed segment by regex:
+        assertEquals("file-readme", routes.call("GET", "/files/readme.json", jsonCallback, request, response));
+    }
+
+    @Test(expected=ApiNotFoundException.class)
+    public void testRoutesTrieNotFound() throws Exception {
+        Routes routes = new Routes();
+        routes.addHandler(new TrieHandler());
+        routes.call("GET", "/items//edit", jsonCallback, request, response);
+    }
+
+    @Test
+    public void testRoutesManyArguments() throws Exception {
+        Routes routes = new Routes();
+        routes.addHandler(new ManyArgsHandler());
+        assertEquals("1-2-3-4-5", routes.call("GET", "/args/1/2/3/4/5", jsonCallback, request, response));
+    }
+
+    @Test(expected=ApiException.class)
+    public void testRoutesApiExceptionNotWrapped() throws Exception {
+        Routes routes = new Routes();
+        routes.addHandler(new ManyArgsHandler());
+        routes.call("GET", "/error", jsonCallback, request, response);
+    }
+
+    @Test
+    public void testRoutesConverters() throws Exception {
+        Routes routes = new Routes();
+        routes.converters.register(OrderId.class, (str) -> {
+            return new OrderId(str);
+        });
+        routes.addHandler(new ConverterHandler());
+        assertEquals("GREEN", routes.call("GET", "/colors/GREEN", jsonCallback, request, response));
+        assertEquals("2015-01-22", routes.call("GET", "/dates/2015-01-22", jsonCallback, request, response));
+        assertEquals("a6b1c2d3-0000-4000-8000-000000000001", routes.call("GET", "/uuids/a6b1c2d3-0000-4000-8000-000000000001", jsonCallback, request, response));
+        assertEquals("order:O-007", routes.call("GET", "/orders/O-007", jsonCallback, request, response));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRoutesConverterNotFound() {
+        Routes routes = new Routes();
+        routes.addHandler(new ConverterHandler());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRoutesAmbiguous() {
+        Routes routes = new Routes();
+        routes.addHandler(new AmbiguousHandler());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRoutesRegexShadowed() {
+        Routes routes = new Routes();
+        routes.addHandler(new ShadowedHandler());
+    }
+
+    @Test
+    public void testRoutesRegexNotShadowed() throws Exception {
+        assertFalse(RouteTrie.shadows("/files/readme", "/files/:name.json"));
+        assertFalse(RouteTrie.shadows("/files/:id/raw", "/files/:name.json"));
+        assertTrue(RouteTrie.shadows("/files/:id", "/files/:name.json"));
+        assertTrue(RouteTrie.shadows("/:type/:id", "/files/:name.json"));
+    }
+
+    @Test
+    public void testMatchByOffset() throws Exception {
+        Routes routes = new Routes();
+        routes.addHandler(new TrieHandler());
+        routes.addHandler(new TestHandler());
+        String uri = "/api/v1/items/456/comments/789";
+        RouteMatch match = routes.match(HttpMethod.GET, uri, 7);
+        assertEquals("/items/:id/comments/:cid", match.callable.path);
+        assertEquals("/items/456/comments/789", match.apiPath());
+        assertEquals("comment-456-789", match.call(jsonCallback, request, response));
+        // static route:
+        assertEquals("static get", routes.match(HttpMethod.GET, "/api/static/get", 4).call(jsonCallback, request, response));
+        // regex route:
+        assertEquals("file-readme", routes.match(HttpMethod.GET, "/api/files/readme.json", 4).call(jsonCallback, request, response));
+        assertNull(routes.match(HttpMethod.GET, "/api/static/get", 3));
+        assertNull(routes.match(HttpMethod.POST, "/api/static/get", 4));
+    }
+
+    @Test
+    public void testHttpMethodIndex() {
+        assertEquals(HttpMethod.GET, HttpMethod.indexOf("GET"));
+        assertEquals(HttpMethod.DELETE, HttpMethod.indexOf("DELETE"));
+        assertEquals(-1, HttpMethod.indexOf("get"));
+        assertEquals(-1, HttpMethod.indexOf("TRACE"));
+        for (int i = 0; i < HttpMethod.NAMES.length; i++) {
+            assertEquals(i, HttpMethod.indexOf(HttpMethod.NAMES[i]));
+        }
+    }
+
+    @Test
+    public void testAllow() {
+        Routes routes = new Routes();
+        routes.addHandler(new Object() {
+            @GET
+            @Path("/users/me")
+            String me() {
+                return "me";
+            }
+
+            @PUT
+            @Path("/users/:id")
+            String update(String id, Map<String, Object> data) {
+                return id;
+            }
+
+            @DELETE
+            @Path("/users/:id")
+            String delete(String id) {
+                return id;
+            }
+        });
+        // static path also matches variable routes of other methods:
+        assertEquals("GET, PUT, DELETE, HEAD, OPTIONS", routes.allow("/api/users/me", 4));
+        assertEquals("PUT, DELETE, OPTIONS", routes.allow("/api/users/123", 4));
+        assertNull(routes.allow("/api/users", 4));
+        assertNull(routes.match("HEAD", "/users/me"));
+        assertNull(routes.match("OPTIONS", "/users/me"));
+    }
+
     @Test
     public void testProxy() throws Exception {
         Routes routes = new Routes();
@@ -189,6 +324,128 @@ class TestHandler {
 
 }
 
+class TrieHandler {
+
+    @GET
+    @Path("/items/:id")
+    String item(String id) {
+        return "item-" + id;
+    }
+
+    @GET
+    @Path("/items/new/edit")
+    String newItem() {
+        return "item-new";
+    }
+
+    @GET
+    @Path("/items/:id/edit")
+    String editItem(String id) {
+        return "item-edit-" + id;
+    }
+
+    @GET
+    @Path("/items/:id/comments/:cid")
+    String comment(String id, String cid) {
+        return "comment-" + id + "-" + cid;
+    }
+
+    @GET
+    @Path("/files/:name.json")
+    String file(String name) {
+        return "file-" + name;
+    }
+}
+
+class ManyArgsHandler {
+
+    @GET
+    @Path("/args/:a/:b/:c/:d/:e")
+    String args(int a, long b, String c, Integer d, double e) {
+        return a + "-" + b + "-" + c + "-" + d + "-" + (int) e;
+    }
+
+    @GET
+    @Path("/error")
+    void error() {
+        throw new ApiException("test:error");
+    }
+}
+
+enum Color {
+    RED, GREEN, BLUE
+}
+
+class OrderId {
+
+    final String id;
+
+    OrderId(String id) {
+        this.id = id;
+    }
+
+    public String toString() {
+        return "order:" + id;
+    }
+}
+
+class ConverterHandler {
+
+    @GET
+    @Path("/colors/:color")
+    String color(Color color) {
+        return color.name();
+    }
+
+    @GET
+    @Path("/dates/:date")
+    String date(LocalDate date) {
+        return date.toString();
+    }
+
+    @GET
+    @Path("/uuids/:id")
+    String uuid(UUID id) {
+        return id.toString();
+    }
+
+    @GET
+    @Path("/orders/:id")
+    String order(OrderId id) {
+        return id.toString();
+    }
+}
+
+class ShadowedHandler {
+
+    @GET
+    @Path("/files/:name.json")
+    String file(String name) {
+        return "file-" + name;
+    }
+
+    @GET
+    @Path("/files/:id")
+    String fileById(String id) {
+        return "file-" + id;
+    }
+}
+
+class AmbiguousHandler {
+
+    @GET
+    @Path("/items/:id")
+    String item(String id) {
+        return "item-" + id;
+    }
+
+    @GET
+    @Path("/items/:itemId")
+    String item2(String itemId) {
+        return "item-" + itemId;
+    }
+}
+
 class BadNameHandler {
 
     @GET
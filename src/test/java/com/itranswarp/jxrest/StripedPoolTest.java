@@ -0,0 +1,49 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class StripedPoolTest {
+
+    @Test
+    public void testPollAndOffer() {
+        StripedPool<String> pool = new StripedPool<String>(3);
+        assertEquals(4, pool.slots.length());
+        assertNull(pool.poll());
+        assertTrue(pool.offer("a"));
+        assertTrue(pool.offer("b"));
+        assertEquals(2, pool.size());
+        assertNotNull(pool.poll());
+        assertNotNull(pool.poll());
+        assertNull(pool.poll());
+    }
+
+    @Test
+    public void testBounded() {
+        StripedPool<String> pool = new StripedPool<String>(2);
+        assertTrue(pool.offer("a"));
+        assertTrue(pool.offer("b"));
+        assertFalse(pool.offer("c"));
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        StripedPool<Object> pool = new StripedPool<Object>(16);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 10000; n++) {
+                    Object obj = pool.poll();
+                    pool.offer(obj == null ? new Object() : obj);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(pool.size() <= 16);
+    }
+}
@@ -0,0 +1,81 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.itranswarp.jsonstream.JsonBuilder;
+
+public class Utf8ReaderTest {
+
+    String readAll(Reader reader, int charsPerRead) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        char[] cbuf = new char[charsPerRead];
+        for (;;) {
+            int n = reader.read(cbuf);
+            if (n == (-1)) {
+                break;
+            }
+            assertTrue(n > 0);
+            sb.append(cbuf, 0, n);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Input stream that returns at most 3 bytes each read.
+     */
+    InputStream slowInput(byte[] data) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(3, len));
+            }
+        };
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("{\"name\":\"中文\",\"emoji\":\"😀\",\"e\":\"é\",\"n\":").append(i).append("}");
+        }
+        String s = sb.toString();
+        byte[] data = s.getBytes(StandardCharsets.UTF_8);
+        assertEquals(s, readAll(new Utf8Reader(new ByteArrayInputStream(data), new byte[8192], data.length, Long.MAX_VALUE), 1024));
+        assertEquals(s, readAll(new Utf8Reader(slowInput(data), new byte[7], -1, Long.MAX_VALUE), 1));
+        assertEquals(s, readAll(new Utf8Reader(slowInput(data), new byte[16], -1, Long.MAX_VALUE), 5));
+    }
+
+    @Test
+    public void testContentLength() throws Exception {
+        byte[] data = "{\"a\":1}GARBAGE".getBytes(StandardCharsets.UTF_8);
+        assertEquals("{\"a\":1}", readAll(new Utf8Reader(new ByteArrayInputStream(data), new byte[64], 7, Long.MAX_VALUE), 64));
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        byte[] data = new byte[] { 'A', (byte) 0x80, 'B', (byte) 0xc3, 'C', (byte) 0xe4, (byte) 0xb8 };
+        assertEquals("A�B�C�", readAll(new Utf8Reader(new ByteArrayInputStream(data), new byte[64], -1, Long.MAX_VALUE), 64));
+    }
+
+    @Test
+    public void testParseJson() throws Exception {
+        byte[] data = "{\"name\":\"中文😀\",\"id\":123}".getBytes(StandardCharsets.UTF_8);
+        Map<?, ?> map = new JsonBuilder().createReader(new Utf8Reader(slowInput(data), new byte[8], -1, 1024)).parse(Map.class);
+        assertEquals("中文😀", map.get("name"));
+        assertEquals(123L, map.get("id"));
+    }
+
+    @Test(expected=RequestTooLargeException.class)
+    public void testTooLarge() throws Exception {
+        byte[] data = "{\"name\":\"0123456789012345678901234567890123456789\"}".getBytes(StandardCharsets.UTF_8);
+        new JsonBuilder().createReader(new Utf8Reader(slowInput(data), new byte[8], -1, 32)).parse(Map.class);
+    }
+}
@@ -0,0 +1,171 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class Utf8WriterTest {
+
+    ByteArrayOutputStream body;
+    int contentLength;
+    String contentEncoding;
+    HttpServletResponse response;
+
+    @Before
+    public void setUp() {
+        body = new ByteArrayOutputStream();
+        contentLength = -1;
+        contentEncoding = null;
+        ServletOutputStream output = new ServletOutputStream() {
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+            public boolean isReady() {
+                return true;
+            }
+            public void setWriteListener(WriteListener listener) {
+            }
+        };
+        response = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {
+            HttpServletResponse.class
+        }, (proxy, method, args) -> {
+            if (method.getName().equals("getOutputStream")) {
+                return output;
+            }
+            if (method.getName().equals("setContentLength")) {
+                contentLength = (Integer) args[0];
+            }
+            if (method.getName().equals("setHeader") && "Content-Encoding".equals(args[0])) {
+                contentEncoding = (String) args[1];
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void testSmallBody() throws Exception {
+        String s = "{\"name\":\"Michael\",\"city\":\"北京\",\"emoji\":\"😀\",\"e\":\"é\"}";
+        Utf8Writer writer = new Utf8Writer(response, new byte[1024]);
+        writer.write(s);
+        writer.close();
+        byte[] expected = s.getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, body.toByteArray());
+        assertEquals(expected.length, contentLength);
+    }
+
+    @Test
+    public void testLargeBodyIsStreamed() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("中文-").append(i).append("-😀,");
+        }
+        String s = sb.toString();
+        Utf8Writer writer = new Utf8Writer(response, new byte[64]);
+        // split surrogate pairs across writes:
+        for (int i = 0; i < s.length(); i += 7) {
+            writer.write(s, i, Math.min(7, s.length() - i));
+        }
+        assertTrue(writer.isStreaming());
+        writer.close();
+        assertArrayEquals(s.getBytes(StandardCharsets.UTF_8), body.toByteArray());
+        assertEquals(-1, contentLength);
+    }
+
+    @Test
+    public void testCompressSmallBody() throws Exception {
+        String s = repeat("{\"name\":\"Michael\"}", 20);
+        Utf8Writer writer = new Utf8Writer(response, new byte[1024]);
+        writer.setCompression(new Compression(100), Compression.GZIP);
+        writer.write(s);
+        writer.close();
+        assertEquals("gzip", contentEncoding);
+        assertEquals(body.size(), contentLength);
+        assertEquals(s, new String(gunzip(body.toByteArray()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCompressBelowThreshold() throws Exception {
+        String s = "{\"name\":\"Michael\"}";
+        Utf8Writer writer = new Utf8Writer(response, new byte[1024]);
+        writer.setCompression(new Compression(100), Compression.GZIP);
+        writer.write(s);
+        writer.close();
+        assertNull(contentEncoding);
+        assertEquals(s, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCompressLargeBody() throws Exception {
+        String s = repeat("中文-😀,", 1000);
+        Utf8Writer writer = new Utf8Writer(response, new byte[64]);
+        writer.setCompression(new Compression(100), Compression.GZIP);
+        writer.write(s);
+        assertTrue(writer.isStreaming());
+        writer.close();
+        assertEquals("gzip", contentEncoding);
+        assertEquals(-1, contentLength);
+        assertEquals(s, new String(gunzip(body.toByteArray()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFlushNowCompressed() throws Exception {
+        Utf8Writer writer = new Utf8Writer(response, new byte[1024]);
+        writer.setCompression(new Compression(100), Compression.GZIP);
+        writer.write("[1,2,3");
+        writer.flushNow();
+        assertEquals("gzip", contentEncoding);
+        // bytes sent so far can be inflated after 10 bytes gzip header:
+        byte[] partial = body.toByteArray();
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(partial, 10, partial.length - 10);
+        byte[] buffer = new byte[100];
+        int n = inflater.inflate(buffer);
+        inflater.end();
+        assertEquals("[1,2,3", new String(buffer, 0, n, StandardCharsets.UTF_8));
+        writer.write("]");
+        writer.close();
+        assertEquals(-1, contentLength);
+        assertEquals("[1,2,3]", new String(gunzip(body.toByteArray()), StandardCharsets.UTF_8));
+    }
+
+    static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                output.write(buffer, 0, n);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    @Test
+    public void testUnpairedSurrogate() throws Exception {
+        Utf8Writer writer = new Utf8Writer(response, new byte[64]);
+        writer.write("A\ud83dB\ude00C\ud83d");
+        writer.close();
+        assertEquals("A?B?C?", new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
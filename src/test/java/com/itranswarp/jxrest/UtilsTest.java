@@ -0,0 +1,55 @@
+package com.itranswarp.jxrest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class UtilsTest {
+
+    @Test
+    public void testParseLong() {
+        String s = "/users/12345/-9223372036854775808/+9223372036854775807";
+        assertEquals(12345L, Utils.parseLong(s, 7, 12));
+        assertEquals(Long.MIN_VALUE, Utils.parseLong(s, 13, 33));
+        assertEquals(Long.MAX_VALUE, Utils.parseLong(s, 34, s.length()));
+        assertEquals(0L, Utils.parseLong("0", 0, 1));
+    }
+
+    @Test
+    public void testFindQuery() {
+        String q = "a=1&limit=20&empty=&flag&limit=30&x";
+        assertEquals((10L << 32) | 12, Utils.findQuery(q, "limit"));
+        assertEquals((19L << 32) | 19, Utils.findQuery(q, "empty"));
+        assertEquals((24L << 32) | 24, Utils.findQuery(q, "flag"));
+        assertEquals((35L << 32) | 35, Utils.findQuery(q, "x"));
+        assertEquals(-1, Utils.findQuery(q, "lim"));
+        assertEquals(-1, Utils.findQuery(q, "b"));
+        assertEquals(-1, Utils.findQuery(null, "a"));
+    }
+
+    @Test
+    public void testParseInt() {
+        String s = "/users/2147483647/-2147483648";
+        assertEquals(Integer.MAX_VALUE, Utils.parseInt(s, 7, 17));
+        assertEquals(Integer.MIN_VALUE, Utils.parseInt(s, 18, s.length()));
+    }
+
+    @Test
+    public void testParseInvalidNumber() {
+        String[] invalids = { "", "-", "+", "12a", "9223372036854775808", "-9223372036854775809", "1.5" };
+        for (String s : invalids) {
+            try {
+                Utils.parseLong(s, 0, s.length());
+                fail("NumberFormatException expected: " + s);
+            }
+            catch (NumberFormatException e) {
+            }
+        }
+        try {
+            Utils.parseInt("2147483648", 0, 10);
+            fail("NumberFormatException expected.");
+        }
+        catch (NumberFormatException e) {
+        }
+    }
+}